@@ -2,16 +2,20 @@ package jp.ac.keio.bio.fun.xitosbml.cui;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 import javax.xml.stream.XMLStreamException;
 
 import org.sbml.jsbml.SBMLException;
-import org.sbml.jsbml.SBMLWriter;
-import org.sbml.jsbml.TidySBMLWriter;
 
-import ij.IJ;
 import ij.ImagePlus;
+import jp.ac.keio.bio.fun.xitosbml.image.ImgProcessUtil;
+import jp.ac.keio.bio.fun.xitosbml.image.SpatialImage;
+import jp.ac.keio.bio.fun.xitosbml.image.TiffLoader;
+import jp.ac.keio.bio.fun.xitosbml.image.VolumeStack;
+import jp.ac.keio.bio.fun.xitosbml.image.VoxelVolume;
 import jp.ac.keio.bio.fun.xitosbml.util.ModelValidator;
+import jp.ac.keio.bio.fun.xitosbml.xitosbml.SampledFieldWriter;
 import jp.ac.keio.bio.fun.xitosbml.xitosbml.SpatialSBMLExporter;
 
 public class CuiMainImgSpatial extends CuiMainSpatial {
@@ -23,10 +27,36 @@ public class CuiMainImgSpatial extends CuiMainSpatial {
 	}
 
 	public void runCui(String imagePath, String outputPath) {
-		ImagePlus imager = new ImagePlus(imagePath);
+		runCui(imagePath, outputPath, null);
+	}
+
+	/**
+	 * Creates the spatial model from given image and saves it to given path. If the
+	 * mapping from pixel value to domain type is given, the image is read as a label
+	 * image (see {@link jp.ac.keio.bio.fun.xitosbml.image.LabelImage}).
+	 *
+	 * @param imagePath  the path to the input image file (a TIFF stack or a folder of
+	 *                   TIFF images is loaded by {@link TiffLoader})
+	 * @param outputPath the path to the output XML file
+	 * @param mapping    the domain type of each pixel value of the label image, or
+	 *                   null if the image is a binary image of a domain
+	 */
+	public void runCui(String imagePath, String outputPath, Map<Integer, String> mapping) {
+		ImagePlus imager = null;
+		try {
+			imager = TiffLoader.open(imagePath);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (imager == null)
+			imager = new ImagePlus(imagePath);
 		this.imager = imager;
-		cui(imager);
-		computeImgTrial();
+		if (mapping == null) {
+			cui(imager);
+			computeImgTrial();
+		} else {
+			computeLabelImg(imager, mapping);
+		}
 		SpatialSBMLExporter sbmlexp = new SpatialSBMLExporter(spImg);
 		model = sbmlexp.getModel();
 		sbmlexp.createGeometryElements(); // visualize(spImg);
@@ -34,10 +64,13 @@ public class CuiMainImgSpatial extends CuiMainSpatial {
 		sbmlexp.addCoordParameter();
 		document = sbmlexp.getDocument();
 
-		// To save the SBML document
+		// To save the SBML document, and to create its preview from the same pass
+		String preview = null;
 		try {
-			SBMLWriter.write(document, new File(outputPath), ' ', (short) 2);
+			preview = SampledFieldWriter.writeWithPreview(document, new File(outputPath),
+					SampledFieldWriter.getPreviewLength());
 			System.out.println("Saved model");
+			sbmlexp.writeGeometryCache(new File(outputPath));
 		} catch (NullPointerException e) {
 			System.out.println("SBML document was not saved");
 		} catch (SBMLException e) {
@@ -51,29 +84,65 @@ public class CuiMainImgSpatial extends CuiMainSpatial {
 			e.printStackTrace();
 		}
 
-		try {
-			String docStr = new TidySBMLWriter().writeSBMLToString(document);
-			IJ.log(docStr);
-		} catch (SBMLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (XMLStreamException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		for (int level = 1; level < spImg.getPyramidSize(); level++)
+			saveLevel(spImg.getPyramidLevel(level), level, outputPath);
 
 		// So that the original image does not get overwritten
 		String spImgPath = null;
 		if (outputPath.contains(".xml"))
 			spImgPath = outputPath.substring(0, outputPath.indexOf('.'));
 		spImg.saveAsImage(spImgPath);
-
 		showDomainStructure();
 
-		print();
+		print(preview);
 		ModelValidator validator = new ModelValidator(document);
 		validator.validate();
+		// To delete the temporary files of the voxel volumes which are no longer used
+		releaseImage(imager);
+		sbmlexp.release();
+
+	}
 
+	/**
+	 * Releases the voxel volume of given input image if it is backed by a voxel volume
+	 * (ex. a memory-mapped TIFF stack loaded by {@link TiffLoader}) and the spatial image
+	 * does not use it.
+	 *
+	 * @param image the input image
+	 */
+	private void releaseImage(ImagePlus image) {
+		if (!(image.getStack() instanceof VolumeStack))
+			return;
+		VoxelVolume volume = ((VolumeStack) image.getStack()).getVolume();
+		if (!ImgProcessUtil.isBackedBy(spImg.getVoxels(), volume))
+			ImgProcessUtil.release(volume);
+	}
+
+	/**
+	 * Saves the SBML document of given level of the resolution pyramid to
+	 * &lt;output&gt;_level&lt;k&gt;.xml.
+	 *
+	 * @param level the spatial image of the level
+	 * @param k the level
+	 * @param outputPath the path to the output XML file of the level 0
+	 */
+	private void saveLevel(SpatialImage level, int k, String outputPath) {
+		SpatialSBMLExporter sbmlexp = new SpatialSBMLExporter(level);
+		sbmlexp.createGeometryElements();
+		sbmlexp.addCoordParameter();
+		String base = outputPath.endsWith(".xml") ? outputPath.substring(0, outputPath.length() - 4) : outputPath;
+		try {
+			File file = new File(base + "_level" + k + ".xml");
+			SampledFieldWriter.write(sbmlexp.getDocument(), file);
+			System.out.println("Saved model of level " + k);
+			sbmlexp.writeGeometryCache(file);
+		} catch (SBMLException e) {
+			e.printStackTrace();
+		} catch (XMLStreamException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 }
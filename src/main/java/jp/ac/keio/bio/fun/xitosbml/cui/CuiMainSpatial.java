@@ -1,14 +1,11 @@
 package jp.ac.keio.bio.fun.xitosbml.cui;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 
-import javax.xml.stream.XMLStreamException;
-
 import org.sbml.jsbml.Model;
 import org.sbml.jsbml.SBMLDocument;
-import org.sbml.jsbml.SBMLException;
-import org.sbml.jsbml.TidySBMLWriter;
 import org.sbml.jsbml.ext.spatial.Geometry;
 import org.sbml.jsbml.ext.spatial.SpatialModelPlugin;
 
@@ -19,9 +16,12 @@ import jp.ac.keio.bio.fun.xitosbml.image.Filler;
 import jp.ac.keio.bio.fun.xitosbml.image.ImageBorder;
 import jp.ac.keio.bio.fun.xitosbml.image.ImageEdit;
 import jp.ac.keio.bio.fun.xitosbml.image.Interpolator;
+import jp.ac.keio.bio.fun.xitosbml.image.LabelImage;
+import jp.ac.keio.bio.fun.xitosbml.image.SlabPipeline;
 import jp.ac.keio.bio.fun.xitosbml.image.SpatialImage;
 import jp.ac.keio.bio.fun.xitosbml.visual.DomainStruct;
 import jp.ac.keio.bio.fun.xitosbml.visual.Viewer;
+import jp.ac.keio.bio.fun.xitosbml.xitosbml.SampledFieldWriter;
 
 public abstract class CuiMainSpatial implements PlugIn {
 
@@ -73,9 +73,19 @@ public abstract class CuiMainSpatial implements PlugIn {
 	 * The converted image will be generated as
 	 * {@link jp.ac.keio.bio.fun.xitosbml.image.SpatialImage}, which is a base class
 	 * for representing spatial image in XitoSBML.
+	 * If the system property "xitosbml.streaming" is true, the image is processed by
+	 * {@link jp.ac.keio.bio.fun.xitosbml.image.SlabPipeline} without materializing
+	 * a stack of images in each step.
+	 * The image is then resampled and its resolution pyramid is created by
+	 * {@link #editImg()}.
 	 */
 
 	protected void computeImgTrial() {
+		if (SlabPipeline.isEnabled()) {
+			spImg = new SlabPipeline(hashSampledValue, hashDomainTypes).run(trial.getDomFile());
+			editImg();
+			return;
+		}
 		Interpolator interpolator = new Interpolator();
 		HashMap<String, ImagePlus> hashDomFile = trial.getDomFile();
 		interpolator.interpolate(hashDomFile);
@@ -91,10 +101,45 @@ public abstract class CuiMainSpatial implements PlugIn {
 		ImageBorder imgBorder = new ImageBorder(spImg);
 		spImg.updateImage(imgBorder.getStackImage());
 
-		new ImageEdit(spImg);
+		editImg();
 
 	}
 
+	/**
+	 * Creates the spatial image from a single label image and the mapping from pixel value
+	 * to domain type, instead of a binary image of each domain type. The label image is
+	 * interpolated and filled only once
+	 * (see {@link jp.ac.keio.bio.fun.xitosbml.image.LabelImage}).
+	 * The image is then resampled and its resolution pyramid is created by
+	 * {@link #editImg()}.
+	 *
+	 * @param imager  the label image
+	 * @param mapping the domain type of each pixel value
+	 */
+	protected void computeLabelImg(ImagePlus imager, Map<Integer, String> mapping) {
+		LabelImage labelImg = new LabelImage(imager, mapping);
+		hashDomainTypes = labelImg.getHashDomainTypes();
+		hashSampledValue = labelImg.getHashSampledValue();
+		spImg = labelImg.createSpatialImage();
+		editImg();
+	}
+
+	/**
+	 * Resample the image to the target voxel size or voxel budget if it is given
+	 * (see {@link jp.ac.keio.bio.fun.xitosbml.image.SpatialImage#resampleToTarget()}),
+	 * add a membrane between two different domains, and create the resolution pyramid
+	 * of the image (see {@link jp.ac.keio.bio.fun.xitosbml.image.SpatialImage#createPyramid()}).
+	 * The image before resampling is released if it is resampled.
+	 */
+	protected void editImg() {
+		SpatialImage resampled = spImg.resampleToTarget();
+		if (resampled != spImg)
+			spImg.release();
+		spImg = resampled;
+		new ImageEdit(spImg);
+		spImg.createPyramid();
+	}
+
 	/**
 	 * Show inclusion relationship of domains as a graph.
 	 */
@@ -104,18 +149,18 @@ public abstract class CuiMainSpatial implements PlugIn {
 		new DomainStruct().show(g);
 	}
 
-	protected void print() {
-		String docStr;
-		try {
-			docStr = new TidySBMLWriter().writeSBMLToString(document);
-			System.out.println(docStr);
-		} catch (SBMLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (XMLStreamException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+	/**
+	 * Prints the preview of the SBML document to stdout. The preview is a bounded text of
+	 * the document in which long arrays (ex. the samples of SampledField) are elided, and is
+	 * created while the document is saved (see {@link SampledFieldWriter#writeWithPreview(SBMLDocument, java.io.File, int)}).
+	 * Nothing is printed if no preview is given, that is, if the document was not saved or
+	 * the preview is disabled (see {@link SampledFieldWriter#getPreviewLength()}).
+	 *
+	 * @param preview the preview of the saved SBML document, or null
+	 */
+	protected void print(String preview) {
+		if (preview != null)
+			System.out.println(preview);
 	}
 
 }
@@ -1,7 +1,11 @@
 package jp.ac.keio.bio.fun.xitosbml.cui;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
+import jp.ac.keio.bio.fun.xitosbml.image.LabelImage;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
@@ -14,12 +18,59 @@ public class CuiRun implements Callable<Integer> {
 	String inputValue;
 	@Option(names = "-o", required = true, description = "The path to output XML file")
 	String outputValue;
+	@Option(names = "--voxel-size", description = "The target voxel size (isotropic) of the spatial image")
+	Double voxelSize;
+	@Option(names = "--voxel-budget", description = "The maximum number of voxels of the spatial image")
+	Long voxelBudget;
+	@Option(names = "--pyramid-levels", description = "The number of levels of the resolution pyramid. Level k is saved to <output>_level<k>.xml")
+	Integer pyramidLevels;
+	@Option(names = "--label-map", description = "The path to a file which maps each pixel value of a label image given by -i to a domain type (one \"<value> <domain type>\" per line)")
+	String labelMap;
+	@Option(names = "--label", description = "The domain type of a pixel value of a label image given by -i (ex. --label 1=Cytosol --label 2=Nucleus)")
+	Map<Integer, String> labels;
+	@Option(names = "--compression-level", description = "Compress (deflate) the SampledField with the compression level (0 - 9)")
+	Integer compressionLevel;
+	@Option(names = "--geometry-cache", description = "Write the geometry cache (<output>.geom), which is used when the model is opened again")
+	boolean geometryCache;
+	@Option(names = "--preview-length", description = "The maximum length of the preview of the saved SBML document printed to stdout (0 to print no preview)")
+	Integer previewLength;
 
 	@Override
 	public Integer call() {
+		if (voxelSize != null)
+			System.setProperty("xitosbml.voxelSize", voxelSize.toString());
+		if (voxelBudget != null)
+			System.setProperty("xitosbml.voxelBudget", voxelBudget.toString());
+		if (pyramidLevels != null)
+			System.setProperty("xitosbml.pyramidLevels", pyramidLevels.toString());
+		if (compressionLevel != null) {
+			if (compressionLevel < 0 || compressionLevel > 9) {
+				System.err.println("Compression level must be 0 - 9: " + compressionLevel);
+				return 1;
+			}
+			System.setProperty("xitosbml.compressionLevel", compressionLevel.toString());
+		}
+		if (geometryCache)
+			System.setProperty("xitosbml.geometryCache", "true");
+		if (previewLength != null)
+			System.setProperty("xitosbml.previewLength", previewLength.toString());
+		Map<Integer, String> mapping = null;
+		if (labelMap != null || labels != null) {
+			mapping = new LinkedHashMap<Integer, String>();
+			if (labelMap != null) {
+				try {
+					mapping.putAll(LabelImage.readMapping(labelMap));
+				} catch (IOException e) {
+					System.err.println(e.getMessage());
+					return 1;
+				}
+			}
+			if (labels != null)
+				mapping.putAll(labels);
+		}
 		// System.out.printf("-i=%s%n", inputValue);
 		// System.out.printf("-o=%s%n", outputValue);
-		new CuiMainImgSpatial().runCui(inputValue, outputValue);
+		new CuiMainImgSpatial().runCui(inputValue, outputValue, mapping);
 
 		return 0;
 	}
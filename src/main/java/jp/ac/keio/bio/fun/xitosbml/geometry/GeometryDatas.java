@@ -1,5 +1,7 @@
 package jp.ac.keio.bio.fun.xitosbml.geometry;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import org.sbml.jsbml.ListOf;
@@ -14,6 +16,7 @@ import org.sbml.jsbml.ext.spatial.SampledFieldGeometry;
 import org.sbml.jsbml.ext.spatial.SpatialModelPlugin;
 
 import jp.ac.keio.bio.fun.xitosbml.image.SpatialImage;
+import jp.ac.keio.bio.fun.xitosbml.util.GeometryCache;
 import math3d.Point3d;
 
 /**
@@ -63,6 +66,9 @@ public class GeometryDatas {
 	/** The list of {@link jp.ac.keio.bio.fun.xitosbml.image.SpatialImage}. */
 	private ArrayList<SpatialImage> spImgList = new ArrayList<SpatialImage>();
 	
+	/** The geometry cache of the SBML file, or null if there is no valid cache. */
+	private GeometryCache cache;
+	
 	/**
 	 * Instantiates a new GeometryDatas object with given SBML model.
 	 * The geometry, minimum values of the coordinate * axis (boundary), domain
@@ -78,6 +84,39 @@ public class GeometryDatas {
 		getDomainTypes();
 	}
 	
+	/**
+	 * Instantiates a new GeometryDatas object with given SBML model which is read
+	 * from given SBML file. If the SBML file has a geometry cache ({@link GeometryCache})
+	 * whose hash matches the geometry of the model, the spatial image of a SampledFieldGeometry
+	 * is restored from the cache.
+	 *
+	 * @param model the model
+	 * @param sbmlFile the SBML file
+	 */
+	public GeometryDatas(Model model, File sbmlFile){
+		this(model);
+		if(sbmlFile != null)
+			readCache(GeometryCache.getCacheFile(sbmlFile));
+	}
+	
+	/**
+	 * Reads given geometry cache, and keeps it if its hash matches the geometry.
+	 *
+	 * @param file the sidecar file of the geometry cache
+	 */
+	private void readCache(File file){
+		if(!file.exists()) return;
+		try {
+			GeometryCache c = GeometryCache.read(file);
+			if(c.matches(geometry))
+				cache = c;
+			else
+				System.err.println("Geometry cache is not used because the geometry is changed: " + file);
+		} catch (IOException e) {
+			System.err.println("Geometry cache is not used: " + e.getMessage());
+		}
+	}
+	
 	/**
 	 * Create the list of {@link jp.ac.keio.bio.fun.xitosbml.image.SpatialImage},
 	 * which is a class for handling spatial image in XitoSBML.
@@ -105,7 +144,7 @@ public class GeometryDatas {
 		if(gd.isSetIsActive() && !gd.getIsActive()) return null;			//if isactive set and is false
 
 		if(gd instanceof SampledFieldGeometry){
-			SampledFieldGeometryData sfgd = new SampledFieldGeometryData(gd, geometry);
+			SampledFieldGeometryData sfgd = new SampledFieldGeometryData(gd, geometry, cache);
 			return sfgd.getSpatialImage();
 		}else if(gd instanceof AnalyticGeometry){
 			AnalyticGeometryData agd = new AnalyticGeometryData(gd, geometry, minCoord, maxCoord, dispCoord);
@@ -1,5 +1,7 @@
 package jp.ac.keio.bio.fun.xitosbml.geometry;
 
+import java.util.zip.DataFormatException;
+
 import org.sbml.jsbml.ListOf;
 import org.sbml.jsbml.ext.spatial.CompressionKind;
 import org.sbml.jsbml.ext.spatial.DataKind;
@@ -11,7 +13,9 @@ import org.sbml.jsbml.ext.spatial.SampledVolume;
 
 import ij.ImageStack;
 import ij.process.ByteProcessor;
+import ij.process.ShortProcessor;
 import jp.ac.keio.bio.fun.xitosbml.image.SpatialImage;
+import jp.ac.keio.bio.fun.xitosbml.util.GeometryCache;
 
 
 /**
@@ -44,6 +48,15 @@ public class SampledFieldGeometryData extends ImageGeometryData {
 	/** The depth of an image. */
 	private int depth;
 	
+	/** The pixel values of sampled field (16-bit image). */
+	private short[] samples;
+	
+	/** The bit depth of the image (8 or 16). */
+	private int bitDepth;
+	
+	/** The geometry cache of the model, or null if the samples are parsed. */
+	private GeometryCache cache;
+	
 	/**
 	 * Instantiates a new sampled field geometry data with given GeometryDefinition
 	 * and Geometry.
@@ -52,8 +65,22 @@ public class SampledFieldGeometryData extends ImageGeometryData {
 	 * @param g the Geometry
 	 */
 	public SampledFieldGeometryData(GeometryDefinition gd, Geometry g) {
+		this(gd, g, null);
+	}
+
+	/**
+	 * Instantiates a new sampled field geometry data with given GeometryDefinition,
+	 * Geometry and geometry cache. If the geometry cache holds the sampled field,
+	 * the image is restored from the cache without parsing the samples.
+	 *
+	 * @param gd the GeometryDefinition
+	 * @param g the Geometry
+	 * @param cache the geometry cache whose hash matches the geometry, or null
+	 */
+	public SampledFieldGeometryData(GeometryDefinition gd, Geometry g, GeometryCache cache) {
 		super(gd, g);
 		sfg = (SampledFieldGeometry)gd;
+		this.cache = cache;
 		getSampledValues();
 		createImage();
 	}
@@ -75,6 +102,8 @@ public class SampledFieldGeometryData extends ImageGeometryData {
 	/**
 	 * Create a stacked image from spatial image (3D).
 	 * The value of each pixel corresponds to the domain.
+	 * A 16-bit image is created if the data type of the sampled field is uint16 or a pixel
+	 * value is larger than 255 (ex. a label image which has more than 255 labels).
 	 * @see jp.ac.keio.bio.fun.xitosbml.geometry.ImageGeometryData#createImage()
 	 */
 	@Override
@@ -85,10 +114,16 @@ public class SampledFieldGeometryData extends ImageGeometryData {
 			System.err.println("not able to compute multiple sampledfields at this point");
 
 		SampledField sf = losf.get(0);
-		if(sf.getDataType() != DataKind.UINT8)
-			System.err.println("Image data is automatically changed to 8 bit image");
 		getSize(sf);
-		getArray(sf);
+		if(cache != null && !isCached(sf))
+			cache = null;
+		if(cache != null)
+			readCache();
+		else {
+			getArray(sf);
+			if(sf.getDataType() != DataKind.UINT8 && sf.getDataType() != DataKind.UINT16)
+				System.err.println("Image data is automatically changed to " + bitDepth + " bit image");
+		}
 
 		ImageStack is = createStack(); 
 		img.setStack(is);
@@ -97,17 +132,23 @@ public class SampledFieldGeometryData extends ImageGeometryData {
 	
 	/**
 	 * Creates the stacked image from the raw data (1D array) of spatial image.
+	 * The slices of a 16-bit image are created from the pixel values of sampled field.
 	 *
 	 * @return the image stack
 	 */
 	private ImageStack createStack(){
 		ImageStack stack = new ImageStack(width, height);
-		byte[] slice;   
     	int length = width * height;
     	for(int i = 1 ; i <= depth ; i++){
-        	slice = new byte[length];
-        	System.arraycopy(raw, (i-1) * height * width, slice, 0, length);
-        	stack.addSlice(new ByteProcessor(width,height,slice,null));
+    		if(bitDepth == 16){
+    			short[] slice = new short[length];
+    			System.arraycopy(samples, (i-1) * length, slice, 0, length);
+    			stack.addSlice(new ShortProcessor(width,height,slice,null));
+    		} else {
+    			byte[] slice = new byte[length];
+    			System.arraycopy(raw, (i-1) * length, slice, 0, length);
+    			stack.addSlice(new ByteProcessor(width,height,slice,null));
+    		}
     	}
     	return stack;
     }
@@ -127,51 +168,108 @@ public class SampledFieldGeometryData extends ImageGeometryData {
 	}
 	
 	/**
-	 * Create a byte array (raw), which will be used to store the value of an image.
-     * Data compression is currently not supported.
+	 * Parses the samples of given sampled field into the raw data (8-bit image) or the pixel
+	 * values (16-bit image), and sets the bit depth. The samples are parsed directly from the
+	 * text by {@link SamplesParser}. If the samples are deflated, the zlib stream is inflated first:
+	 * the inflated data is the text of the samples (as libSBML compresses), or the raw bytes of
+	 * an 8-bit image if it is not a text of the samples and its length is the number of voxels.
+	 * A 16-bit image is created if the data type of the sampled field is uint16 or a pixel
+	 * value is larger than 255 (ex. a label image which has more than 255 labels).
 	 *
 	 * @param sf the sampled field object
+	 * @throws IllegalArgumentException if the samples are invalid, or the number of samples
+	 *         is not the number of voxels
 	 */
 	private void getArray(SampledField sf){
-		String[] data;
-		if(sf.getCompression() == CompressionKind.uncompressed)
-			data = sf.getSamples().split(" ");
-		else
-			//TODO add uncompression for sample array
-			data = sf.getSamples().split(" ");
-		
-		raw = stringToByte(data);
+		int length = width * height * depth;
+		SamplesParser parser = new SamplesParser(sf.getSamples());
+		if(sf.getCompression() == CompressionKind.deflated){
+			byte[] compressed = new byte[parser.size()];
+			parser.parse(compressed);
+			byte[] data;
+			try {
+				data = SamplesParser.inflate(compressed);
+			} catch (DataFormatException e) {
+				throw new IllegalArgumentException("Invalid deflated samples of " + sf.getId(), e);
+			}
+			boolean isRaw = data.length == length && sf.getDataType() != DataKind.UINT16;
+			try {
+				parser = new SamplesParser(data);
+			} catch (IllegalArgumentException e) {
+				// the raw bytes of an image are not a text of the samples
+				if(!isRaw)
+					throw new IllegalArgumentException("Invalid deflated samples of " + sf.getId(), e);
+				parser = null;
+			}
+			if(parser == null || (parser.size() != length && isRaw)){
+				raw = data;
+				bitDepth = 8;
+				return;
+			}
+		}
+		if(parser.size() != length)
+			throw new IllegalArgumentException("The number of samples (" + parser.size() + ") of " + sf.getId()
+					+ " is not the number of voxels (" + length + ")");
+
+		if(sf.getDataType() != DataKind.UINT16){
+			raw = new byte[length];
+			if(parser.parse(raw) <= 0xFF){
+				bitDepth = 8;
+				return;
+			}
+			raw = null;
+		}
+		samples = new short[length];
+		parser.parse(samples);
+		bitDepth = 16;
 	}
 
 	/**
-     * Convert String array, which contains pixel values of sampled field as String,
-	 * to 1D byte array. Currently this implementation expects that the String
-	 * array only contains "-255" to "255" values.
+	 * Checks whether the geometry cache holds the image of given sampled field.
 	 *
-	 * @param data the String array which contains pixel values as String
-	 * @return raw the raw data (1D array) of sampled field.
+	 * @param sf the sampled field object
+	 * @return true, if the SpatialId and the size of the sampled field match the cache
 	 */
-	private byte[] stringToByte(String[] data){		
-		raw = new byte[data.length];
-		
-		//TODO need to resolve when original image data is not 8 bit
-		for(int i = 0, length = data.length; i < length;i++){
-			raw[i] = (byte) Integer.parseInt(data[i]);
-		}	
-		
-		return raw;
+	private boolean isCached(SampledField sf){
+		return sf.getSpatialId().equals(cache.getSampledFieldId()) && cache.getWidth() == width
+				&& cache.getHeight() == height && cache.getDepth() == depth;
+	}
+
+	/**
+	 * Copies the raw data (8-bit image) or the pixel values (16-bit image) from the
+	 * memory mapped geometry cache, and sets the bit depth.
+	 */
+	private void readCache(){
+		int length = width * height * depth;
+		bitDepth = cache.getBitDepth();
+		if(bitDepth == 16){
+			samples = new short[length];
+			cache.getVoxels(samples);
+		} else {
+			raw = new byte[length];
+			cache.getVoxels(raw);
+		}
 	}
 
 	/**
 	 * Create and return a new spatial image.
 	 * SpatialImage object is generated with the ImagePlus object (img) and the hashmap of sampled value
 	 * (pixel value of a SampledVolume).
+	 * If the image is restored from the geometry cache, the domain types, the count number of
+	 * domains, the adjacents list and the InteriorPoints of domains are also restored from the cache.
 	 * @see jp.ac.keio.bio.fun.xitosbml.geometry.ImageGeometryData#getSpatialImage()
 	 *
 	 * @return spatial image object, which is an object for handling spatial image in XitoSBML.
 	 */
 	@Override
 	public SpatialImage getSpatialImage() {
-		return new SpatialImage(hashSampledValue, img);
+		SpatialImage spImg = new SpatialImage(hashSampledValue, img);
+		if(cache != null){
+			spImg.setHashDomainTypes(cache.getHashDomainTypes());
+			spImg.setHashDomainNum(cache.getHashDomainNum());
+			spImg.setAdjacentsList(cache.getAdjacentsList());
+			spImg.setHashDomInteriorpt(cache.getHashDomInteriorPt());
+		}
+		return spImg;
 	}
 }
@@ -0,0 +1,273 @@
+package jp.ac.keio.bio.fun.xitosbml.geometry;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import jp.ac.keio.bio.fun.xitosbml.image.ParallelUtil;
+
+/**
+ * The class SamplesParser, which parses the samples of a SampledField (non-negative integers
+ * separated by white spaces or commas) directly into an array, without creating an object for
+ * each sample. Any other character (ex. a sign, a decimal point or an exponent) is rejected,
+ * so that a sample is never split into several samples or parsed as another value.
+ * A large text is split into chunks at the separators, and the chunks
+ * are parsed in parallel: the samples of each chunk are counted first, and then each chunk is
+ * parsed into its own part of the array. The zlib stream of deflated samples can be inflated
+ * by {@link #inflate(byte[])}.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class SamplesParser {
+
+	/** The minimum number of characters of a chunk which is parsed in parallel. */
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+	/** The text of the samples. */
+	private final CharSequence text;
+
+	/** The start offset of each chunk, and the length of the text at the end. */
+	private final int[] bounds;
+
+	/** The index of the first sample of each chunk, and the number of samples at the end. */
+	private final int[] offsets;
+
+	/**
+	 * Instantiates a new parser of given text. The samples of the text are counted in parallel.
+	 *
+	 * @param text the text of the samples
+	 * @throws IllegalArgumentException if the text has a character which is neither a digit nor a separator
+	 */
+	public SamplesParser(final CharSequence text) {
+		this.text = text;
+		int length = text.length();
+		int chunks = (int) Math.max(1, Math.min(ParallelUtil.getParallelism() * 4L, length / MIN_CHUNK_SIZE));
+		bounds = new int[chunks + 1];
+		for (int n = 1; n < chunks; n++) {
+			int b = Math.max((int) ((long) length * n / chunks), bounds[n - 1]);
+			while (b < length && isDigit(text.charAt(b)) && b > 0 && isDigit(text.charAt(b - 1)))
+				b++;
+			bounds[n] = b;
+		}
+		bounds[chunks] = length;
+
+		offsets = new int[chunks + 1];
+		ParallelUtil.forEachChunk(0, chunks, chunks, new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				for (int n = from; n < to; n++)
+					offsets[n + 1] = count(bounds[n], bounds[n + 1]);
+			}
+		});
+		for (int n = 0; n < chunks; n++)
+			offsets[n + 1] += offsets[n];
+	}
+
+	/**
+	 * Instantiates a new parser of given ASCII text.
+	 *
+	 * @param text the bytes of the text of the samples
+	 * @throws IllegalArgumentException if the text has a character which is neither a digit nor a separator
+	 */
+	public SamplesParser(byte[] text) {
+		this(new AsciiSequence(text));
+	}
+
+	/**
+	 * Gets the number of samples.
+	 *
+	 * @return the number of samples
+	 */
+	public int size() {
+		return offsets[offsets.length - 1];
+	}
+
+	/**
+	 * Parses the samples into given array in parallel. The samples are truncated to the type of
+	 * the array, and the samples after the end of the array are ignored.
+	 *
+	 * @param target the array (byte[], short[] or int[])
+	 * @return the maximum value of the samples
+	 */
+	public int parse(final Object target) {
+		final int chunks = bounds.length - 1;
+		final int[] max = new int[chunks];
+		ParallelUtil.forEachChunk(0, chunks, chunks, new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				for (int n = from; n < to; n++)
+					max[n] = parse(bounds[n], bounds[n + 1], offsets[n], target);
+			}
+		});
+		int result = 0;
+		for (int m : max)
+			result = Math.max(result, m);
+		return result;
+	}
+
+	/**
+	 * Counts the samples in given range of the text, and checks that the range has only
+	 * digits and separators.
+	 *
+	 * @param from the start offset (inclusive)
+	 * @param to the end offset (exclusive)
+	 * @return the number of samples
+	 * @throws IllegalArgumentException if the range has a character which is neither a digit nor a separator
+	 */
+	private int count(int from, int to) {
+		int count = 0;
+		boolean inNumber = false;
+		for (int i = from; i < to; i++) {
+			char c = text.charAt(i);
+			boolean digit = isDigit(c);
+			if (!digit && !isSeparator(c))
+				throw new IllegalArgumentException("Invalid character '" + c + "' (code " + (int) c + ") at offset " + i + " of the samples");
+			if (digit && !inNumber)
+				count++;
+			inNumber = digit;
+		}
+		return count;
+	}
+
+	/**
+	 * Parses the samples in given range of the text into given array. The range has been
+	 * checked by {@link #count(int, int)}, so a character which is not a digit is a separator.
+	 *
+	 * @param from the start offset (inclusive)
+	 * @param to the end offset (exclusive)
+	 * @param index the index of the first sample in the array
+	 * @param target the array (byte[], short[] or int[])
+	 * @return the maximum value of the samples
+	 */
+	private int parse(int from, int to, int index, Object target) {
+		byte[] bytes = target instanceof byte[] ? (byte[]) target : null;
+		short[] shorts = target instanceof short[] ? (short[]) target : null;
+		int[] ints = target instanceof int[] ? (int[]) target : null;
+		int length = bytes != null ? bytes.length : shorts != null ? shorts.length : ints.length;
+		int max = 0;
+		int i = from;
+		while (i < to && index < length) {
+			char c = text.charAt(i++);
+			if (!isDigit(c))
+				continue;
+			int val = c - '0';
+			while (i < to && isDigit(c = text.charAt(i))) {
+				val = val * 10 + (c - '0');
+				i++;
+			}
+			if (val > max)
+				max = val;
+			if (bytes != null)
+				bytes[index++] = (byte) val;
+			else if (shorts != null)
+				shorts[index++] = (short) val;
+			else
+				ints[index++] = val;
+		}
+		return max;
+	}
+
+	/**
+	 * Checks whether given character is a decimal digit.
+	 *
+	 * @param c the character
+	 * @return true, if the character is '0' - '9'
+	 */
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Checks whether given character separates the samples.
+	 *
+	 * @param c the character
+	 * @return true, if the character is a white space (space, tab or line break) or a comma
+	 */
+	private static boolean isSeparator(char c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ',';
+	}
+
+	/**
+	 * Inflates given zlib stream.
+	 *
+	 * @param compressed the zlib stream
+	 * @return the inflated bytes
+	 * @throws DataFormatException if the stream is not a valid zlib stream
+	 */
+	public static byte[] inflate(byte[] compressed) throws DataFormatException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+			byte[] buf = new byte[1 << 16];
+			while (!inflater.finished()) {
+				int n = inflater.inflate(buf);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new DataFormatException("Truncated zlib stream");
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * The class AsciiSequence, which is a CharSequence view of ASCII text stored in a byte array.
+	 */
+	private static class AsciiSequence implements CharSequence {
+
+		/** The bytes of the text. */
+		private final byte[] bytes;
+
+		/** The start offset of the view. */
+		private final int offset;
+
+		/** The length of the view. */
+		private final int length;
+
+		/**
+		 * Instantiates a new view of given bytes.
+		 *
+		 * @param bytes the bytes of the text
+		 */
+		AsciiSequence(byte[] bytes) {
+			this(bytes, 0, bytes.length);
+		}
+
+		/**
+		 * Instantiates a new view of given range of bytes.
+		 *
+		 * @param bytes the bytes of the text
+		 * @param offset the start offset of the view
+		 * @param length the length of the view
+		 */
+		AsciiSequence(byte[] bytes, int offset, int length) {
+			this.bytes = bytes;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (bytes[offset + index] & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new AsciiSequence(bytes, offset + start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes, offset, length, java.nio.charset.Charset.forName("US-ASCII"));
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.util.Arrays;
+
+/**
+ * The class BitMask, which stores a binary z-stack image (3D image) or a 2D image as bits.
+ * Each slice is stored as an array of long words, and each row of a slice starts at a new word,
+ * so that a row can be shifted by word operations (see {@link Morphology}). The bits after the
+ * end of a row in the last word of the row are always 0.
+ * A mask takes 1/8 of the memory of an 8-bit image, and the slices of a mask can be processed in parallel.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class BitMask {
+
+	/** The width of the mask. */
+	private final int width;
+
+	/** The height of the mask. */
+	private final int height;
+
+	/** The depth of the mask. */
+	private final int depth;
+
+	/** The number of words of a row. */
+	private final int wordsPerRow;
+
+	/** The words of each slice. */
+	private final long[][] slices;
+
+	/**
+	 * Instantiates a new mask with given size. All bits are 0.
+	 *
+	 * @param width the width of the mask
+	 * @param height the height of the mask
+	 * @param depth the depth of the mask
+	 */
+	public BitMask(int width, int height, int depth) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.slices = new long[depth][wordsPerRow * height];
+	}
+
+	/**
+	 * Instantiates a new mask of the voxels of given volume whose pixel value is selected
+	 * (values[pixel value] is true). The slices are converted in parallel.
+	 *
+	 * @param volume the voxel volume
+	 * @param values the flag whether each pixel value (0 - 255, or 0 - 65535 for a 16-bit volume) is selected
+	 */
+	public BitMask(final VoxelVolume volume, final boolean[] values) {
+		this(volume.getWidth(), volume.getHeight(), volume.getDepth());
+		ParallelUtil.forEachChunk(0, depth, new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				for (int d = from; d < to; d++) {
+					Object pixels = ImgProcessUtil.getSlice(volume, d);
+					long[] words = slices[d];
+					for (int h = 0; h < height; h++) {
+						for (int w = 0; w < width; w++) {
+							int i = h * width + w;
+							int val = pixels instanceof byte[] ? ((byte[]) pixels)[i] & 0xFF : ((short[]) pixels)[i] & 0xFFFF;
+							if (values[val])
+								words[h * wordsPerRow + (w >>> 6)] |= 1L << w;
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets the width of the mask.
+	 *
+	 * @return the width of the mask
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height of the mask.
+	 *
+	 * @return the height of the mask
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the depth of the mask.
+	 *
+	 * @return the depth of the mask
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Gets the number of words of a row.
+	 *
+	 * @return the number of words of a row
+	 */
+	int getWordsPerRow() {
+		return wordsPerRow;
+	}
+
+	/**
+	 * Gets the mask of the valid bits of the last word of a row.
+	 *
+	 * @return the mask of the valid bits
+	 */
+	long getLastWordMask() {
+		int bits = width & 63;
+		return bits == 0 ? -1L : (1L << bits) - 1;
+	}
+
+	/**
+	 * Gets the words of given slice. The returned array is the array of the mask.
+	 *
+	 * @param d the index of the slice (0-based)
+	 * @return the words of the slice
+	 */
+	long[] getSlice(int d) {
+		return slices[d];
+	}
+
+	/**
+	 * Gets the bit of given voxel.
+	 *
+	 * @param w the x offset
+	 * @param h the y offset
+	 * @param d the z offset
+	 * @return true, if the bit is 1
+	 */
+	public boolean get(int w, int h, int d) {
+		return (slices[d][h * wordsPerRow + (w >>> 6)] & (1L << w)) != 0;
+	}
+
+	/**
+	 * Sets the bit of given voxel.
+	 *
+	 * @param w the x offset
+	 * @param h the y offset
+	 * @param d the z offset
+	 * @param value the value of the bit
+	 */
+	public void set(int w, int h, int d, boolean value) {
+		if (value)
+			slices[d][h * wordsPerRow + (w >>> 6)] |= 1L << w;
+		else
+			slices[d][h * wordsPerRow + (w >>> 6)] &= ~(1L << w);
+	}
+
+	/**
+	 * Checks whether no bit of given slice is 1.
+	 *
+	 * @param d the index of the slice (0-based)
+	 * @return true, if all bits of the slice are 0
+	 */
+	public boolean isEmpty(int d) {
+		for (long word : slices[d])
+			if (word != 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Counts the number of bits which are 1.
+	 *
+	 * @return the number of bits which are 1
+	 */
+	public long cardinality() {
+		long count = 0;
+		for (long[] words : slices)
+			for (long word : words)
+				count += Long.bitCount(word);
+		return count;
+	}
+
+	/**
+	 * Creates a copy of the mask.
+	 *
+	 * @return the copy of the mask
+	 */
+	public BitMask copy() {
+		BitMask mask = new BitMask(width, height, depth);
+		for (int d = 0; d < depth; d++)
+			System.arraycopy(slices[d], 0, mask.slices[d], 0, slices[d].length);
+		return mask;
+	}
+
+	/**
+	 * Sets all bits to 0.
+	 */
+	public void clear() {
+		for (long[] words : slices)
+			Arrays.fill(words, 0);
+	}
+
+	/**
+	 * Sets each bit to the logical AND of the bit and the bit of given mask.
+	 *
+	 * @param mask the mask of the same size
+	 */
+	public void and(BitMask mask) {
+		for (int d = 0; d < depth; d++)
+			for (int i = 0; i < slices[d].length; i++)
+				slices[d][i] &= mask.slices[d][i];
+	}
+
+	/**
+	 * Sets each bit to the logical OR of the bit and the bit of given mask.
+	 *
+	 * @param mask the mask of the same size
+	 */
+	public void or(BitMask mask) {
+		for (int d = 0; d < depth; d++)
+			for (int i = 0; i < slices[d].length; i++)
+				slices[d][i] |= mask.slices[d][i];
+	}
+
+	/**
+	 * Clears each bit which is 1 in given mask.
+	 *
+	 * @param mask the mask of the same size
+	 */
+	public void andNot(BitMask mask) {
+		for (int d = 0; d < depth; d++)
+			for (int i = 0; i < slices[d].length; i++)
+				slices[d][i] &= ~mask.slices[d][i];
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof BitMask))
+			return false;
+		BitMask mask = (BitMask) obj;
+		return width == mask.width && height == mask.height && Arrays.deepEquals(slices, mask.slices);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.deepHashCode(slices) * 31 + width;
+	}
+}
@@ -1,16 +1,20 @@
 package jp.ac.keio.bio.fun.xitosbml.image;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 
 import ij.ImagePlus;
 import ij.ImageStack;
-import ij.process.ByteProcessor;
 
 /**
  * The class CreateImage, which creates composite image.
  * The composite image is stored in two kinds of objects
- * (raw data as 1D array, and stack of Images).
+ * (raw data of each slice, and stack of Images).
+ * All domain images are composed in a single pass: each slice of the composite image is
+ * computed from the slices of all domain images by the workers of the ForkJoinPool, and
+ * the number of voxels shared by each pair of domains (overlap) is counted.
  * Date Created: Feb 21, 2017
  *
  * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
@@ -27,8 +31,8 @@ public class CreateImage {
 	/** The ImageJ image object of composite image. */
 	private ImagePlus compoImg;
 	
-	/** The byte array (raw data) of composite image. */
-	private byte[] compoMat;
+	/** The slices (raw data of each slice, byte[] or short[]) of composite image. */
+	private Object[] compoMat;
 	
 	/** The width of an image. */
 	private int width;
@@ -42,6 +46,15 @@ public class CreateImage {
 	/** The composite image converted to stack of images. */
 	private ImageStack altimage;
 
+	/** The names of domains in the order of priority (descending order of sampled value). */
+	private String[] domNames;
+
+	/**
+	 * The number of voxels shared by each pair of domains. overlapCount[i][j] (i &lt; j)
+	 * is the count of domNames[i] and domNames[j].
+	 */
+	private long[][] overlapCount;
+
 
 	/**
 	 * Instantiates a new CreateImage object with given hashmap of domain images and
@@ -68,60 +81,190 @@ public class CreateImage {
 	
 	/**
 	 * Composite image. All images included in hashDomFile (hashmap of domain images)
-	 * will be composed to compoMat[], which is a raw data (1D array).
+	 * will be composed to compoMat[][], which is the raw data of each slice.
+	 * The slices are composed in parallel, and each slice of the composite image is computed
+	 * from the slices of all domain images at once (see {@link #composite(byte[], byte[][], byte[], int[], long[][])}).
+	 * The slices of the domain images are read from the stacks directly, without copying.
+	 * The composite image is a 16-bit image if a sampled value is larger than 255
+	 * (see {@link #getBitDepth(HashMap)}).
 	 */
 	private void compositeImage(){
-		Iterator<String> domNames = hashDomFile.keySet().iterator();
-		compoMat = new byte[width*height*depth];
-		ImagePlus temp;
-		byte[] tempMat;
-		String imgName;
-		
-		while(domNames.hasNext()){
-			imgName = domNames.next();
-			temp = hashDomFile.get(imgName);
-			tempMat = getMat(temp);
-			cmpImg(temp, tempMat, imgName);
+		domNames = getPriority();
+		final int n = domNames.length;
+		final ImageStack[] stacks = new ImageStack[n];
+		final byte[] values = new byte[n];
+		final short[] shortValues = new short[n];
+		for (int k = 0; k < n; k++) {
+			System.out.println("cmpImg " + domNames[k]);
+			stacks[k] = getStack(hashDomFile.get(domNames[k]));
+			values[k] = hashSampledValue.get(domNames[k]).byteValue();
+			shortValues[k] = hashSampledValue.get(domNames[k]).shortValue();
 		}
+		final boolean isShort = getBitDepth(hashSampledValue) == 16;
+		compoMat = new Object[depth];
+		overlapCount = new long[n][n];
+
+		ParallelUtil.forEachChunk(0, depth, new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				byte[][] slices = new byte[n][];
+				int[] covering = new int[n];
+				long[][] count = new long[n][n];
+				for (int d = from; d < to; d++) {
+					for (int k = 0; k < n; k++)
+						slices[k] = (byte[]) stacks[k].getPixels(d + 1);
+					if (isShort) {
+						short[] compoSlice = new short[width * height];
+						composite(compoSlice, slices, shortValues, covering, count);
+						compoMat[d] = compoSlice;
+					} else {
+						byte[] compoSlice = new byte[width * height];
+						composite(compoSlice, slices, values, covering, count);
+						compoMat[d] = compoSlice;
+					}
+				}
+				synchronized (overlapCount) {
+					for (int i = 0; i < n; i++)
+						for (int j = i + 1; j < n; j++)
+							overlapCount[i][j] += count[i][j];
+				}
+			}
+		});
+		printOverlap();
+	}
+
+	/**
+	 * Gets the names of domains in the order of priority. A domain which has a larger
+	 * sampled value (8bit value, or 16bit value for a 16-bit composite image) has a higher
+	 * priority, so that the pixel value of a voxel shared by several domains is the largest
+	 * sampled value of them.
+	 *
+	 * @return the names of domains in the descending order of sampled value
+	 */
+	private String[] getPriority(){
+		ArrayList<String> names = new ArrayList<String>(hashDomFile.keySet());
+		final int mask = (1 << getBitDepth(hashSampledValue)) - 1;
+		Collections.sort(names, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				int va = hashSampledValue.get(a) & mask;
+				int vb = hashSampledValue.get(b) & mask;
+				return va != vb ? vb - va : a.compareTo(b);
+			}
+		});
+		return names.toArray(new String[names.size()]);
 	}
 
     /**
-	 * Creates and returns the raw data (1D array) of given image.
+	 * Returns the stack of images of given image. The slices are read from the stack
+	 * directly, without copying them to a raw data (1D array).
      *
      * @param image the ImageJ image object
-     * @return the raw data (1D array) of given image.
+     * @return the stack of images of given image.
      */
-    private byte[] getMat(ImagePlus image){
-    	byte[] slice = null;   
-    	byte[] pixels = new byte[width * height * depth];
-
+    private ImageStack getStack(ImagePlus image){
 		if (image.isInvertedLut()) {
 			image.getProcessor().invertLut();
 		}
-    	ImageStack stack = image.getStack();
-    	
-    	for(int i = 1 ; i <= depth ; i++){
-        	slice = (byte[]) stack.getPixels(i);
-        	System.arraycopy(slice, 0, pixels, (i-1) * height * width, height * width);
-    	}
+    	return image.getStack();
+    }
 
-    	return pixels;
+    /**
+     * Composite the slices of all domain images (imgMats) to a slice of composite image
+	 * (compoMat). Each pixel of compoMat will be the pixel value of the domain which has
+	 * the highest priority among the domains whose pixel is not zero, that is, the largest
+	 * pixel value. The number of pixels shared by each pair of domains is added to count.
+     *
+     * @param compoMat the slice of composite image
+     * @param imgMats the slices of domain images in the order of priority
+     * @param values the pixel values of domains in the order of priority
+     * @param covering the working array of the domains of a pixel
+     * @param count the number of pixels shared by each pair of domains
+     */
+    static void composite(byte[] compoMat, byte[][] imgMats, byte[] values, int[] covering, long[][] count){
+    	int n = imgMats.length;
+    	int max = compoMat.length;
+    	for(int i = 0 ; i < max ; i++){
+    		int m = 0;
+    		for(int k = 0 ; k < n ; k++){
+    			if(imgMats[k][i] != 0)
+    				covering[m++] = k;
+    		}
+    		if(m == 0)
+    			continue;
+    		compoMat[i] = values[covering[0]];
+    		for(int a = 0 ; a < m ; a++)
+    			for(int b = a + 1 ; b < m ; b++)
+    				count[covering[a]][covering[b]]++;
+    	}
     }
 
+	/**
+	 * Composite the slices of all domain images (imgMats) to a slice of 16-bit composite image
+	 * (see {@link #composite(byte[], byte[][], byte[], int[], long[][])}).
+	 *
+	 * @param compoMat the slice of composite image
+	 * @param imgMats the slices of domain images in the order of priority
+	 * @param values the pixel values of domains in the order of priority
+	 * @param covering the working array of the domains of a pixel
+	 * @param count the number of pixels shared by each pair of domains
+	 */
+	static void composite(short[] compoMat, byte[][] imgMats, short[] values, int[] covering, long[][] count){
+		int n = imgMats.length;
+		int max = compoMat.length;
+		for(int i = 0 ; i < max ; i++){
+			int m = 0;
+			for(int k = 0 ; k < n ; k++){
+				if(imgMats[k][i] != 0)
+					covering[m++] = k;
+			}
+			if(m == 0)
+				continue;
+			compoMat[i] = values[covering[0]];
+			for(int a = 0 ; a < m ; a++)
+				for(int b = a + 1 ; b < m ; b++)
+					count[covering[a]][covering[b]]++;
+		}
+	}
+
+	/**
+	 * Gets the bit depth of the composite image of given sampled values. The composite image
+	 * is a 16-bit image if a sampled value is larger than 255 (ex. a label image which has
+	 * more than 255 labels), and an 8-bit image otherwise.
+	 *
+	 * @param hashSampledValue the hashmap of sampled value of spatial image
+	 * @return the bit depth of the composite image (8 or 16)
+	 */
+	public static int getBitDepth(HashMap<String, Integer> hashSampledValue){
+		for (Integer val : hashSampledValue.values())
+			if (val > 0xFF)
+				return 16;
+		return 8;
+	}
+
+	/**
+	 * Prints the number of voxels shared by each pair of domains which overlap.
+	 */
+	private void printOverlap(){
+		for (int i = 0; i < domNames.length; i++)
+			for (int j = i + 1; j < domNames.length; j++)
+				if (overlapCount[i][j] > 0)
+					System.out.println("overlap " + domNames[i] + " " + domNames[j] + " " + overlapCount[i][j]);
+	}
+
     /**
-     * Composite a given image (imgMat) to compoMat array.
-	 * The pixel value of given image (imgMat[i]) will be assigned to
-	 * compoMat[i], if the pixel value of given image is larger than
-	 * compoMat[i].
+     * Composite a given raw data of a domain image (imgMat) to the raw data of
+	 * composite image (compoMat). The pixel value (pixVal) will be assigned to
+	 * compoMat[i], if imgMat[i] is not zero and pixVal is larger than compoMat[i].
+	 * The raw data can be a part of an image (ex. a slice), so that a composite image
+	 * can be created slice by slice.
      *
-     * @param img the ImageJ image object
-     * @param imgMat the raw date (1D array) of an image
-     * @param name the name of an image
+     * @param compoMat the raw data of composite image
+     * @param imgMat the raw data of a domain image
+     * @param pixVal the pixel value of the domain
      */
-    private void cmpImg(ImagePlus img, byte[] imgMat, String name){
+    static void composite(byte[] compoMat, byte[] imgMat, byte pixVal){
     	int max = imgMat.length;
-    	System.out.println("cmpImg " + name);
-    	byte pixVal = hashSampledValue.get(name).byteValue();
     	for(int i = 0 ; i < max ; i++){
     		if(imgMat[i] != 0 && (compoMat[i] == 0 || checkVal(compoMat[i],pixVal))){
     			compoMat[i] = pixVal;
@@ -129,6 +272,23 @@ public class CreateImage {
     	}
     }
 
+    /**
+     * Composite a given raw data of a domain image (imgMat) to the raw data of
+	 * 16-bit composite image (compoMat) (see {@link #composite(byte[], byte[], byte)}).
+     *
+     * @param compoMat the raw data of composite image
+     * @param imgMat the raw data of a domain image
+     * @param pixVal the pixel value of the domain
+     */
+    static void composite(short[] compoMat, byte[] imgMat, short pixVal){
+    	int max = imgMat.length;
+    	for(int i = 0 ; i < max ; i++){
+    		if(imgMat[i] != 0 && (compoMat[i] & 0xFFFF) < (pixVal & 0xFFFF)){
+    			compoMat[i] = pixVal;
+    		}
+    	}
+    }
+
    /**
     * Check whether the pixel value of composite image is smaller than the given pixel value.
 	* Both composite image pixel and given pixel values are treated as 8bit value.
@@ -137,22 +297,40 @@ public class CreateImage {
     * @param pixVal the value of a pixel
     * @return true, if compoVal(8bit) is smaller than pixVal(8bit)
     */
-   private boolean checkVal(byte compoVal , byte pixVal){
+   private static boolean checkVal(byte compoVal , byte pixVal){
 	   return (compoVal & 0xFF) < (pixVal & 0xFF);
    }
     
 	/**
-	 * Convert raw data (1D array) of composite image to altimage, which is an image stack object.
+	 * Convert raw data of composite image to altimage, which is an image stack object.
+	 * The slices of compoMat are used as the slices of altimage without copying.
 	 */
 	private void replaceMat(){
 		altimage = new ImageStack(width, height);
-		byte[] slice;
 
-		for (int i = 1; i <= depth; i++) {
-			slice = new byte[width * height];
-			System.arraycopy(compoMat, (i - 1) * height * width, slice, 0, slice.length);
-			altimage.addSlice(new ByteProcessor(width, height, slice, null));
+		for (int i = 1; i <= depth; i++)
+			altimage.addSlice(ImgProcessUtil.createProcessor(width, height, compoMat[i - 1]));
+	}
+
+	/**
+	 * Gets the number of voxels shared by given pair of domains. The pixel value of a shared
+	 * voxel in the composite image is the larger sampled value of the two domains.
+	 *
+	 * @param domName1 the name of a domain
+	 * @param domName2 the name of another domain
+	 * @return the number of voxels shared by the domains (0 if a domain is not found)
+	 */
+	public long getOverlapCount(String domName1, String domName2) {
+		int i = -1, j = -1;
+		for (int k = 0; k < domNames.length; k++) {
+			if (domNames[k].equals(domName1))
+				i = k;
+			if (domNames[k].equals(domName2))
+				j = k;
 		}
+		if (i < 0 || j < 0 || i == j)
+			return 0;
+		return i < j ? overlapCount[i][j] : overlapCount[j][i];
 	}
 
 	/**
@@ -8,11 +8,13 @@ import java.util.Map.Entry;
 
 import ij.ImagePlus;
 import ij.ImageStack;
-import ij.process.ByteProcessor;
 
 
 /**
  * The class Filler, which provides several morphological operations for filling holes in the image.
+ * By default, holes are found by a single flood fill of the background from the border of the image.
+ * The former mode, which repeats the labeling of the whole image until no hole remains, is still
+ * available by {@link #Filler(boolean)}.
  * Date Created: Feb 21, 2017
  *
  * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
@@ -41,20 +43,64 @@ public class Filler {
 	/** The depth of an image including padding. */
 	private int ldepth;
 	
-	/** The mask which stores the label of each pixel. */
-	private int[] mask;
+	/** The mask which stores the label of each pixel (legacy mode). */
+	private LabelVolume mask;
 	
 	/**
 	 * The hashmap of pixel value. &lt;labelnumber, pixel value&gt;.
 	 * The domain which has pixel value = 0 will have a label = 1.
 	 */
-	private HashMap<Integer, Byte> hashPix = new HashMap<Integer, Byte>();		// label number, pixel value
+	private HashMap<Integer, Integer> hashPix = new HashMap<Integer, Integer>();		// label number, pixel value
 	
-	/** The raw data (1D byte array) of the image. */
-	private byte[] pixels;
+	/** The voxels of the image. */
+	private VoxelVolume pixels;
 	
-	/** The raw data (1D int array) of inverted the image. */
-	private int[] invert;
+	/**
+	 * The label volume used by the current fill operation, which is shared with
+	 * {@link SpatialImage} when a SpatialImage is filled.
+	 */
+	private LabelVolume labelVolume;
+	
+	/**
+	 * The flag whether holes are filled by a single flood fill from the border of the image.
+	 * If false, holes are filled by repeating the labeling of the whole image (legacy mode).
+	 */
+	private boolean floodFill = true;
+	
+	/** The state of a pixel which is not a hole. */
+	private static final byte NOT_HOLE = 0;
+	
+	/** The state of a background pixel which is reached from the border of the image. */
+	private static final byte OUTSIDE = 1;
+	
+	/** The state of a background pixel which is not reached from the border of the image. */
+	private static final byte HOLE = 2;
+	
+	/** The state of a hole pixel which is queued to be filled in the current layer. */
+	private static final byte QUEUED = 3;
+	
+	/** The state of each pixel used by the flood fill. */
+	private LabelVolume state;
+	
+	/** The scratch array which stores the pixel values of adjacent pixels. */
+	private final int[] adjVals = new int[6];
+	
+	/**
+	 * Instantiates a new filler, which fills holes by a flood fill from the border of the image.
+	 */
+	public Filler(){
+		
+	}
+	
+	/**
+	 * Instantiates a new filler with given mode.
+	 *
+	 * @param floodFill true if holes are filled by a flood fill from the border of the image,
+	 * false if holes are filled by repeating the labeling of the whole image (legacy mode)
+	 */
+	public Filler(boolean floodFill){
+		this.floodFill = floodFill;
+	}
 	
 	/**
 	 * Fill a hole in the given image (ImagePlus object) by morphology operation,
@@ -69,19 +115,14 @@ public class Filler {
 		this.depth = image.getStackSize();
 		this.image = image;
 
-		pixels = ImgProcessUtil.copyMat(image);
-		invertMat();
-		label();
-		if (checkHole()) {
-			while (checkHole()) {
-				fillHole();
-				hashPix.clear();
-				label();
-			}
+		pixels = ImgProcessUtil.createVoxelVolume(image.getStack());
+		labelVolume = new LabelVolume(0);
+		if (floodFill ? fillHoles() : fillByLabeling()) {
 			ImageStack stack = createStack();
 			image.setStack(stack);
 			image.updateImage();
 		}
+		labelVolume = null;
 		return image;
 	}
 
@@ -97,89 +138,290 @@ public class Filler {
 		this.height = spImg.getHeight();
 		this.depth = spImg.getDepth();
 		this.image = spImg.getImage();
-		this.pixels = spImg.getRaw();
-		invertMat();
-		label();
-		if(checkHole()){
-			while(checkHole()){	
-				fillHole();
-				hashPix.clear();
-				label();
-			}
+		this.pixels = spImg.getVoxels();
+		this.labelVolume = spImg.getLabelVolume();
+		if (floodFill ? fillHoles() : fillByLabeling()) {
 			ImageStack stack = createStack();
 			image.setStack(stack);
 			image.updateImage();
 		}
+		labelVolume = null;
 		
 		return image;
 	}
 	
 	/**
-	 * Creates the stack of images from raw data (1D array) of image (pixels[]),
-	 * and returns the stack of images.
+	 * Fill a hole in the given voxel volume by morphology operation. The voxel volume is
+	 * modified in place, and no stack of images is created, so that a volume which is
+	 * stored in a memory-mapped temporary file (ex. an image backed by {@link VolumeStack})
+	 * is filled without loading it on the heap.
 	 *
-	 * @return the stack of images
+	 * @param voxels the voxel volume
+	 * @param labelVolume the label volume used as a working area of the fill operation
+	 * @return true, if a hole was filled
+	 * @throws IllegalArgumentException if the volume has more voxels than a label volume can hold
+	 *                                  (see {@link LabelVolume#getSize(int, int, int)})
 	 */
-	private ImageStack createStack(){
-		ImageStack altimage = new ImageStack(width, height);
-		for(int d = 0 ; d < depth ; d++){
-			byte[] matrix = new byte[width * height];
-			System.arraycopy(pixels, d * height * width, matrix, 0, matrix.length);
-			altimage.addSlice(new ByteProcessor(width,height,matrix,null));
+	public boolean fill(VoxelVolume voxels, LabelVolume labelVolume){
+		this.width = voxels.getWidth();
+		this.height = voxels.getHeight();
+		this.depth = voxels.getDepth();
+		this.image = null;
+		this.pixels = voxels;
+		this.labelVolume = labelVolume;
+		boolean filled = floodFill ? fillHoles() : fillByLabeling();
+		this.labelVolume = null;
+		return filled;
+	}
+	
+	/**
+	 * Fill holes in the raw data (1D array) of the image (pixels[]) by repeating
+	 * the labeling of the whole image until no hole remains (legacy mode).
+	 *
+	 * @return true, if a hole was filled
+	 */
+	private boolean fillByLabeling(){
+		hashPix.clear();
+		createMask();
+		label();
+		if (!checkHole())
+			return false;
+		
+		while (checkHole()) {
+			fillHole();
+			hashPix.clear();
+			label();
 		}
-		return altimage;
+		return true;
 	}
 	
 	/**
-	 * Create an inverted 1D array of an image (invert[]) from 1D array of an image (pixels[]).
-	 * Each pixel value will be inverted (0 -> 1, otherwise -> 0). For example, the Black and White
-	 * binary image will be converted to a White and Black binary image.
+	 * Fill holes in the raw data (1D array) of the image (pixels[]) by a flood fill.
+	 * The background (pixels with zero value) is flood-filled once from the border of the image,
+	 * and every background pixel which is not reached is treated as a hole.
+	 * The border of the image is the X-Y frame, and also the top and bottom slices
+	 * if the image has 3 or more slices.
+	 * The holes are then filled layer by layer from their outer surface, and each pixel
+	 * gets the pixel value of most enclosing adjacent domain (see {@link #checkAdjacentsLabel(int, int, int, int)}).
+	 *
+	 * @return true, if a hole was filled
 	 */
- 	private void invertMat(){
-		lwidth = width + 2;
-		lheight = height + 2;
-		if(depth < 3) ldepth = depth;
-		else 			ldepth = depth + 2;
+	private boolean fillHoles(){
+		int size = LabelVolume.getSize(width, height, depth);
+		int sliceSize = width * height;
+		boolean zBorder = depth >= 3;
+		state = labelVolume;
+		state.reset(size);
+		IntQueue queue = new IntQueue();
 		
-		invert = new int[lwidth * lheight * ldepth]; 
-		mask = new int[lwidth * lheight * ldepth];
-		if (ldepth > depth) {  // 3D image
-			for (int d = 0; d < ldepth; d++) {
-				for (int h = 0; h < lheight; h++) {
-					for (int w = 0; w < lwidth; w++) {
-						if (d == 0 || d == ldepth - 1 || h == 0 || h == lheight - 1 || w == 0 || w == lwidth - 1) {
-							invert[d * lheight * lwidth + h * lwidth + w] = 1;
-							mask[d * lheight * lwidth + h * lwidth + w] = 1;
-							continue;
-						}
-
-						if (pixels[(d - 1) * height * width + (h - 1) * width + w - 1] == 0)
-							invert[d * lheight * lwidth + h * lwidth + w] = 1;
-						else
-							invert[d * lheight * lwidth + h * lwidth + w] = 0;
+		// flood fill the background from the border (only the pixels on the border are visited)
+		for (int d = 0; d < depth; d++) {
+			boolean borderSlice = zBorder && (d == 0 || d == depth - 1);
+			for (int h = 0; h < height; h++) {
+				int step = (borderSlice || h == 0 || h == height - 1) ? 1 : Math.max(width - 1, 1);
+				for (int w = 0; w < width; w += step) {
+					int i = d * sliceSize + h * width + w;
+					if (pixels.get(i) == 0) {
+						state.set(i, OUTSIDE);
+						queue.add(i);
 					}
 				}
 			}
-		} else { // 2D image
-			for (int d = 0; d < ldepth; d++) {
-				for (int h = 0; h < lheight; h++) {
-					for (int w = 0; w < lwidth; w++) {
-						if(h == 0 || h == lheight - 1 || w == 0 || w == lwidth - 1){
-							invert[d * lheight * lwidth + h * lwidth + w] = 1;
-							mask[d * lheight * lwidth + h * lwidth + w] = 1;
-							continue;
-						}
-							
-						if (pixels[d * height * width + (h - 1) * width + w - 1] == 0)
-							invert[d * lheight * lwidth + h * lwidth + w] = 1;
-						else
-							invert[d * lheight * lwidth + h * lwidth + w] = 0;	
-					}
-				}
+		}
+		while (!queue.isEmpty()) {
+			int i = queue.poll();
+			int w = i % width, h = i / width % height, d = i / sliceSize;
+			if (w != 0) visitBackground(i - 1, queue);
+			if (w != width - 1) visitBackground(i + 1, queue);
+			if (h != 0) visitBackground(i - width, queue);
+			if (h != height - 1) visitBackground(i + width, queue);
+			if (d != 0) visitBackground(i - sliceSize, queue);
+			if (d != depth - 1) visitBackground(i + sliceSize, queue);
+		}
+		
+		// every background pixel which is not reached is a hole
+		boolean hasHole = false;
+		for (int i = 0; i < size; i++) {
+			if (pixels.get(i) == 0 && state.get(i) != OUTSIDE) {
+				state.set(i, HOLE);
+				hasHole = true;
 			}
 		}
+		if (!hasHole) {
+			state = null;
+			return false;
+		}
+		
+		// the first layer is the surface of each hole
+		for (int i = 0; i < size; i++) {
+			if (state.get(i) == HOLE && hasFilledAdjacent(i)) {
+				state.set(i, QUEUED);
+				queue.add(i);
+			}
+		}
+		
+		int[] layerVals = new int[queue.size()];
+		while (!queue.isEmpty()) {
+			int layerSize = queue.size();
+			if (layerVals.length < layerSize)
+				layerVals = new int[layerSize];
+			for (int n = 0; n < layerSize; n++)
+				layerVals[n] = checkAdjacentsValue(queue.get(n));
+			for (int n = 0; n < layerSize; n++) {
+				int i = queue.get(n);
+				pixels.set(i, layerVals[n]);
+				state.set(i, NOT_HOLE);
+			}
+			for (int n = 0; n < layerSize; n++) {
+				int i = queue.poll();
+				int w = i % width, h = i / width % height, d = i / sliceSize;
+				if (w != 0) visitHole(i - 1, queue);
+				if (w != width - 1) visitHole(i + 1, queue);
+				if (h != 0) visitHole(i - width, queue);
+				if (h != height - 1) visitHole(i + width, queue);
+				if (d != 0) visitHole(i - sliceSize, queue);
+				if (d != depth - 1) visitHole(i + sliceSize, queue);
+			}
+		}
+		state = null;
+		return true;
+	}
+	
+	/**
+	 * Marks the given pixel as a background pixel reached from the border, and adds it to the queue,
+	 * if it is a background pixel which is not yet visited.
+	 *
+	 * @param i the index of the pixel in an 1D array
+	 * @param queue the queue of the flood fill
+	 */
+	private void visitBackground(int i, IntQueue queue){
+		if (pixels.get(i) == 0 && state.get(i) != OUTSIDE) {
+			state.set(i, OUTSIDE);
+			queue.add(i);
+		}
+	}
+	
+	/**
+	 * Adds the given pixel to the queue of the next layer, if it is a hole pixel which is not yet queued.
+	 *
+	 * @param i the index of the pixel in an 1D array
+	 * @param queue the queue of the layers
+	 */
+	private void visitHole(int i, IntQueue queue){
+		if (state.get(i) == HOLE) {
+			state.set(i, QUEUED);
+			queue.add(i);
+		}
+	}
+	
+	/**
+	 * Checks whether the given hole pixel has an adjacent pixel which is not a hole.
+	 *
+	 * @param i the index of the pixel in an 1D array
+	 * @return true, if an adjacent pixel is not a hole
+	 */
+	private boolean hasFilledAdjacent(int i){
+		int sliceSize = width * height;
+		int w = i % width, h = i / width % height, d = i / sliceSize;
+		return (w != 0 && state.get(i - 1) == NOT_HOLE)
+				|| (w != width - 1 && state.get(i + 1) == NOT_HOLE)
+				|| (h != 0 && state.get(i - width) == NOT_HOLE)
+				|| (h != height - 1 && state.get(i + width) == NOT_HOLE)
+				|| (d != 0 && state.get(i - sliceSize) == NOT_HOLE)
+				|| (d != depth - 1 && state.get(i + sliceSize) == NOT_HOLE);
+	}
+	
+	/**
+	 * Returns the pixel value of most enclosing adjacent domain of the given hole pixel.
+	 * Only the adjacent pixels which are not holes are taken into account, and the most
+	 * frequent pixel value is returned. If two pixel values have the same frequency, then
+	 * the higher pixel value is returned. This is the flood fill counterpart of
+	 * {@link #checkAdjacentsLabel(int, int, int, int)}.
+	 *
+	 * @param i the index of the pixel in an 1D array
+	 * @return the pixel value of most enclosing adjacent domain
+	 */
+	private int checkAdjacentsValue(int i){
+		int sliceSize = width * height;
+		int w = i % width, h = i / width % height, d = i / sliceSize;
+		int count = 0;
+		if (w != width - 1 && state.get(i + 1) == NOT_HOLE) adjVals[count++] = pixels.get(i + 1);
+		if (w != 0 && state.get(i - 1) == NOT_HOLE) adjVals[count++] = pixels.get(i - 1);
+		if (h != height - 1 && state.get(i + width) == NOT_HOLE) adjVals[count++] = pixels.get(i + width);
+		if (h != 0 && state.get(i - width) == NOT_HOLE) adjVals[count++] = pixels.get(i - width);
+		if (d != depth - 1 && state.get(i + sliceSize) == NOT_HOLE) adjVals[count++] = pixels.get(i + sliceSize);
+		if (d != 0 && state.get(i - sliceSize) == NOT_HOLE) adjVals[count++] = pixels.get(i - sliceSize);
+		
+		int max = 0, maxFreq = 0;
+		for (int n = 0; n < count; n++) {
+			int val = adjVals[n];
+			if (val == 0)
+				continue;
+			int freq = 0;
+			for (int m = 0; m < count; m++)
+				if (adjVals[m] == val) freq++;
+			if (freq > maxFreq || (freq == maxFreq && val > max)) {
+				max = val;
+				maxFreq = freq;
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * Creates the stack of images from the voxels of image (pixels),
+	 * and returns the stack of images. The slices which are not filled are
+	 * shared with the stack of given image (see {@link SliceVoxelVolume}).
+	 *
+	 * @return the stack of images
+	 */
+	private ImageStack createStack(){
+		return ImgProcessUtil.createStack(pixels);
+	}
+	
+	/**
+	 * Create the mask of the image padded by 1 pixel in each direction (only x and y for
+	 * an image which has less than 3 slices). The padded pixels are labeled as 1, which is
+	 * the label of the background connected to the border.
+	 * The padding is virtual: the mask stores the labels of the pixels of the image only,
+	 * and the padded pixels are given by {@link #getMask(int, int, int)}.
+	 */
+ 	private void createMask(){
+		lwidth = width + 2;
+		lheight = height + 2;
+		if(depth < 3) ldepth = depth;
+		else 			ldepth = depth + 2;
+		
+		mask = labelVolume;
+		mask.reset(LabelVolume.getSize(width, height, depth));
 	 }
 	
+	/**
+	 * Gets the label of the given pixel of the padded mask. The padded pixels have the label 1.
+	 *
+	 * @param w the x offset (including padding)
+	 * @param h the y offset (including padding)
+	 * @param d the z offset (including padding for an image which has 3 or more slices)
+	 * @return the label of the pixel
+	 */
+	private int getMask(int w, int h, int d){
+		if (w == 0 || h == 0 || w == lwidth - 1 || h == lheight - 1 || (ldepth > depth && (d == 0 || d == ldepth - 1)))
+			return 1;
+		return mask.get(((ldepth > depth ? d - 1 : d) * height + h - 1) * width + w - 1);
+	}
+	
+	/**
+	 * Sets the label of the given pixel of the padded mask. The pixel must not be a padded pixel.
+	 *
+	 * @param w the x offset (including padding)
+	 * @param h the y offset (including padding)
+	 * @param d the z offset (including padding for an image which has 3 or more slices)
+	 * @param label the label of the pixel
+	 */
+	private void setMask(int w, int h, int d, int label){
+		mask.set(((ldepth > depth ? d - 1 : d) * height + h - 1) * width + w - 1, label);
+	}
+	
 	/** The label count. */
 	private int labelCount;
 	
@@ -189,16 +431,16 @@ public class Filler {
 	 * The domain which has pixel value = 0 will have a label = 1.
 	 */
 	public void label(){
-		hashPix.put(1, (byte)0);
+		hashPix.put(1, 0);
 		labelCount = 2;
 		if (ldepth > depth) {
 			for (int d = 1; d < ldepth - 1; d++) {
 				for (int h = 1; h < lheight - 1; h++) {
 					for (int w = 1; w < lwidth - 1; w++) {
-						if (invert[d * lheight * lwidth + h * lwidth + w] == 1 && pixels[(d-1) * height * width + (h-1) * width + w - 1] == 0) {
-							mask[d * lheight * lwidth + h * lwidth + w] = setLabel(w, h, d, pixels[(d-1) * height * width + (h-1) * width + w - 1]);
+						if (pixels.get((d-1) * height * width + (h-1) * width + w - 1) == 0) {
+							setMask(w, h, d, setLabel(w, h, d, pixels.get((d-1) * height * width + (h-1) * width + w - 1)));
 						}else{
-							mask[d * lheight * lwidth + h * lwidth + w] = setbackLabel(w, h, d, pixels[(d-1) * height * width + (h-1) * width + w - 1]);
+							setMask(w, h, d, setbackLabel(w, h, d, pixels.get((d-1) * height * width + (h-1) * width + w - 1)));
 						}
 					}
 				}
@@ -207,10 +449,10 @@ public class Filler {
 			for (int d = 0; d < ldepth; d++) {
 				for (int h = 1; h < lheight - 1; h++) {
 					for (int w = 1; w < lwidth - 1; w++) {
-						if (invert[d * lheight * lwidth + h * lwidth + w] == 1 && pixels[d * height * width + (h-1) * width + w - 1] == 0) {
-							mask[d * lheight * lwidth + h * lwidth + w] = setLabel(w, h, d, pixels[d * height * width + (h-1) * width + w - 1]);
+						if (pixels.get(d * height * width + (h-1) * width + w - 1) == 0) {
+							setMask(w, h, d, setLabel(w, h, d, pixels.get(d * height * width + (h-1) * width + w - 1)));
 						}else{
-							mask[d * lheight * lwidth + h * lwidth + w] = setbackLabel(w, h, d, pixels[d * height * width + (h-1) * width + w - 1]);
+							setMask(w, h, d, setbackLabel(w, h, d, pixels.get(d * height * width + (h-1) * width + w - 1)));
 						}
 					}
 				}
@@ -224,7 +466,7 @@ public class Filler {
 	 * @return true, if a hole exists
 	 */
 	public boolean checkHole(){
-		if(Collections.frequency(hashPix.values(), (byte) 0) > 1)
+		if(Collections.frequency(hashPix.values(), 0) > 1)
 			return true;
 		else		
 			return false;
@@ -235,8 +477,8 @@ public class Filler {
 	 * The fill operation will be applied to each domain (which has unique label number).
 	 */
 	public void fillHole(){
-		for(Entry<Integer, Byte> e : hashPix.entrySet()){
-			if(!e.getKey().equals(1) && e.getValue().equals((byte)0)){
+		for(Entry<Integer, Integer> e : hashPix.entrySet()){
+			if(!e.getKey().equals(1) && e.getValue().equals(0)){
 				fill(e.getKey());
 			}
 		}
@@ -253,8 +495,8 @@ public class Filler {
 			for (int d = 1; d < ldepth; d++) {
 				for (int h = 1; h < lheight - 1; h++) {
 					for (int w = 1; w < lwidth - 1; w++) {
-						if (mask[d * lheight * lwidth + h * lwidth + w] == labelNum ) {
-							pixels[(d-1) * height * width + (h-1) * width + w - 1] = checkAdjacentsLabel(w, h, d, labelNum);
+						if (getMask(w, h, d) == labelNum ) {
+							pixels.set((d-1) * height * width + (h-1) * width + w - 1, checkAdjacentsLabel(w, h, d, labelNum));
 						}
 					}
 				}
@@ -263,8 +505,8 @@ public class Filler {
 			for (int d = 0; d < ldepth; d++) {
 				for (int h = 1; h < lheight - 1; h++) {
 					for (int w = 1; w < lwidth - 1; w++) {
-						if (mask[d * lheight * lwidth + h * lwidth + w] == labelNum ) {
-							pixels[d * height * width + (h-1) * width + w - 1] = checkAdjacentsLabel(w, h, d, labelNum);
+						if (getMask(w, h, d) == labelNum ) {
+							pixels.set(d * height * width + (h-1) * width + w - 1, checkAdjacentsLabel(w, h, d, labelNum));
 						}
 					}
 				}
@@ -284,44 +526,44 @@ public class Filler {
 	 * @param labelNum the label number
 	 * @return the pixel value of most enclosing adjacent domain if different domain exists, otherwise 0
 	 */
-	public byte checkAdjacentsLabel(int w, int h, int d, int labelNum){
-		List<Byte> adjVal = new ArrayList<Byte>();
+	public int checkAdjacentsLabel(int w, int h, int d, int labelNum){
+		List<Integer> adjVal = new ArrayList<Integer>();
 			//check right
-			if(mask[d * lheight * lwidth + h * lwidth + w + 1] != labelNum)
-				adjVal.add(hashPix.get(mask[d * lheight * lwidth + h * lwidth + w + 1]));
+			if(getMask(w + 1, h, d) != labelNum)
+				adjVal.add(hashPix.get(getMask(w + 1, h, d)));
 			
 			//check left			
-			if(mask[d * lheight * lwidth + h * lwidth + w - 1] != labelNum)
-				adjVal.add(hashPix.get(mask[d * lheight * lwidth + h * lwidth + w - 1]));
+			if(getMask(w - 1, h, d) != labelNum)
+				adjVal.add(hashPix.get(getMask(w - 1, h, d)));
 			
 			//check down
-			if(mask[d * lheight * lwidth + (h+1) * lwidth + w ] != labelNum)
-				adjVal.add(hashPix.get(mask[d * lheight * lwidth + (h+1) * lwidth + w]));
+			if(getMask(w, h + 1, d) != labelNum)
+				adjVal.add(hashPix.get(getMask(w, h + 1, d)));
 
 			//check up
-			if(mask[d * lheight * lwidth + (h-1) * lwidth + w ] != labelNum)
-				adjVal.add(hashPix.get(mask[d * lheight * lwidth + (h-1) * lwidth + w]));
+			if(getMask(w, h - 1, d) != labelNum)
+				adjVal.add(hashPix.get(getMask(w, h - 1, d)));
 
 			//check above
-			if(d != depth - 1 && mask[(d+1) * lheight * lwidth + h * lwidth + w] != labelNum)
-				adjVal.add(hashPix.get(mask[(d+1) * lheight * lwidth + h * lwidth + w]));
+			if(d != depth - 1 && getMask(w, h, d + 1) != labelNum)
+				adjVal.add(hashPix.get(getMask(w, h, d + 1)));
 			
 			//check below
-			if(d != 0 && mask[(d-1) * lheight * lwidth + h * lwidth + w] != labelNum)
-				adjVal.add(hashPix.get(mask[(d - 1) * lheight * lwidth + h * lwidth + w]));
+			if(d != 0 && getMask(w, h, d - 1) != labelNum)
+				adjVal.add(hashPix.get(getMask(w, h, d - 1)));
 			
 			if(adjVal.isEmpty())
 				return 0;
 		
 			int max = 0;
 			int count = 0;
-			int freq, temp; Byte val = 0;
+			int freq, temp; Integer val = 0;
 			for(int n = 0 ; n < adjVal.size() ; n++){
 				val = adjVal.get(n);
 				if(val == 0)
 					continue;
 				freq = Collections.frequency(adjVal, val);
-				temp = val & 0xFF;
+				temp = val;
 				if(freq > count){
 					max = temp;
 					count = freq;
@@ -332,7 +574,7 @@ public class Filler {
 					count = freq;
 				}
 			}
-		return (byte) max;
+		return max;
 	}
 	
 	/**
@@ -345,19 +587,19 @@ public class Filler {
 	 * @param pixVal the pixel value
 	 * @return the label as integer value
 	 */
-	private int setLabel(int w , int h, int d, byte pixVal){
+	private int setLabel(int w , int h, int d, int pixVal){
 		List<Integer> adjVal = new ArrayList<Integer>();
 		//check left			
-		if(mask[d * lheight * lwidth + h * lwidth + w - 1] != 0 && hashPix.get(mask[d * lheight * lwidth + h * lwidth + w - 1]) == (byte)0)
-			adjVal.add(mask[d * lheight * lwidth + h * lwidth + w - 1]);
+		if(getMask(w - 1, h, d) != 0 && hashPix.get(getMask(w - 1, h, d)) == 0)
+			adjVal.add(getMask(w - 1, h, d));
 
 		//check up
-		if(mask[d * lheight * lwidth + (h-1) * lwidth + w ] != 0 && hashPix.get(mask[d * lheight * lwidth + (h-1) * lwidth + w]) == (byte)0)
-			adjVal.add(mask[d * lheight * lwidth + (h-1) * lwidth + w]);
+		if(getMask(w, h - 1, d) != 0 && hashPix.get(getMask(w, h - 1, d)) == 0)
+			adjVal.add(getMask(w, h - 1, d));
 
 		//check below
-		if(d != 0 && mask[(d-1) * lheight * lwidth + h * lwidth + w] != 0 && hashPix.get(mask[(d-1) * lheight * lwidth + h * lwidth + w]) == (byte)0)
-			adjVal.add(mask[(d-1) * lheight * lwidth + h * lwidth + w]);
+		if(d != 0 && getMask(w, h, d - 1) != 0 && hashPix.get(getMask(w, h, d - 1)) == 0)
+			adjVal.add(getMask(w, h, d - 1));
 		
 		if(adjVal.isEmpty()){
 			hashPix.put(labelCount, pixVal);
@@ -391,19 +633,19 @@ public class Filler {
 	 * @param pixVal the pixel value
 	 * @return the label as integer value
 	 */
-	private int setbackLabel(int w , int h, int d, byte pixVal){
+	private int setbackLabel(int w , int h, int d, int pixVal){
 		List<Integer> adjVal = new ArrayList<Integer>();
 		//check left
-		if(mask[d * lheight * lwidth + h * lwidth + w - 1] != 0 && hashPix.get(mask[d * lheight * lwidth + h * lwidth + w - 1]) != (byte)0)
-			adjVal.add(mask[d * lheight * lwidth + h * lwidth + w - 1]);
+		if(getMask(w - 1, h, d) != 0 && hashPix.get(getMask(w - 1, h, d)) != 0)
+			adjVal.add(getMask(w - 1, h, d));
 
 		//check up
-		if(mask[d * lheight * lwidth + (h-1) * lwidth + w ] != 0 && hashPix.get(mask[d * lheight * lwidth + (h-1) * lwidth + w]) != (byte)0)
-			adjVal.add(mask[d * lheight * lwidth + (h-1) * lwidth + w]);
+		if(getMask(w, h - 1, d) != 0 && hashPix.get(getMask(w, h - 1, d)) != 0)
+			adjVal.add(getMask(w, h - 1, d));
 
 		//check below
-		if(d != 0 && mask[(d-1) * lheight * lwidth + h * lwidth + w] != 0 && hashPix.get(mask[(d-1) * lheight * lwidth + h * lwidth + w]) != (byte)0)
-			adjVal.add(mask[(d-1) * lheight * lwidth + h * lwidth + w]);
+		if(d != 0 && getMask(w, h, d - 1) != 0 && hashPix.get(getMask(w, h, d - 1)) != 0)
+			adjVal.add(getMask(w, h, d - 1));
 		
 		if(adjVal.isEmpty()){
 			hashPix.put(labelCount, pixVal);
@@ -439,8 +681,8 @@ public class Filler {
 			for (int d = 1; d <= dEnd; d++) {
 				for (int h = 1; h < lheight - 1; h++) {
 					for (int w = 1; w < lwidth - 1; w++) {
-						if (mask[d * lheight * lwidth + h * lwidth + w] == before)
-							mask[d * lheight * lwidth + h * lwidth + w] = after;					
+						if (getMask(w, h, d) == before)
+							setMask(w, h, d, after);					
 						}
 				}
 			}
@@ -448,8 +690,8 @@ public class Filler {
 			for (int d = 0; d <= dEnd; d++) {
 				for (int h = 1; h < lheight - 1; h++) {
 					for (int w = 1; w < lwidth - 1; w++) {
-						if (mask[d * lheight * lwidth + h * lwidth + w] == before)
-							mask[d * lheight * lwidth + h * lwidth + w] = after;
+						if (getMask(w, h, d) == before)
+							setMask(w, h, d, after);
 					}
 				}
 			}
@@ -0,0 +1,116 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+/**
+ * The class HeapVoxelVolume, which stores the voxels of an image in a byte array on the heap.
+ * The number of voxels is limited to 2^31 - 1.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class HeapVoxelVolume implements VoxelVolume {
+
+	/** The width of the volume. */
+	private final int width;
+
+	/** The height of the volume. */
+	private final int height;
+
+	/** The depth of the volume. */
+	private final int depth;
+
+	/** The raw data (1D byte array) of the volume. */
+	private final byte[] raw;
+
+	/**
+	 * Instantiates a new heap voxel volume with given size. All pixel values are 0.
+	 *
+	 * @param width the width of the volume
+	 * @param height the height of the volume
+	 * @param depth the depth of the volume
+	 */
+	public HeapVoxelVolume(int width, int height, int depth) {
+		this(new byte[width * height * depth], width, height, depth);
+	}
+
+	/**
+	 * Instantiates a new heap voxel volume which wraps given raw data.
+	 * The raw data is not copied.
+	 *
+	 * @param raw the raw data (1D byte array) of the volume
+	 * @param width the width of the volume
+	 * @param height the height of the volume
+	 * @param depth the depth of the volume
+	 */
+	public HeapVoxelVolume(byte[] raw, int width, int height, int depth) {
+		this.raw = raw;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public long size() {
+		return raw.length;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return 8;
+	}
+
+	@Override
+	public int get(long index) {
+		return raw[(int) index] & 0xFF;
+	}
+
+	@Override
+	public void set(long index, int value) {
+		raw[(int) index] = (byte) value;
+	}
+
+	@Override
+	public void getSlice(int z, byte[] slice) {
+		System.arraycopy(raw, z * width * height, slice, 0, width * height);
+	}
+
+	@Override
+	public void setSlice(int z, byte[] slice) {
+		System.arraycopy(slice, 0, raw, z * width * height, width * height);
+	}
+
+	@Override
+	public void getSlice(int z, short[] slice) {
+		ImgProcessUtil.widen(raw, z * width * height, slice, 0, width * height);
+	}
+
+	@Override
+	public void setSlice(int z, short[] slice) {
+		if (!ImgProcessUtil.narrow(slice, 0, raw, z * width * height, width * height))
+			throw new IllegalArgumentException("A pixel value larger than 255 cannot be written to an 8-bit volume");
+	}
+
+	/**
+	 * Gets the raw data (1D byte array) of the volume. The array is not copied.
+	 *
+	 * @return the raw data of the volume
+	 */
+	public byte[] getRaw() {
+		return raw;
+	}
+}
@@ -17,6 +17,7 @@ package jp.ac.keio.bio.fun.xitosbml.image;
 
 import ij.ImageStack;
 import ij.process.ByteProcessor;
+import ij.process.ShortProcessor;
 
 /**
  * The class ImageBorder, which provides several image processing functions to handle X-Y and Z border.
@@ -38,8 +39,8 @@ public class ImageBorder {
 	/** The depth of an image. */
 	private int depth;
 	
-	/** The raw data (1D byte array) of the image. */
-	private byte[] raw;
+	/** The voxels of the image. */
+	private VoxelVolume raw;
 	
 	/** The image has safe border. */
 	private boolean hasSafeBorder = true;
@@ -56,7 +57,7 @@ public class ImageBorder {
 		this.width = spImg.getWidth();
 		this.height = spImg.getHeight();
 		this.depth = spImg.getDepth();
-		this.raw = spImg.getRaw();
+		this.raw = spImg.getVoxels();
 		
 		fixBorder();						// blackens all outside pixel
 		hasSafeBorder = isBorderSafe(); 	//depth = 0 or top/bottom slice does not have object
@@ -64,18 +65,43 @@ public class ImageBorder {
 		//createNewStack();
 	}
 	
+	/**
+	 * Instantiates a new ImageBorder object with given voxel volume. The X-Y border of the
+	 * voxel volume is fixed in place, and no stack of images is created. If the border of
+	 * Z axis is not safe, then the voxel volume is padded by a virtual border layer on the top
+	 * and the bottom ({@link PaddedVolume}), so no voxel is copied (see {@link #getVoxels()}).
+	 *
+	 * @param voxels the voxel volume
+	 */
+	public ImageBorder(VoxelVolume voxels){
+		this.width = voxels.getWidth();
+		this.height = voxels.getHeight();
+		this.depth = voxels.getDepth();
+		this.raw = voxels;
+		
+		fixBorder();
+		hasSafeBorder = isBorderSafe();
+		if(!hasSafeBorder)
+			createNewVolume();
+	}
+	
 	/**
 	 * Fill with 0 for X and Y border. This method is like a zero-padding, but will not
-	 * extend the image size.
+	 * extend the image size. Only the pixels on the border are visited, and only non zero
+	 * pixels are written, so that the slices whose border is already 0 are not copied
+	 * (see {@link SliceVoxelVolume}).
 	 */
 	private void fixBorder() {
 		int init = 0, end = depth;
 		
 		for (int d = init; d < end; d++) {
 			for (int h = 0; h < height; h++) {
-				for (int w = 0; w < width; w++) {
-					if (h == 0 || h == height - 1 || w == 0 || w == width - 1) {
-						raw[d * height * width + h * width + w] = 0;
+				// the first and the last row are cleared, and only both ends of the other rows
+				int step = (h == 0 || h == height - 1) ? 1 : Math.max(width - 1, 1);
+				for (int w = 0; w < width; w += step) {
+					long i = (long) d * height * width + h * width + w;
+					if (raw.get(i) != 0) {
+						raw.set(i, 0);
 					}
 				}
 			}
@@ -101,11 +127,11 @@ public class ImageBorder {
 	 * @return true, if the top and bottom z-stack image only contains zero value
 	 */
 	private boolean checkTopBottom(){
-		int bottomSlice = (depth - 1) * width * height;
+		long bottomSlice = (long) (depth - 1) * width * height;
 		
 		for(int h = 0 ; h < height ; h++){
 			for(int w = 0 ; w < width ; w++){
-				if(raw[bottomSlice + width * h + w] != 0 || raw[width * h + w] != 0)
+				if(raw.get(bottomSlice + width * h + w) != 0 || raw.get(width * h + w) != 0)
 					return false;
 			}
 		}
@@ -125,11 +151,9 @@ public class ImageBorder {
 		if(!hasSafeBorder)
 			addBlackSlice(altStack);
 		
-		for(int i = 1 ; i <= depth ; i++){
-			byte[] slice = new byte[height * width];
-			System.arraycopy(raw, (i-1) * height * width, slice, 0, height * width);
-			altStack.addSlice(new ByteProcessor(width,height,slice,null));
-    	} 
+		ImageStack stack = ImgProcessUtil.createStack(raw);
+		for(int i = 1 ; i <= depth ; i++)
+			altStack.addSlice(null, stack.getPixels(i));
 		
 		if(!hasSafeBorder) 
 			addBlackSlice(altStack);
@@ -146,24 +170,37 @@ public class ImageBorder {
 		altStack = new ImageStack(width, height);
 		for (int h = 0; h < height; h++) {
 			for (int w = 0; w < width; w++) {
-				raw[ h * width + w] = 0;
-				raw[(depth - 1) * height * width + h * width + w] = 0;
+				raw.set(h * width + w, 0);
+				raw.set((long) (depth - 1) * height * width + h * width + w, 0);
 			}
 		}
 
 		for(int i = 1 ; i <= depth ; i++){
-			byte[] slice = new byte[height * width];
-			System.arraycopy(raw, (i-1) * height * width, slice, 0, height * width);
-			altStack.addSlice(new ByteProcessor(width,height,slice,null));
+			altStack.addSlice(ImgProcessUtil.createProcessor(width, height, ImgProcessUtil.getSlice(raw, i - 1)));
     	} 
 	}
 	
+	/**
+	 * Creates the new voxel volume which has a border layer (a layer which is filled with zero)
+	 * on the top and the bottom. The border layers are virtual ({@link PaddedVolume}), and
+	 * the new voxel volume is a view of the voxels.
+	 */
+	private void createNewVolume(){
+		raw = new PaddedVolume(raw, 0, 0, 1, 0);
+		depth += 2;
+	}
+	
 	/**
 	 * Adds a black slice (a layer which is filled with zero (that is, the border layer)) to the stack of images.
+	 * The bit depth of the slice is the same as the voxels.
 	 *
 	 * @param is the stack of images
 	 */
 	private void addBlackSlice(ImageStack is){
+		if (raw.getBitDepth() == 16) {
+			is.addSlice(new ShortProcessor(width, height, new short[width * height], null));
+			return;
+		}
 		byte[] blackSlice = new byte[width * height];
 		is.addSlice(new ByteProcessor(width,height,blackSlice,null));
 	}
@@ -176,4 +213,16 @@ public class ImageBorder {
 	public ImageStack getStackImage(){
 		return altStack;
 	}
+	
+	/**
+	 * Gets the voxel volume which has safe border. This is the given voxel volume itself
+	 * unless a border layer is added to the top and the bottom, in which case it is a
+	 * {@link PaddedVolume} backed by the given voxel volume (so the given voxel volume
+	 * must not be released while the returned volume is used).
+	 *
+	 * @return the voxel volume which has safe border
+	 */
+	public VoxelVolume getVoxels(){
+		return raw;
+	}
 }
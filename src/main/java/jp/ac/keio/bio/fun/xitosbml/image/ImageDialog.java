@@ -5,6 +5,7 @@ import java.awt.Frame;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.io.File;
+import java.io.IOException;
 import java.util.Vector;
 
 import javax.swing.JFileChooser;
@@ -122,8 +123,14 @@ public class ImageDialog implements ItemListener{
 		OpenDialog.setLastDirectory(f.getParentFile().getAbsolutePath());
 		ImagePlus inImg = null;
 		
-
-		inImg = openImg.openFolder(f.getAbsolutePath());
+		// TIFF stacks and folders of TIFF images are decoded in parallel
+		try {
+			inImg = TiffLoader.open(f.getAbsolutePath());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (inImg == null)
+			inImg = openImg.openFolder(f.getAbsolutePath());
 		if (inImg == null)
 			inImg = open.openImage(f.getAbsolutePath());
 
@@ -1,9 +1,8 @@
 package jp.ac.keio.bio.fun.xitosbml.image;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map.Entry;
 
 import org.scijava.vecmath.Point3d;
@@ -21,11 +20,8 @@ import ij.ImagePlus;
  */
 public class ImageEdit {
 	
-	/** The list of unique pixel values */
-	private ArrayList<Integer> labelList;
-	
-	/** The hashmap of number of labels. HashMap&lt;Integer, Integer&gt;*/
-	private HashMap<Integer,Integer> hashLabelNum;
+	/** The number of pixels of each pixel value (histogram of an image). */
+	private long[] voxelCount;
 	
 	/** The hashmap of domain types. HashMap&lt;String, Integer&gt;*/
 	private HashMap<String,Integer> hashDomainTypes;
@@ -45,23 +41,17 @@ public class ImageEdit {
 	/** The size of an image. */
 	private int size;
 	
-	/** The raw data (1D array) of an image. */
-	private byte[] pixels;
-	
-	/** The 1D array of labels. */
-	private int[] matrix;	
+	/** The voxels of an image. */
+	private VoxelVolume pixels;
 	
-	/** The inverted 1D array of an image */
-	private int[] invert;
+	/** The label of each pixel. */
+	private LabelVolume matrix;
 	
-	/** The hashmap of pixels. HashMap&lt;Integer label, Integer pixel value&gt; */
-	private HashMap<Integer, Integer>  hashPix = new HashMap<Integer,Integer>(); //label + pixel value
-	
-	/** The hashmap of Point3d objects. HashMap&lt;Integer label, Point3d coordinate&gt; */
-	private HashMap<Integer, Point3d> hashLabelPt = new HashMap<Integer,Point3d>();  //label + coordinates
-    
 	/** The hashmap of domain InteriorPoint of spatial image. HashMap&lt;String domain name, Point3d coordinate&gt; */
     private HashMap<String, Point3d> hashDomInteriorPt = new HashMap<String,Point3d>();  //domain name + coordinates
+
+	/** The hashmap of maximum inscribed radius of each domain. HashMap&lt;String domain name, Double radius&gt; */
+	private HashMap<String, Double> hashDomInscribedRadius = new HashMap<String, Double>();
 	
     /**
      * Instantiates a new image edit object with given image object and hashmaps of domain types and sampled value.
@@ -74,12 +64,12 @@ public class ImageEdit {
     	this.width = image.getWidth();
         this.height = image.getHeight();
         this.depth = image.getStackSize();
-        this.size = width * height * depth;
+        this.size = LabelVolume.getSize(width, height, depth);
         this.hashDomainTypes = hashDomainTypes;
         this.hashSampledValue = hashSampledValue;
-        pixels = ImgProcessUtil.copyMat(image);
-        listVal();
-        invertMat();
+        pixels = ImgProcessUtil.createVoxelVolume(image.getStack());
+        matrix = new LabelVolume(size);
+        countVal();
         label();
         createMembrane();
     }
@@ -88,171 +78,177 @@ public class ImageEdit {
      * Instantiates a new image edit with given spatial image object.
      *
      * @param spImg the spatial image object
+     * @throws IllegalArgumentException if the image has more voxels than a label volume can hold
+     *                                  (see {@link LabelVolume#getSize(int, int, int)})
      */
     public ImageEdit(SpatialImage spImg){
     	spImg.getImage();    	
         this.width = spImg.getWidth();
         this.height = spImg.getHeight();
         this.depth = spImg.getDepth();
-        this.size = width * height * depth;
+        this.size = LabelVolume.getSize(width, height, depth);
         this.hashDomainTypes = spImg.getHashDomainTypes();
         this.hashSampledValue = spImg.getHashSampledValue();
-        this.pixels = spImg.getRaw();
+        this.pixels = spImg.getVoxels();
+        this.delta = spImg.getDelta();
+        this.matrix = spImg.getLabelVolume();
+        matrix.reset(size);
 
-        listVal();
-        invertMat();
+        countVal();
         label();
         createMembrane();
         spImg.setHashDomainNum(hashDomainNum);
         spImg.setAdjacentsList(adjacentsList);
+        spImg.setHashMembraneArea(hashMembraneArea);
+        spImg.setVoxelCount(voxelCount);
         createDomInteriorPt();
         spImg.setHashDomInteriorpt(hashDomInteriorPt);
+        spImg.setHashDomInscribedRadius(hashDomInscribedRadius);
     }
     
     /**
-	 * Create a new labelList object, which is a list of unique pixel values.
+	 * Count the number of pixels of each pixel value (voxelCount) by a single histogram pass.
      */
-    private void listVal(){
-    	int temp;
-    	labelList = new ArrayList<Integer>();
-    	for (int i = 0 ; i < size ; i++) {
-			temp = pixels[i] & 0xFF;
-			if (!labelList.contains(temp)) {	
-				labelList.add(new Integer(temp));
-			}
-		}
-    	Collections.sort(labelList);
+    private void countVal(){
+    	voxelCount = ImgProcessUtil.histogram(pixels);
     }
     
-    /**
-     * Create hashmap of count number of labels and set the value with given
-	 * hashmap of pixels.
-     *
-     * @param num the hashmap of pixels (HashMap&lt;Integer, Integer&gt;).
-     */
-    public void domtype(HashMap<Integer,Integer> num){
-    	hashLabelNum = new HashMap<Integer,Integer>();
-    	for(Entry<Integer, Integer> e : num.entrySet()){
-    		if(!hashLabelNum.containsKey(e.getValue()))
-    			hashLabelNum.put((Integer) e.getValue(), Collections.frequency(num.values(), e.getValue()));
-    	}	
-    }
-
-	/**
-	 * Create an inverted 1D array of an image (invert[]) from 1D array of an image (pixels[]).
-	 * Each pixel value will be inverted (0 -> 1, otherwise -> 0). For example, the Black and White
-	 * binary image will be converted to a White and Black binary image.
-	 */
- 	private void invertMat(){		
-		invert = new int[width * height * depth]; 
-		matrix = new int[width * height * depth];
-			for (int d = 0; d < depth; d++) {
-				for (int h = 0; h < height; h++) {
-					for (int w = 0; w < width; w++) {
-						if (pixels[d * height * width + h * width + w] == 0)
-							invert[d * height * width + h * width + w] = 1;
-						else
-							invert[d * height * width + h * width + w] = 0;
-					}
-				}
-			}
-	 }
-	 
 	/** The count number of labels. */
 	private int labelCount = 1;
 	
+	/** The pixel value of each label. */
+	private int[] labelValue;
+	
+	/** The index of the first pixel of each label in an 1D array. */
+	private int[] labelOrigin;
+	
 	/**
-	 * Set the label of each pixel to the 1D array of labels (matrix).
-	 * After the labels are set to all pixels, then count the number of labels
-	 * and set to the hashmap of count number of labels.
+	 * The index of each label among the domains which have the same pixel value.
+	 * The domains are indexed in the order of their first pixel.
 	 */
-	public void label(){
-			for (int d = 0; d < depth; d++) {
-				for (int h = 0; h < height; h++) {
-					for (int w = 0; w < width; w++) {
-						matrix[d * height * width + h * width + w] = setLabel(w, h, d, pixels[d * height * width + h * width + w] & 0xFF);
-					}
-				}
-			}
-		domtype(hashPix);
-	}
+	private int[] labelIndex;
+	
+	/** The labels assigned to domains, in ascending order. */
+	private int[] domainLabels;
+	
+	/** The count number of domains. */
+	private int numDomains;
+	
+	/** The count number of domains of each pixel value. */
+	private int[] domainCount;
+	
+	/** The name of domain type of each pixel value ("" if the pixel value is not a sampled value). */
+	private String[] valueName;
 	
 	/**
-	 * Sets the label of the given pixel (x offset, y offset, z offset) with its pixel value.
-     * Checks whether the adjacent pixel has the same pixel value, and its label is already assigned.
-	 *
-	 * @param w the x offset
-	 * @param h the y offset
-	 * @param d the z offset
-	 * @param pixVal the pixel value
-	 * @return the label as integer value
+	 * Set the label of each pixel to the label volume (matrix).
+	 * Large z-stack images are labeled in parallel by {@link SlabLabeler}, and
+	 * other images are labeled by {@link #labelSerial()}. Both give the same labels.
+	 * After the labels are set to all pixels, then count the number of domains
+	 * of each pixel value, and assign an index to each domain.
 	 */
-	private int setLabel(int w , int h, int d, int pixVal){
-		List<Integer> adjVal = new ArrayList<Integer>();
-		//check left			
-		if(w != 0 && hashPix.get(matrix[d * height * width + h * width + w - 1]).equals(pixVal))
-			adjVal.add(matrix[d * height * width + h * width + w - 1]);
-
-		//check right			
-		if(w != width - 1 && matrix[d * height * width + h * width + w + 1] != 0 && hashPix.get(matrix[d * height * width + h * width + w + 1]).equals(pixVal))
-			adjVal.add(matrix[d * height * width + h * width + w + 1]);
-
-		//check up
-		if(h != 0 && hashPix.get(matrix[d * height * width + (h-1) * width + w]).equals(pixVal))
-			adjVal.add(matrix[d * height * width + (h-1) * width + w]);
-
-		//check down
-		if(h != height - 1 && matrix[d * height * width + (h+1) * width + w ] != 0 && hashPix.get(matrix[d * height * width + (h+1) * width + w]).equals(pixVal))
-			adjVal.add(matrix[d * height * width + (h+1) * width + w]);
-		
-		//check below
-		if(d != 0 && hashPix.get(matrix[(d-1) * height * width + h * width + w]).equals(pixVal))
-			adjVal.add(matrix[(d-1) * height * width + h * width + w]);
-
-		//check above
-		if(d != depth - 1 && matrix[(d+1) * height * width + h * width + w ] != 0 && hashPix.get(matrix[(d+1) * height * width + h * width + w]).equals(pixVal))
-			adjVal.add(matrix[(d+1) * height * width + h * width + w]);
-		
-		if(adjVal.isEmpty()){
-			hashPix.put(labelCount, pixVal);
-			hashLabelPt.put(labelCount, new Point3d(w,h,d));
-			return labelCount++;
+	public void label(){
+		if (SlabLabeler.isParallelizable(width, height, depth)) {
+			SlabLabeler labeler = new SlabLabeler(pixels);
+			labeler.label(matrix);
+			labelCount = labeler.getLabelCount();
+			labelValue = labeler.getLabelValue();
+			labelOrigin = labeler.getLabelOrigin();
+		} else {
+			labelSerial();
 		}
-			
-		Collections.sort(adjVal);
 		
-		//if all element are same or list has only one element 
-		if(Collections.frequency(adjVal, adjVal.get(0)) == adjVal.size())
-			return adjVal.get(0);
-		
-		int min = adjVal.get(0);
-		for(int i = 1; i < adjVal.size(); i++){
-			if(min == adjVal.get(i))
+		labelIndex = new int[labelCount];
+		domainLabels = new int[labelCount];
+		domainCount = new int[voxelCount.length];
+		numDomains = 0;
+		for (int label = 1; label < labelCount; label++) {
+			int origin = labelOrigin[label];
+			// a label is assigned to a domain if its first pixel still has the label
+			if (origin < 0 || matrix.get(origin) != label)
 				continue;
-			
-			rewriteLabel(d, min, adjVal.get(i));
-			hashPix.remove(adjVal.get(i));
-			hashLabelPt.remove(adjVal.get(i));
+			labelIndex[label] = domainCount[labelValue[label]]++;
+			domainLabels[numDomains++] = label;
 		}
-		return min;
+		createValueNames();
 	}
-
+	
 	/**
-	 * Replace the label of pixels in the spatial image which has "before" to "after".
-	 *
-	 * @param dEnd the end of the depth
-	 * @param after the label to set by this replacement
-	 * @param before the label to be replaced
+	 * Set the label of each pixel to the label volume (matrix) by a two-pass
+	 * connected-component labeling.
+	 * The first pass assigns a provisional label to each pixel from its
+	 * already labeled neighbors (left, up and below) which have the same pixel value,
+	 * and records the equivalence of provisional labels in a {@link UnionFind}.
+	 * The second pass replaces each provisional label with the smallest provisional
+	 * label of its component, which is the label created at the first pixel
+	 * of the component.
 	 */
-	private void rewriteLabel(int dEnd, int after, int before){
-		for (int d = 0; d <= dEnd; d++) {
-				for (int h = 0; h < height; h++) {
-					for (int w = 0; w < width; w++) {
-						if (matrix[d * height * width + h * width + w] == before)
-							matrix[d * height * width + h * width + w] = after;
+	private void labelSerial(){
+		int sliceSize = height * width;
+		UnionFind uf = new UnionFind(1024);
+		uf.makeSet(); // label 0 is never assigned to a pixel
+		labelValue = new int[1024];
+		labelOrigin = new int[1024];
+		
+		for (int d = 0; d < depth; d++) {
+			for (int h = 0; h < height; h++) {
+				for (int w = 0; w < width; w++) {
+					int i = d * sliceSize + h * width + w;
+					int pixVal = pixels.get(i);
+					int label = 0;
+					
+					//check left
+					if (w != 0 && pixels.get(i - 1) == pixVal)
+						label = matrix.get(i - 1);
+					
+					//check up
+					if (h != 0 && pixels.get(i - width) == pixVal)
+						label = mergeLabel(uf, label, matrix.get(i - width));
+					
+					//check below
+					if (d != 0 && pixels.get(i - sliceSize) == pixVal)
+						label = mergeLabel(uf, label, matrix.get(i - sliceSize));
+					
+					if (label == 0) {
+						label = uf.makeSet();
+						if (label == labelValue.length) {
+							labelValue = Arrays.copyOf(labelValue, label * 2);
+							labelOrigin = Arrays.copyOf(labelOrigin, label * 2);
+						}
+						labelValue[label] = pixVal;
+						labelOrigin[label] = i;
 					}
+					matrix.set(i, label);
 				}
 			}
+		}
+		labelCount = uf.size();
+		
+		int[] canonical = new int[labelCount];
+		for (int i = 0; i < size; i++) {
+			int label = matrix.get(i);
+			int root = uf.find(label);
+			if (canonical[root] == 0)
+				canonical[root] = label;
+			matrix.set(i, canonical[root]);
+		}
+	}
+	
+	/**
+	 * Merges the given provisional label with the label of an adjacent pixel
+	 * which has the same pixel value, and returns the label to be assigned.
+	 *
+	 * @param uf the union-find of provisional labels
+	 * @param label the provisional label found so far (0 if not yet found)
+	 * @param adjLabel the label of the adjacent pixel
+	 * @return the label to be assigned
+	 */
+	private int mergeLabel(UnionFind uf, int label, int adjLabel){
+		if (label == 0)
+			return adjLabel;
+		if (label != adjLabel)
+			uf.union(label, adjLabel);
+		return label;
 	}
     
     /** count number of domains in each domain types and add membrane to adjacents. */
@@ -275,59 +271,53 @@ public class ImageEdit {
     	Integer temp;
     	for(Entry<String,Integer> e : hashDomainTypes.entrySet()){
 			temp = hashSampledValue.get(e.getKey());
-			hashDomainNum.put(e.getKey(), Collections.frequency(hashPix.values(), temp));
+			if (temp == null || temp < 0 || temp >= domainCount.length)
+				hashDomainNum.put(e.getKey(), 0);
+			else
+				hashDomainNum.put(e.getKey(), domainCount[temp]);
 		}
     }
 
-    /** The list of adjacent pixels. */
-    private ArrayList<ArrayList<Integer>> adjacentsPixel;
+    /** The set of adjacent labels, which counts the shared faces of each pair. */
+    private LabelPairMap adjacentsPair;
     
     /** The list of adjacent domains. */
     private ArrayList<ArrayList<String>> adjacentsList;
     
+    /** The name of the membrane of each pair in adjacentsPair. */
+    private ArrayList<String> membraneList;
+    
+    /** The hashmap of contact area of each membrane. HashMap&lt;String membrane name, Double area&gt; */
+    private HashMap<String, Double> hashMembraneArea;
+    
+    /** The size of a pixel (voxel) in each axis. */
+    private Point3d delta = new Point3d(1, 1, 1);
+    
     /**
      * Adds a membrane between two different domains.
+     * Each pixel is compared with its right, down and above pixels, and each pair of
+     * adjacent domains is registered once in adjacentsPair. The number of faces shared
+     * by each pair is counted, which gives the contact area of the membrane.
      */
     public void addMembrane(){
-    	adjacentsPixel = new ArrayList<ArrayList<Integer>>();
+    	adjacentsPair = new LabelPairMap();
         adjacentsList = new ArrayList<ArrayList<String>>();
-        int lower, higher;
-        //adds the membrane 					may need changes in the future
+        membraneList = new ArrayList<String>();
+        int sliceSize = height * width;
 		for (int d = 0; d < depth; d++) {
-			for (int i = 0; i < height - 1; i++) {
-				for (int j = 0; j < width - 1; j++) {
-					// right
-					if (checkAdjacent(d * height * width + i * width + j, d * height * width + i * width + j + 1)) {
-						ArrayList<Integer> temp = new ArrayList<Integer>(2);
-						lower = getLowerLabel(matrix[d * height * width + i * width + j + 1], matrix[d * height * width + i * width + j]);
-						higher = getHigherLabel(matrix[d * height * width + i * width + j + 1], matrix[d * height * width + i * width + j]);
-						temp.add(higher); temp.add(lower);
-						adjacentsPixel.add(temp);
-						addmem(higher,lower);
-					}
-
-					// down
-					if (checkAdjacent(d * height * width + i * width + j, d * height * width + (i + 1) * width + j)) {
-						ArrayList<Integer> temp = new ArrayList<Integer>(2);
-						lower = getLowerLabel(matrix[d * height * width + (i + 1) * width + j], matrix[d * height * width + i * width + j]);
-						higher = getHigherLabel(matrix[d * height * width + (i + 1) * width + j], matrix[d * height * width + i * width + j]);
-						temp.add(higher); temp.add(lower);
-						adjacentsPixel.add(temp);
-						addmem(higher,lower);
-					}
-					
-					//above
-					if ( d != depth -1 && checkAdjacent(d * height * width + i * width + j, (d + 1) * height * width + i * width + j)) {
-						ArrayList<Integer> temp = new ArrayList<Integer>(2);
-						lower = getLowerLabel(matrix[(d + 1) * height * width + i * width + j], matrix[d * height * width + i * width + j]);
-						higher = getHigherLabel(matrix[(d + 1) * height * width + i * width + j], matrix[d * height * width + i * width + j]);
-						temp.add(higher); temp.add(lower);
-						adjacentsPixel.add(temp);
-						addmem(higher,lower);	
-					}
+			for (int i = 0; i < height; i++) {
+				for (int j = 0; j < width; j++) {
+					int org = d * sliceSize + i * width + j;
+					if (j != width - 1)
+						checkAdjacent(org, org + 1, 0);			// right
+					if (i != height - 1)
+						checkAdjacent(org, org + width, 1);		// down
+					if (d != depth - 1)
+						checkAdjacent(org, org + sliceSize, 2);	// above
 				}
 			}
 		}
+		createMembraneArea();
     }
     
     /**
@@ -338,8 +328,8 @@ public class ImageEdit {
      * @return the label which has lower pixel value
      */
     private int getLowerLabel(int dom1, int dom2){
-    	int min = Math.min(hashPix.get(dom1), hashPix.get(dom2));
-    	if(min  == hashPix.get(dom1) )
+    	int min = Math.min(labelValue[dom1], labelValue[dom2]);
+    	if(min  == labelValue[dom1] )
     		return dom1;
     	else 
     		return dom2;
@@ -353,46 +343,34 @@ public class ImageEdit {
 	 * @return the label which has higher pixel value
 	 */
 	private int getHigherLabel(int dom1, int dom2){
-    	int max = Math.max(hashPix.get(dom1), hashPix.get(dom2));
-    	if(max  == hashPix.get(dom1) )
+    	int max = Math.max(labelValue[dom1], labelValue[dom2]);
+    	if(max  == labelValue[dom1] )
     		return dom1;
     	else 
     		return dom2;
     }
-
-	/**
-	 * Checks the given two labels are already registered in adjacentsPixel.
-	 *
-	 * @param dom1 the label of domain 1
-	 * @param dom2 the label of domain 2
-	 * @return true, if the pixel value of domain 1 has higher value than that of domain 2 in adjacentsPixel
-	 */
-	private boolean hasLabel(int dom1, int dom2) {
-		if(adjacentsPixel.isEmpty()) return false;
-		
-		for (ArrayList<Integer> i : adjacentsPixel) {
-			if (i.get(0) == dom1 && i.get(1) == dom2) {
-				return true;
-			}
-		}
-		return false;
-	}
     
 	/**
-	 * Check adjacent pixels have different pixel values.
-	 * If the adjacent pixel has different label with origin pixel, and the origin pixel and next pixel
-	 * are already registered in adjacentsPixel.
+	 * Check adjacent pixels have different labels.
+	 * If the adjacent pixel has different label with origin pixel, the pair of labels is
+	 * registered in adjacentsPair (a membrane is added if the pair is new), and
+	 * the shared face is counted.
 	 *
 	 * @param org the index of origin pixel in an 1D array
 	 * @param next the index of next pixel in an 1D array
-	 * @return true, if two pixel has different label and both pixels are registered in adjacentsPixel
+	 * @param axis the axis of the shared face (0: x, 1: y, 2: z)
 	 */
-	private boolean checkAdjacent(int org, int next){
-		if(matrix[org] != matrix[next] &&
-				!hasLabel(getHigherLabel(matrix[next], matrix[org]), getLowerLabel(matrix[next], matrix[org])))
-			return true;
-		 else 
-			return false;
+	private void checkAdjacent(int org, int next, int axis){
+		int orgLabel = matrix.get(org), nextLabel = matrix.get(next);
+		if (orgLabel == nextLabel)
+			return;
+		int higher = getHigherLabel(nextLabel, orgLabel);
+		int lower = getLowerLabel(nextLabel, orgLabel);
+		int numPairs = adjacentsPair.size();
+		int pair = adjacentsPair.add(higher, lower);
+		if (pair == numPairs)
+			membraneList.add(addmem(higher, lower));
+		adjacentsPair.addFace(pair, axis);
 	}
 
 	/**
@@ -400,12 +378,13 @@ public class ImageEdit {
 	 *
 	 * @param bignum the label of pixel which has higher value
 	 * @param smallnum the label of pixel which has lower value
+	 * @return the name of the membrane (name of domain type + index)
 	 */
-	private void addmem(Integer bignum, Integer smallnum){
+	private String addmem(int bignum, int smallnum){
 		String big ,small;
 
-		big = getKeyFromValue(hashSampledValue, hashPix.get(bignum));
-		small = getKeyFromValue(hashSampledValue, hashPix.get(smallnum));
+		big = valueName[labelValue[bignum]];
+		small = valueName[labelValue[smallnum]];
 		String buf = big + "_" + small + "_membrane";
 
 		ArrayList<String> adjacentDom = new ArrayList<String>();
@@ -413,61 +392,248 @@ public class ImageEdit {
 		adjacentDom.add(small + getIndexLabel(smallnum));
 		adjacentsList.add(adjacentDom);
 
+		int temp;
 		if(!hashDomainTypes.containsKey(buf)){
 			if(depth > 1) hashDomainTypes.put(buf,2);
 			else hashDomainTypes.put(buf,1);
-			hashDomainNum.put(buf,1);
+			temp = 1;
 		} else{
-			int temp = hashDomainNum.get(buf);
-			hashDomainNum.put(buf,++temp);
+			temp = hashDomainNum.get(buf) + 1;
+		}
+		hashDomainNum.put(buf,temp);
+		return buf + (temp - 1);
+	}
+	
+	/**
+	 * Creates the hashmap of contact area of each membrane from the number of shared faces.
+	 * The area of a face is the product of the size of a pixel in two axes other than the
+	 * axis of the face. For a 2D image, the contact area is the length of the boundary.
+	 */
+	private void createMembraneArea(){
+		double[] faceArea = new double[3];
+		if (depth > 1) {
+			faceArea[0] = delta.y * delta.z;
+			faceArea[1] = delta.x * delta.z;
+			faceArea[2] = delta.x * delta.y;
+		} else {
+			faceArea[0] = delta.y;
+			faceArea[1] = delta.x;
+		}
+		hashMembraneArea = new HashMap<String, Double>();
+		for (int n = 0; n < adjacentsPair.size(); n++) {
+			double area = 0;
+			for (int axis = 0; axis < 3; axis++)
+				area += adjacentsPair.getFaceCount(n, axis) * faceArea[axis];
+			hashMembraneArea.put(membraneList.get(n), area);
 		}
 	}
 
 	/**
 	 * Gets the index of given label as string.
+	 * The index is the order of the domain among the domains which have the same pixel value.
 	 *
 	 * @param label the label of the pixel
-	 * @return count.toString() the index of label
+	 * @return the index of label
 	 */
 	private String getIndexLabel(int label){
-		Integer count = 0;
-		
-		for(Entry<Integer, Integer> e : hashPix.entrySet()){
-			if(e.getKey().equals(label))
-				break;
-			if(e.getValue().equals(hashPix.get(label)))
-				count++;
-		}
-		
-		return count.toString();
+		return String.valueOf(labelIndex[label]);
 	}
 	
 	/**
-	 * Gets the key from given value.
-	 *
-	 * @param hash the hashmap
-	 * @param val the value
-	 * @return str the key which contains the given value as string
+	 * Creates the array of names of domain types (valueName) indexed by pixel value.
+	 * The hashmap of sampled value is inverted in a single pass, so that the array can be
+	 * created for all 16-bit pixel values. If several domain types have the same sampled
+	 * value, the last one in the iteration order of the hashmap is used.
 	 */
-	private String getKeyFromValue(HashMap<String, Integer> hash, Integer val){
-		String str = "";
-		
-		for(Entry<String,Integer> e :hash.entrySet()){
-			if(e.getValue().equals( val ))
-				str = e.getKey();
+	private void createValueNames(){
+		valueName = new String[voxelCount.length];
+		Arrays.fill(valueName, "");
+		for (Entry<String, Integer> e : hashSampledValue.entrySet()) {
+			int val = e.getValue();
+			if (val >= 0 && val < valueName.length)
+				valueName[val] = e.getKey();
 		}
-		
-		return str;
 	}
 	
 	/**
-	 * Creates the hashmap of domain InteriorPoint of spatial image.
+	 * Creates the hashmap of domain InteriorPoint of spatial image, and the hashmap of
+	 * maximum inscribed radius of each domain.
+	 * The InteriorPoint of a domain is its deepest voxel, which is the voxel farthest from the
+	 * boundary of the domain by the exact Euclidean distance transform (see {@link DistanceTransform}).
+	 * The boundary voxels of a domain are its voxels which are adjacent to another domain or to the
+	 * outside of the image, and the maximum inscribed radius of a domain is the distance from its
+	 * deepest voxel to the nearest boundary voxel, in the unit of the image (delta).
+	 * If several voxels of a domain have the maximum distance, the first one is used.
+	 * The distance transform of each domain is computed in its bounding box, which contains all
+	 * boundary voxels of the domain, so the distances are exact and only the bounding box of
+	 * one domain is allocated at a time.
 	 */
 	private void createDomInteriorPt(){
-		for(Entry<Integer,Point3d> e : hashLabelPt.entrySet()){
-			int pixelVal = hashPix.get(e.getKey());
-			String domName = getKeyFromValue(hashSampledValue, pixelVal) + getIndexLabel(e.getKey());
-			hashDomInteriorPt.put(domName, e.getValue());
+		int[] domainStart = new int[domainCount.length + 1];
+		for (int val = 0; val < domainCount.length; val++)
+			domainStart[val + 1] = domainStart[val] + domainCount[val];
+		int[] box = createDomBoundingBox(domainStart);
+		for (int n = 0; n < numDomains; n++) {
+			int label = domainLabels[n];
+			int b = (domainStart[labelValue[label]] + labelIndex[label]) * 6;
+			int[] deepest = new int[1];
+			double max = findDeepestVoxel(label, box[b], box[b + 1], box[b + 2],
+					box[b + 3] - box[b] + 1, box[b + 4] - box[b + 1] + 1, box[b + 5] - box[b + 2] + 1, deepest);
+			int index = deepest[0];
+			String domName = valueName[labelValue[label]] + getIndexLabel(label);
+			hashDomInteriorPt.put(domName, new Point3d(index % width, index / width % height, index / (height * width)));
+			hashDomInscribedRadius.put(domName, Math.sqrt(max));
 		}
 	}
+
+	/**
+	 * Computes the bounding box of each domain. The slices are scanned in parallel, and each
+	 * chunk of slices has a table of the bounding boxes of the domains (numDomains entries).
+	 * A domain is indexed by its pixel value and its index among the domains which have the
+	 * same pixel value (domainStart[pixel value] + labelIndex[label]).
+	 *
+	 * @param domainStart the index of the first domain of each pixel value
+	 * @return the bounding box of each domain (min x, min y, min z, max x, max y, max z)
+	 */
+	private int[] createDomBoundingBox(final int[] domainStart){
+		final int sliceSize = height * width;
+		int chunks = Math.min(depth, ParallelUtil.getParallelism());
+		final int[][] boxes = new int[chunks][];
+		ParallelUtil.forEachChunk(0, chunks, chunks, new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				for (int c = from; c < to; c++) {
+					int[] box = new int[numDomains * 6];
+					for (int b = 0; b < box.length; b += 6) {
+						box[b] = box[b + 1] = box[b + 2] = Integer.MAX_VALUE;
+						box[b + 3] = box[b + 4] = box[b + 5] = -1;
+					}
+					for (int d = c * depth / boxes.length, end = (c + 1) * depth / boxes.length; d < end; d++) {
+						for (int h = 0; h < height; h++) {
+							// each run of voxels which have the same label in a row updates the box once
+							int w = 0;
+							while (w < width) {
+								int i = d * sliceSize + h * width + w;
+								int label = matrix.get(i);
+								int runStart = w;
+								while (w + 1 < width && matrix.get(i + (w + 1 - runStart)) == label)
+									w++;
+								int b = (domainStart[labelValue[label]] + labelIndex[label]) * 6;
+								box[b] = Math.min(box[b], runStart);
+								box[b + 1] = Math.min(box[b + 1], h);
+								box[b + 2] = Math.min(box[b + 2], d);
+								box[b + 3] = Math.max(box[b + 3], w);
+								box[b + 4] = Math.max(box[b + 4], h);
+								box[b + 5] = Math.max(box[b + 5], d);
+								w++;
+							}
+						}
+					}
+					boxes[c] = box;
+				}
+			}
+		});
+		int[] box = boxes[0];
+		for (int c = 1; c < chunks; c++) {
+			for (int b = 0; b < box.length; b += 6) {
+				for (int k = 0; k < 3; k++) {
+					box[b + k] = Math.min(box[b + k], boxes[c][b + k]);
+					box[b + 3 + k] = Math.max(box[b + 3 + k], boxes[c][b + 3 + k]);
+				}
+			}
+		}
+		return box;
+	}
+
+	/**
+	 * Finds the deepest voxel of given domain by the distance transform of its bounding box.
+	 * The boundary voxels of the domain are the feature voxels, and the other voxels of the
+	 * bounding box (including the voxels of other domains) are not.
+	 *
+	 * @param label the label of the domain
+	 * @param x0 the x offset of the bounding box
+	 * @param y0 the y offset of the bounding box
+	 * @param z0 the z offset of the bounding box
+	 * @param boxWidth the width of the bounding box
+	 * @param boxHeight the height of the bounding box
+	 * @param boxDepth the depth of the bounding box
+	 * @param deepest the array which stores the index of the deepest voxel in an 1D array
+	 * @return the squared distance from the deepest voxel to the nearest boundary voxel
+	 */
+	private double findDeepestVoxel(final int label, final int x0, final int y0, final int z0,
+			final int boxWidth, final int boxHeight, int boxDepth, int[] deepest){
+		final int sliceSize = height * width;
+		double dx = delta.x > 0 ? delta.x : 1, dy = delta.y > 0 ? delta.y : 1, dz = delta.z > 0 ? delta.z : 1;
+		final float[][] distance = new float[boxDepth][boxWidth * boxHeight];
+		ParallelUtil.forEachChunk(0, boxDepth, new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				for (int d = from; d < to; d++) {
+					for (int h = 0; h < boxHeight; h++) {
+						for (int w = 0; w < boxWidth; w++) {
+							int i = (z0 + d) * sliceSize + (y0 + h) * width + x0 + w;
+							boolean feature = matrix.get(i) == label && isBoundary(i);
+							distance[d][h * boxWidth + w] = feature ? 0 : DistanceTransform.INF;
+						}
+					}
+				}
+			}
+		});
+		DistanceTransform.squaredEDT3D(distance, boxWidth, boxHeight, boxDepth, dx, dy, dz);
+
+		// the deepest voxel in each chunk of slices, merged in the order of chunks
+		int chunks = Math.min(boxDepth, ParallelUtil.getParallelism());
+		final int[] index = new int[chunks];
+		final float[] max = new float[chunks];
+		ParallelUtil.forEachChunk(0, chunks, chunks, new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				for (int c = from; c < to; c++) {
+					index[c] = -1;
+					for (int d = c * distance.length / index.length, end = (c + 1) * distance.length / index.length; d < end; d++) {
+						for (int h = 0; h < boxHeight; h++) {
+							for (int w = 0; w < boxWidth; w++) {
+								int i = (z0 + d) * sliceSize + (y0 + h) * width + x0 + w;
+								float dist = distance[d][h * boxWidth + w];
+								if (matrix.get(i) == label && (index[c] < 0 || dist > max[c])) {
+									index[c] = i;
+									max[c] = dist;
+								}
+							}
+						}
+					}
+				}
+			}
+		});
+		deepest[0] = -1;
+		float result = 0;
+		for (int c = 0; c < chunks; c++) {
+			if (index[c] >= 0 && (deepest[0] < 0 || max[c] > result)) {
+				deepest[0] = index[c];
+				result = max[c];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Checks whether given voxel is adjacent to a voxel of another domain (6-connectivity)
+	 * or to the outside of the image.
+	 *
+	 * @param i the index of the voxel in an 1D array
+	 * @return true, if the voxel is a boundary voxel of its domain
+	 */
+	private boolean isBoundary(int i){
+		int sliceSize = height * width;
+		int w = i % width, h = i / width % height, d = i / sliceSize;
+		if (w == 0 || w == width - 1 || h == 0 || h == height - 1)
+			return true;
+		if (depth > 1 && (d == 0 || d == depth - 1))
+			return true;
+		int label = matrix.get(i);
+		if (matrix.get(i - 1) != label || matrix.get(i + 1) != label
+				|| matrix.get(i - width) != label || matrix.get(i + width) != label)
+			return true;
+		return depth > 1 && (matrix.get(i - sliceSize) != label || matrix.get(i + sliceSize) != label);
+	}
 }
@@ -1,6 +1,12 @@
 package jp.ac.keio.bio.fun.xitosbml.image;
 
+import java.io.IOException;
+
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
 
 /**
  * The class ImgProcessUtil, which contains several useful static methods
@@ -12,6 +18,9 @@ import ij.ImagePlus;
  */
 public class ImgProcessUtil {
 
+	/** The maximum number of voxels which can be stored in a byte array on the heap. */
+	public static final long MAX_HEAP_VOXELS = Integer.MAX_VALUE - 8;
+
     /**
      * Converts given image object (ImagePlus) to a raw data (1D byte array).
      *
@@ -72,5 +81,249 @@ public class ImgProcessUtil {
 			
     	return label;
     }
+
+    /**
+     * Gets the number of voxels from which a volume is stored in a memory-mapped temporary file
+     * instead of the heap. The value can be given by the system property "xitosbml.mapThreshold",
+     * and is {@link #MAX_HEAP_VOXELS} by default.
+     *
+     * @return the number of voxels from which a volume is stored off-heap
+     */
+    public static long getMapThreshold(){
+    	return Math.min(Long.getLong("xitosbml.mapThreshold", MAX_HEAP_VOXELS), MAX_HEAP_VOXELS);
+    }
+    
+    /**
+     * Creates a new 8-bit voxel volume with given size (see {@link #createVoxelVolume(int, int, int, int)}).
+     *
+     * @param width the width of the volume
+     * @param height the height of the volume
+     * @param depth the depth of the volume
+     * @return the voxel volume
+     */
+    public static VoxelVolume createVoxelVolume(int width, int height, int depth){
+    	return createVoxelVolume(width, height, depth, 8);
+    }
+
+    /**
+     * Creates a new voxel volume with given size and bit depth. A volume which has less voxels
+     * than {@link #getMapThreshold()} is stored on the heap ({@link HeapVoxelVolume}, or
+     * {@link ShortVoxelVolume} for a 16-bit volume), and a larger volume is stored in
+     * a memory-mapped temporary file ({@link MappedVoxelVolume}).
+     *
+     * @param width the width of the volume
+     * @param height the height of the volume
+     * @param depth the depth of the volume
+     * @param bitDepth the bit depth of the volume (8 or 16)
+     * @return the voxel volume
+     */
+    public static VoxelVolume createVoxelVolume(int width, int height, int depth, int bitDepth){
+    	long size = (long) width * height * depth;
+    	if (size < getMapThreshold())
+    		return createHeapVolume(width, height, depth, bitDepth);
+    	try {
+			return new MappedVoxelVolume(width, height, depth, bitDepth);
+		} catch (IOException e) {
+			if (bitDepth != 16 && size > MAX_HEAP_VOXELS)
+				throw new IllegalStateException("Cannot create a volume of " + size + " voxels", e);
+			e.printStackTrace();
+			return createHeapVolume(width, height, depth, bitDepth);
+		}
+    }
+
+    /**
+     * Creates a new voxel volume on the heap with given size and bit depth.
+     *
+     * @param width the width of the volume
+     * @param height the height of the volume
+     * @param depth the depth of the volume
+     * @param bitDepth the bit depth of the volume (8 or 16)
+     * @return the voxel volume
+     */
+    private static VoxelVolume createHeapVolume(int width, int height, int depth, int bitDepth){
+    	if (bitDepth == 16)
+    		return new ShortVoxelVolume(width, height, depth);
+    	return new HeapVoxelVolume(width, height, depth);
+    }
+
+    /**
+     * Releases given voxel volume which is no longer used. The temporary file of a memory-mapped
+     * volume ({@link MappedVoxelVolume}) is deleted, and the volume under a {@link PaddedVolume}
+     * is released. A volume stored on the heap is left to the garbage collector.
+     *
+     * @param volume the voxel volume, or null
+     */
+    public static void release(VoxelVolume volume){
+    	while (volume instanceof PaddedVolume)
+    		volume = ((PaddedVolume) volume).getVolume();
+    	if (volume instanceof MappedVoxelVolume) {
+    		try {
+				((MappedVoxelVolume) volume).close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+    	}
+    }
+
+    /**
+     * Checks whether given voxel volume is backed by the other voxel volume, that is, whether
+     * it is the other volume itself or a view of it ({@link PaddedVolume}). A volume must not be
+     * released while a volume backed by it is used.
+     *
+     * @param volume the voxel volume
+     * @param base the other voxel volume
+     * @return true, if the voxel volume is backed by the other voxel volume
+     */
+    public static boolean isBackedBy(VoxelVolume volume, VoxelVolume base){
+    	while (volume instanceof PaddedVolume && volume != base)
+    		volume = ((PaddedVolume) volume).getVolume();
+    	return volume == base;
+    }
+
+    /**
+     * Creates a voxel volume which is a view of given (non-virtual) stack of 8-bit or 16-bit
+     * images. The slices of the stack are not copied, and a slice is copied when it is
+     * modified through the voxel volume (see {@link SliceVoxelVolume} and {@link ShortVoxelVolume}).
+     *
+     * @param stack the stack of images
+     * @return the voxel volume
+     */
+    public static VoxelVolume createVoxelVolume(ImageStack stack){
+    	if (stack.getPixels(1) instanceof short[])
+    		return new ShortVoxelVolume(stack);
+    	return new SliceVoxelVolume(stack);
+    }
+
+    /**
+     * Gets a copy of the pixel values of given slice of the voxel volume, as a byte array
+     * for an 8-bit volume or a short array for a 16-bit volume.
+     *
+     * @param volume the voxel volume
+     * @param z the index of the slice (0-based)
+     * @return the pixel values of the slice (byte[] or short[])
+     */
+    public static Object getSlice(VoxelVolume volume, int z){
+    	int size = volume.getWidth() * volume.getHeight();
+    	if (volume.getBitDepth() == 16) {
+    		short[] slice = new short[size];
+    		volume.getSlice(z, slice);
+    		return slice;
+    	}
+    	byte[] slice = new byte[size];
+    	volume.getSlice(z, slice);
+    	return slice;
+    }
+
+    /**
+     * Sets the pixel values of given slice of the voxel volume.
+     *
+     * @param volume the voxel volume
+     * @param z the index of the slice (0-based)
+     * @param pixels the pixel values of the slice (byte[] or short[])
+     */
+    public static void setSlice(VoxelVolume volume, int z, Object pixels){
+    	if (pixels instanceof short[])
+    		volume.setSlice(z, (short[]) pixels);
+    	else
+    		volume.setSlice(z, (byte[]) pixels);
+    }
+
+    /**
+     * Copies 16-bit pixel values to 8-bit pixel values. All values are checked before
+     * they are copied, so the destination array is not modified if a value is larger than 255.
+     *
+     * @param src the 16-bit pixel values
+     * @param srcPos the start position in the source array
+     * @param dst the 8-bit pixel values
+     * @param dstPos the start position in the destination array
+     * @param length the number of pixel values to be copied
+     * @return true, if the pixel values are copied (false if a value is larger than 255)
+     */
+    static boolean narrow(short[] src, int srcPos, byte[] dst, int dstPos, int length){
+    	for (int i = 0; i < length; i++)
+    		if ((src[srcPos + i] & 0xFFFF) > 255)
+    			return false;
+    	for (int i = 0; i < length; i++)
+    		dst[dstPos + i] = (byte) src[srcPos + i];
+    	return true;
+    }
+
+    /**
+     * Copies 8-bit pixel values to 16-bit pixel values.
+     *
+     * @param src the 8-bit pixel values
+     * @param srcPos the start position in the source array
+     * @param dst the 16-bit pixel values
+     * @param dstPos the start position in the destination array
+     * @param length the number of pixel values to be copied
+     */
+    static void widen(byte[] src, int srcPos, short[] dst, int dstPos, int length){
+    	for (int i = 0; i < length; i++)
+    		dst[dstPos + i] = (short) (src[srcPos + i] & 0xFF);
+    }
+
+    /**
+     * Creates an image processor which wraps given pixel values.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param pixels the pixel values (byte[] or short[])
+     * @return the image processor (ByteProcessor or ShortProcessor)
+     */
+    public static ImageProcessor createProcessor(int width, int height, Object pixels){
+    	if (pixels instanceof short[])
+    		return new ShortProcessor(width, height, (short[]) pixels, null);
+    	return new ByteProcessor(width, height, (byte[]) pixels, null);
+    }
+
+    /**
+     * Creates a stack of images from given voxel volume. The stack shares the slice arrays
+     * of a {@link SliceVoxelVolume} or a {@link ShortVoxelVolume} without copying, and the
+     * voxels of other volumes are copied slice by slice.
+     *
+     * @param volume the voxel volume
+     * @return the stack of images
+     */
+    public static ImageStack createStack(VoxelVolume volume){
+    	if (volume instanceof SliceVoxelVolume)
+    		return ((SliceVoxelVolume) volume).toStack();
+    	if (volume instanceof ShortVoxelVolume)
+    		return ((ShortVoxelVolume) volume).toStack();
+    	int width = volume.getWidth();
+    	int height = volume.getHeight();
+    	ImageStack stack = new ImageStack(width, height);
+    	for (int d = 0; d < volume.getDepth(); d++)
+    		stack.addSlice(createProcessor(width, height, getSlice(volume, d)));
+    	return stack;
+    }
+
+    /**
+     * Counts the number of pixels of each pixel value (0 - 255, or 0 - 65535 for a 16-bit
+     * volume) of given volume.
+     * Large volumes are split into chunks of slices, and the histogram of each chunk is
+     * computed in parallel and then added to the result.
+     *
+     * @param pixels the volume of an image
+     * @return the histogram (number of pixels indexed by pixel value)
+     */
+    public static long[] histogram(final VoxelVolume pixels){
+    	final int bins = 1 << pixels.getBitDepth();
+    	final long[] histogram = new long[bins];
+    	final long sliceSize = (long) pixels.getWidth() * pixels.getHeight();
+    	int chunks = pixels.size() >= SlabLabeler.MIN_PARALLEL_SIZE ? ParallelUtil.getParallelism() : 1;
+    	ParallelUtil.forEachChunk(0, pixels.getDepth(), chunks, new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				long[] local = new long[bins];
+				for (long i = from * sliceSize, end = to * sliceSize; i < end; i++)
+					local[pixels.get(i)]++;
+				synchronized (histogram) {
+					for (int val = 0; val < local.length; val++)
+						histogram[val] += local[val];
+				}
+			}
+		});
+    	return histogram;
+    }
     
 }
@@ -0,0 +1,114 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.util.Arrays;
+
+/**
+ * The class IntQueue, which is a growable FIFO queue of primitive int values
+ * backed by a ring buffer. It is used to store indices of pixels in the
+ * breadth-first operations (flood fill) on an image without boxing.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class IntQueue {
+
+	/** The ring buffer. Its length is always a power of two. */
+	private int[] buffer;
+
+	/** The position of the head element. */
+	private int head;
+
+	/** The number of elements. */
+	private int size;
+
+	/**
+	 * Instantiates a new empty queue.
+	 */
+	public IntQueue() {
+		this(1024);
+	}
+
+	/**
+	 * Instantiates a new empty queue with given initial capacity.
+	 *
+	 * @param capacity the initial capacity
+	 */
+	public IntQueue(int capacity) {
+		buffer = new int[Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1];
+	}
+
+	/**
+	 * Adds the given value to the tail of the queue.
+	 *
+	 * @param value the value
+	 */
+	public void add(int value) {
+		if (size == buffer.length)
+			grow();
+		buffer[(head + size) & (buffer.length - 1)] = value;
+		size++;
+	}
+
+	/**
+	 * Removes and returns the head of the queue.
+	 *
+	 * @return the head of the queue
+	 */
+	public int poll() {
+		int value = buffer[head];
+		head = (head + 1) & (buffer.length - 1);
+		size--;
+		return value;
+	}
+
+	/**
+	 * Returns the n-th element from the head of the queue without removing it.
+	 *
+	 * @param n the position from the head
+	 * @return the n-th element
+	 */
+	public int get(int n) {
+		return buffer[(head + n) & (buffer.length - 1)];
+	}
+
+	/**
+	 * Gets the number of elements.
+	 *
+	 * @return the number of elements
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the queue is empty.
+	 *
+	 * @return true, if the queue is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all elements.
+	 */
+	public void clear() {
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Doubles the capacity of the ring buffer, and moves the elements to
+	 * the beginning of the new buffer.
+	 */
+	private void grow() {
+		int[] newBuffer = Arrays.copyOf(buffer, buffer.length << 1);
+		if (head != 0) {
+			System.arraycopy(buffer, head, newBuffer, 0, buffer.length - head);
+			System.arraycopy(buffer, 0, newBuffer, buffer.length - head, head);
+		}
+		buffer = newBuffer;
+		head = 0;
+	}
+}
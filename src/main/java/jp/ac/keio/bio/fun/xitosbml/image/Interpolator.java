@@ -6,7 +6,6 @@ import java.util.Map.Entry;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.io.FileInfo;
-import ij.process.ByteProcessor;
 
 
 /**
@@ -50,12 +49,15 @@ public class Interpolator {
 	/** The interpolated image object. */
 	private ImageStack altimage;	//output pixel image
 	
-	/** The raw data of spatial image in 1D array. */
-	private byte[] pixels;
+	/** The voxels of spatial image. */
+	private VoxelVolume pixels;
 	
 	/** The file information of the spatial image. */
 	private FileInfo info;
 	
+	/** The kernel of interpolation. */
+	private Resampler.Kernel kernel = Resampler.Kernel.fromProperty();
+	
 	/**
 	 * Instantiates a new interpolator.
 	 */
@@ -71,10 +73,10 @@ public class Interpolator {
 	public Interpolator(SpatialImage spImg){
 			this.image = spImg.getImage();
 			getInfo(image);
-			this.pixels = spImg.getRaw();
+			this.pixels = spImg.getVoxels();
 			
 			if (needInterpolate()) {
-				nearestNeighbor();
+				resample();
 				image.setStack(altimage);
 				info.pixelDepth =  zaxis / altz;
 				image.setFileInfo(info);
@@ -116,10 +118,10 @@ public class Interpolator {
 		this.image = imagePlus;
 		getInfo(image);
 		ImagePlus nImg = new ImagePlus();
-		pixels = ImgProcessUtil.copyMat(imagePlus);
+		pixels = ImgProcessUtil.createVoxelVolume(imagePlus.getStack());
 		
 		if (needInterpolate()) {
-			nearestNeighbor();
+			resample();
 			nImg.setStack(altimage);
 			nImg.setFileInfo(info);
 			nImg.getFileInfo().pixelDepth =  zaxis / altz;
@@ -132,6 +134,59 @@ public class Interpolator {
 		return nImg;
 	}
 	
+	/**
+	 * Interpolate given image object into a voxel volume, and return the interpolated image
+	 * object backed by the voxel volume ({@link VolumeStack}). Unlike {@link #interpolate(ImagePlus)},
+	 * the interpolated image is not materialized as a stack of images: each slice of the
+	 * interpolated image is resampled from the source slices and written to the voxel volume,
+	 * so only a few slices per worker are held on the heap when the voxel volume is stored
+	 * in a memory-mapped temporary file.
+	 *
+	 * @param imagePlus the ImageJ image object
+	 * @return the interpolated image object backed by a voxel volume
+	 */
+	public ImagePlus interpolateVolume(ImagePlus imagePlus){
+		this.image = imagePlus;
+		getInfo(image);
+		boolean interpolate = needInterpolate();
+		if (interpolate) {
+			altz = (int) (zaxis / voxx);
+			System.out.println("interpolated stack size " + altz + " (" + kernel + ")");
+		} else {
+			altz = depth;
+		}
+		
+		VoxelVolume volume;
+		ImageStack stack = imagePlus.getStack();
+		if (interpolate && kernel == Resampler.Kernel.NEAREST && !(stack instanceof VolumeStack)) {
+			// the replicated slices share the slices of the source stack
+			volume = new Resampler(kernel).resampleSlices(ImgProcessUtil.createVoxelVolume(stack), voxz, altz, voxx);
+		} else if (interpolate) {
+			VoxelVolume src = stack instanceof VolumeStack ? ((VolumeStack) stack).getVolume()
+					: ImgProcessUtil.createVoxelVolume(stack);
+			volume = ImgProcessUtil.createVoxelVolume(width, height, altz, src.getBitDepth());
+			new Resampler(kernel).resample(src, getSpacing(), volume, getInterpolatedSpacing());
+		} else {
+			volume = ImgProcessUtil.createVoxelVolume(width, height, altz, stack.getBitDepth());
+			for (int d = 0; d < altz; d++)
+				ImgProcessUtil.setSlice(volume, d, stack.getPixels(d + 1));
+		}
+		
+		ImagePlus nImg;
+		if (interpolate) {
+			nImg = new ImagePlus();
+			nImg.setStack(new VolumeStack(volume));
+			nImg.setFileInfo(info);
+			nImg.getFileInfo().pixelDepth =  zaxis / altz;
+			nImg.updateImage();
+			System.out.println("interpolated voxel size " + voxx + " " + voxy + " " + info.pixelDepth);
+		} else {
+			nImg = (ImagePlus) imagePlus.clone();
+			nImg.setStack(new VolumeStack(volume));
+		}
+		return nImg;
+	}
+	
 	/**
 	 * Interpolate given spatial image object and return the interpolated spatial image object.
 	 *
@@ -141,11 +196,11 @@ public class Interpolator {
 	public SpatialImage interpolate(SpatialImage spImg){
 		this.image = spImg.getImage();
 		getInfo(image);
-		this.pixels = spImg.getRaw();
+		this.pixels = spImg.getVoxels();
 		System.out.println("voxel size " + voxx + " " + voxy + " " + voxz);
 		
 		if (needInterpolate()) {
-			nearestNeighbor();
+			resample();
 			image.resetStack();
 			image.setStack(altimage);
 			info.pixelDepth =  zaxis / altz;
@@ -185,7 +240,8 @@ public class Interpolator {
 	}
 
 	/**
-	 * The Nearest Neighbor algorithm, which is the core implementation of interpolation.
+	 * Resample the raw data of the spatial image along z axis, so that the voxel size of z axis
+	 * will be the same as x axis. The resampled image is stored to altimage.
 	 * There are several algorithms proposed for interpolation. For example there exist following
 	 * non adaptive interpolation algorithms:
 	 * <ol>
@@ -194,35 +250,62 @@ public class Interpolator {
 	 *     <li>Bicubic Interpolation</li>
 	 *     <li>Re-sampling process</li>
 	 * </ol>
-	 * XitoSBML adopt "Nearest Neighbor Interpolation" for interpolation.
-	 * Other algorithms will be implemented in the future.
+	 * XitoSBML adopt "Nearest Neighbor Interpolation" by default. Trilinear and shape-based
+	 * interpolation are also available (see {@link Resampler.Kernel} and {@link #setKernel(Resampler.Kernel)}).
 	 */
-	private void nearestNeighbor(){
+	private void resample(){
 		altz = (int) (zaxis / voxx);
-		System.out.println("interpolated stack size " + altz);
-		altimage = new ImageStack(width, height);
-		byte matrix[];
-		double xdis, ydis, zdis;
-		double halfx = voxx /2, halfy = voxy /2,halfz = voxx /2;
-		
-		for(int d = 0 ; d < altz ; d++){
-			matrix = new byte[width * height];
-			for(int h = 0 ; h < height ; h++){
-				for(int w = 0 ; w < width ; w++){
-					// get center
-					xdis = w * voxx + halfx;	 
-					ydis = h * voxy + halfy;
-					zdis = d * voxx + halfz;
-					
-					//apply to nearest original pixel
-					xdis = Math.floor(xdis / voxx);
-					ydis = Math.floor(ydis / voxy);
-					zdis = Math.floor(zdis / voxz);
-					matrix[h * width + w] = pixels[(int) (zdis * width * height + ydis * width + xdis)];	
-				}
-			}
-			altimage.addSlice(new ByteProcessor(width,height,matrix,null));
+		System.out.println("interpolated stack size " + altz + " (" + kernel + ")");
+		Resampler resampler = new Resampler(kernel);
+		VoxelVolume altVolume;
+		if (kernel == Resampler.Kernel.NEAREST) {
+			altVolume = resampler.resampleSlices(pixels, voxz, altz, voxx);
+		} else {
+			if (pixels.getBitDepth() == 16)
+				altVolume = new ShortVoxelVolume(width, height, altz);
+			else
+				altVolume = new SliceVoxelVolume(width, height, altz);
+			resampler.resample(pixels, getSpacing(), altVolume, getInterpolatedSpacing());
 		}
+		altimage = ImgProcessUtil.createStack(altVolume);
+	}
+	
+	/**
+	 * Gets the voxel size of the spatial image (x, y and z).
+	 *
+	 * @return the voxel size of the spatial image
+	 */
+	private double[] getSpacing(){
+		return new double[] { voxx, voxy, voxz };
+	}
+	
+	/**
+	 * Gets the voxel size of the interpolated image (x, y and z). Only z axis is resampled,
+	 * and its voxel size will be the same as x axis.
+	 *
+	 * @return the voxel size of the interpolated image
+	 */
+	private double[] getInterpolatedSpacing(){
+		return new double[] { voxx, voxy, voxx };
+	}
+	
+	/**
+	 * Gets the kernel of interpolation.
+	 *
+	 * @return the kernel of interpolation
+	 */
+	public Resampler.Kernel getKernel(){
+		return kernel;
+	}
+	
+	/**
+	 * Sets the kernel of interpolation. The default kernel is given by the system
+	 * property "xitosbml.interpolation" (see {@link Resampler.Kernel#fromProperty()}).
+	 *
+	 * @param kernel the new kernel of interpolation
+	 */
+	public void setKernel(Resampler.Kernel kernel){
+		this.kernel = kernel;
 	}
 	
 	/**
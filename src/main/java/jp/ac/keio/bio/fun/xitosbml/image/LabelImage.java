@@ -0,0 +1,216 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import ij.ImagePlus;
+import ij.io.FileInfo;
+
+/**
+ * The class LabelImage, which creates a {@link SpatialImage} from a single label image
+ * (a pre-labelled 8-bit or 16-bit z-stack image) and the mapping from pixel value to domain type.
+ * Unlike the default pipeline, which requires a binary image for each domain type and
+ * interpolates and fills each of them before they are composed by {@link CreateImage},
+ * the label image is interpolated and filled only once.
+ * Several pixel values can be mapped to the same domain type: they are merged into the
+ * smallest of them, which is the sampled value of the domain type. The pixel values which are
+ * not mapped to any domain type are cleared to 0 (the background). If the background (0) is not
+ * mapped, it is the domain type "Extracellular" as in {@link ImageExplorer}.
+ * The label image given to this class is not modified.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class LabelImage {
+
+	/** The label image. */
+	private ImagePlus image;
+
+	/** The domain type of each pixel value. */
+	private Map<Integer, String> mapping;
+
+	/** The hashmap of domain types. HashMap&lt;String, Integer&gt; */
+	private HashMap<String, Integer> hashDomainTypes = new HashMap<String, Integer>();
+
+	/** The hashmap of sampled value of spatial image. HashMap&lt;String, Integer&gt; */
+	private HashMap<String, Integer> hashSampledValue = new HashMap<String, Integer>();
+
+	/**
+	 * Instantiates a new label image with given image and mapping from pixel value to domain type.
+	 *
+	 * @param image the label image (8-bit or 16-bit grayscale)
+	 * @param mapping the domain type of each pixel value
+	 * @throws IllegalArgumentException if the image is not an 8-bit or 16-bit grayscale image,
+	 *         or a pixel value is out of range
+	 */
+	public LabelImage(ImagePlus image, Map<Integer, String> mapping) {
+		if (image.getBitDepth() != 8 && image.getBitDepth() != 16)
+			throw new IllegalArgumentException("Label image must be 8-bit or 16-bit grayscale");
+		this.image = image;
+		this.mapping = mapping;
+		createDomainTypes();
+	}
+
+	/**
+	 * Reads the mapping from pixel value to domain type from given file. Each line of the
+	 * file contains a pixel value and a domain type separated by spaces, '=' or ','
+	 * (ex. "1 Cytosol" or "2=Nucleus"). Empty lines and lines starting with '#' are ignored.
+	 *
+	 * @param path the path to the mapping file
+	 * @return the domain type of each pixel value, in the order of the file
+	 * @throws IOException if the file cannot be read or a line is not valid
+	 */
+	public static LinkedHashMap<Integer, String> readMapping(String path) throws IOException {
+		LinkedHashMap<Integer, String> mapping = new LinkedHashMap<Integer, String>();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			int lineNum = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNum++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] fields = line.split("\\s*[\\s=,]\\s*", 2);
+				try {
+					if (fields.length < 2 || fields[1].isEmpty())
+						throw new NumberFormatException();
+					mapping.put(Integer.parseInt(fields[0]), fields[1]);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid line " + lineNum + " of " + path + ": " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return mapping;
+	}
+
+	/**
+	 * Creates the hashmap of sampled value and the hashmap of domain types from the mapping.
+	 * The domain types are 3D domains (or 2D domains if the image has a single slice).
+	 */
+	private void createDomainTypes() {
+		int dimension = image.getNSlices() == 1 ? 2 : 3;
+		for (Entry<Integer, String> e : mapping.entrySet()) {
+			int val = e.getKey();
+			if (val < 0 || val > 0xFFFF)
+				throw new IllegalArgumentException("Pixel value " + val + " of " + e.getValue() + " is out of range");
+			Integer sampled = hashSampledValue.get(e.getValue());
+			if (sampled == null || val < sampled)
+				hashSampledValue.put(e.getValue(), val);
+			hashDomainTypes.put(e.getValue(), dimension);
+		}
+		if (!mapping.containsKey(0) && !hashSampledValue.containsKey("Extracellular")) {
+			hashSampledValue.put("Extracellular", 0);
+			hashDomainTypes.put("Extracellular", dimension);
+		}
+	}
+
+	/**
+	 * Creates the spatial image from the label image. Following process is performed to
+	 * the label image:
+	 * <ol>
+	 * <li>Merge the pixel values of each domain type, and clear the pixel values which are not mapped</li>
+	 * <li>Interpolate the image if it is a Z-stack image (3D image) and the voxel size
+	 * of each axis (x, y and z) is not equal</li>
+	 * <li>Fill holes (blank pixels) in the image by morphology operation if exists</li>
+	 * <li>Fix the border of the image</li>
+	 * </ol>
+	 * If the system property "xitosbml.streaming" is true (see {@link SlabPipeline#isEnabled()}),
+	 * the image is processed as a voxel volume, without materializing a stack of images.
+	 *
+	 * @return the spatial image
+	 */
+	public SpatialImage createSpatialImage() {
+		VoxelVolume volume = ImgProcessUtil.createVoxelVolume(image.getStack());
+		relabel(volume);
+		ImagePlus labelImg = new ImagePlus(image.getTitle(), ImgProcessUtil.createStack(volume));
+		labelImg.setFileInfo((FileInfo) image.getFileInfo().clone());
+		labelImg.setCalibration(image.getCalibration());
+
+		Interpolator interpolator = new Interpolator();
+		Filler fill = new Filler();
+		if (SlabPipeline.isEnabled()) {
+			SpatialImage spImg = new SpatialImage(hashSampledValue, hashDomainTypes,
+					interpolator.interpolateVolume(labelImg));
+			VoxelVolume voxels = spImg.getVoxels();
+			fill.fill(voxels, spImg.getLabelVolume());
+			ImageBorder imgBorder = new ImageBorder(voxels);
+			if (imgBorder.getVoxels() != voxels)
+				spImg.updateImage(new VolumeStack(imgBorder.getVoxels()));
+			return spImg;
+		}
+		SpatialImage spImg = new SpatialImage(hashSampledValue, hashDomainTypes, interpolator.interpolate(labelImg));
+		spImg.setImage(fill.fill(spImg));
+		ImageBorder imgBorder = new ImageBorder(spImg);
+		spImg.updateImage(imgBorder.getStackImage());
+		return spImg;
+	}
+
+	/**
+	 * Replaces the pixel values of given volume by the sampled value of their domain type
+	 * (0 if the pixel value is not mapped). Only the slices which contain a replaced pixel
+	 * value are modified, and the volume is not modified if no pixel value is replaced.
+	 *
+	 * @param volume the volume of the label image
+	 */
+	private void relabel(final VoxelVolume volume) {
+		long[] histogram = ImgProcessUtil.histogram(volume);
+		final int[] lut = new int[histogram.length];
+		boolean identity = true;
+		long unmapped = 0;
+		for (int val = 1; val < lut.length; val++) {
+			String name = mapping.get(val);
+			lut[val] = name == null ? 0 : hashSampledValue.get(name);
+			if (histogram[val] > 0 && lut[val] != val) {
+				identity = false;
+				if (name == null)
+					unmapped += histogram[val];
+			}
+		}
+		for (Entry<Integer, String> e : mapping.entrySet())
+			if (e.getKey() >= histogram.length || histogram[e.getKey()] == 0)
+				System.err.println("Pixel value " + e.getKey() + " (" + e.getValue() + ") is not found in the label image");
+		if (unmapped > 0)
+			System.err.println(unmapped + " voxels whose pixel value is not mapped are set to 0");
+		if (identity)
+			return;
+
+		final long sliceSize = (long) volume.getWidth() * volume.getHeight();
+		ParallelUtil.forEachChunk(0, volume.getDepth(), new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				for (long i = from * sliceSize, end = to * sliceSize; i < end; i++) {
+					int val = volume.get(i);
+					if (lut[val] != val)
+						volume.set(i, lut[val]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets the hashmap of domain types.
+	 *
+	 * @return the hashmap of domain types. HashMap&lt;String, Integer&gt;
+	 */
+	public HashMap<String, Integer> getHashDomainTypes() {
+		return hashDomainTypes;
+	}
+
+	/**
+	 * Gets the hashmap of sampled value of spatial image.
+	 *
+	 * @return the hashmap of sampled value of spatial image. HashMap&lt;String, Integer&gt;
+	 */
+	public HashMap<String, Integer> getHashSampledValue() {
+		return hashSampledValue;
+	}
+}
@@ -0,0 +1,170 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.util.Arrays;
+
+/**
+ * The class LabelPairMap, which is a set of pairs of labels (adjacent domains)
+ * backed by a primitive long-keyed open-addressing hash table.
+ * Each pair (higher, lower) is packed into a long key, and is given an index
+ * in the order of registration. The number of shared faces between the two
+ * domains is counted for each axis (x, y and z), which gives the contact area
+ * of the domains.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class LabelPairMap {
+
+	/** The empty slot of the hash table. Labels start from 1, so no pair is packed to 0. */
+	private static final long EMPTY = 0L;
+
+	/** The packed key of each slot of the hash table. */
+	private long[] keys;
+
+	/** The index of the pair of each slot of the hash table. */
+	private int[] slots;
+
+	/** The label which has higher pixel value of each pair. */
+	private int[] higherLabel;
+
+	/** The label which has lower pixel value of each pair. */
+	private int[] lowerLabel;
+
+	/** The number of shared faces of each pair for each axis (3 elements per pair). */
+	private int[] faceCount;
+
+	/** The number of pairs. */
+	private int size;
+
+	/**
+	 * Instantiates a new empty map of label pairs.
+	 */
+	public LabelPairMap() {
+		this(64);
+	}
+
+	/**
+	 * Instantiates a new empty map of label pairs with given initial capacity.
+	 *
+	 * @param capacity the initial number of pairs
+	 */
+	public LabelPairMap(int capacity) {
+		capacity = Math.max(capacity, 16);
+		keys = new long[Integer.highestOneBit(capacity * 2 - 1) << 1];
+		slots = new int[keys.length];
+		higherLabel = new int[capacity];
+		lowerLabel = new int[capacity];
+		faceCount = new int[capacity * 3];
+	}
+
+	/**
+	 * Returns the index of given pair of labels. The pair is registered with
+	 * a new index (the number of pairs registered before) if it does not exist.
+	 *
+	 * @param higher the label which has higher pixel value
+	 * @param lower the label which has lower pixel value
+	 * @return the index of the pair
+	 */
+	public int add(int higher, int lower) {
+		long key = ((long) higher << 32) | (lower & 0xFFFFFFFFL);
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key)
+				return slots[slot];
+			slot = (slot + 1) & mask;
+		}
+
+		if (size == higherLabel.length) {
+			higherLabel = Arrays.copyOf(higherLabel, size * 2);
+			lowerLabel = Arrays.copyOf(lowerLabel, size * 2);
+			faceCount = Arrays.copyOf(faceCount, size * 6);
+		}
+		higherLabel[size] = higher;
+		lowerLabel[size] = lower;
+		keys[slot] = key;
+		slots[slot] = size;
+		if (++size * 2 > keys.length)
+			rehash();
+		return size - 1;
+	}
+
+	/**
+	 * Increments the number of shared faces of given pair along given axis.
+	 *
+	 * @param index the index of the pair
+	 * @param axis the axis (0: x, 1: y, 2: z)
+	 */
+	public void addFace(int index, int axis) {
+		faceCount[index * 3 + axis]++;
+	}
+
+	/**
+	 * Gets the number of shared faces of given pair along given axis.
+	 *
+	 * @param index the index of the pair
+	 * @param axis the axis (0: x, 1: y, 2: z)
+	 * @return the number of shared faces
+	 */
+	public int getFaceCount(int index, int axis) {
+		return faceCount[index * 3 + axis];
+	}
+
+	/**
+	 * Gets the label which has higher pixel value of given pair.
+	 *
+	 * @param index the index of the pair
+	 * @return the label which has higher pixel value
+	 */
+	public int getHigherLabel(int index) {
+		return higherLabel[index];
+	}
+
+	/**
+	 * Gets the label which has lower pixel value of given pair.
+	 *
+	 * @param index the index of the pair
+	 * @return the label which has lower pixel value
+	 */
+	public int getLowerLabel(int index) {
+		return lowerLabel[index];
+	}
+
+	/**
+	 * Gets the number of pairs.
+	 *
+	 * @return the number of pairs
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Doubles the capacity of the hash table, and registers all pairs again.
+	 */
+	private void rehash() {
+		keys = new long[keys.length << 1];
+		slots = new int[keys.length];
+		int mask = keys.length - 1;
+		for (int i = 0; i < size; i++) {
+			long key = ((long) higherLabel[i] << 32) | (lowerLabel[i] & 0xFFFFFFFFL);
+			int slot = hash(key) & mask;
+			while (keys[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			keys[slot] = key;
+			slots[slot] = i;
+		}
+	}
+
+	/**
+	 * Returns the hash code of given packed key.
+	 *
+	 * @param key the packed key
+	 * @return the hash code
+	 */
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+}
@@ -0,0 +1,255 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The class MappedVoxelVolume, which stores the voxels of an image in a temporary file
+ * mapped to memory (off-heap). The file is mapped by chunks of 1 GiB, so the number of
+ * voxels is not limited to 2^31 - 1, and the voxels do not take the heap.
+ * A volume stores either 8-bit or 16-bit pixel values, and a 16-bit pixel value takes
+ * 2 bytes of the file (big-endian), which never span two chunks.
+ * The temporary file is created in the directory given by the system property
+ * "xitosbml.tmpdir" (default: "java.io.tmpdir"), and is deleted by {@link #close()} or
+ * when the JVM exits.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class MappedVoxelVolume implements VoxelVolume {
+
+	/** The number of bits of the size of a chunk. */
+	private static final int CHUNK_BITS = 30;
+
+	/** The mask of the index in a chunk. */
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	/** The width of the volume. */
+	private final int width;
+
+	/** The height of the volume. */
+	private final int height;
+
+	/** The depth of the volume. */
+	private final int depth;
+
+	/** The number of voxels. */
+	private final long size;
+
+	/** The bit depth of the volume (8 or 16). */
+	private final int bitDepth;
+
+	/** The number of bits to shift the index of a voxel to its position in the file (0 or 1). */
+	private final int shift;
+
+	/** The temporary file. */
+	private final File file;
+
+	/** The random access file of the temporary file. */
+	private final RandomAccessFile raf;
+
+	/** The mapped buffer of each chunk. */
+	private final MappedByteBuffer[] chunks;
+
+	/**
+	 * Instantiates a new 8-bit mapped voxel volume with given size. All pixel values are 0.
+	 *
+	 * @param width the width of the volume
+	 * @param height the height of the volume
+	 * @param depth the depth of the volume
+	 * @throws IOException if the temporary file cannot be created or mapped
+	 */
+	public MappedVoxelVolume(int width, int height, int depth) throws IOException {
+		this(width, height, depth, 8);
+	}
+
+	/**
+	 * Instantiates a new mapped voxel volume with given size and bit depth. All pixel values are 0.
+	 *
+	 * @param width the width of the volume
+	 * @param height the height of the volume
+	 * @param depth the depth of the volume
+	 * @param bitDepth the bit depth of the volume (8 or 16)
+	 * @throws IOException if the temporary file cannot be created or mapped
+	 */
+	public MappedVoxelVolume(int width, int height, int depth, int bitDepth) throws IOException {
+		if (bitDepth != 8 && bitDepth != 16)
+			throw new IllegalArgumentException("The bit depth of a volume must be 8 or 16: " + bitDepth);
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.size = (long) width * height * depth;
+		this.bitDepth = bitDepth;
+		this.shift = bitDepth == 16 ? 1 : 0;
+
+		long length = size << shift;
+		String dir = System.getProperty("xitosbml.tmpdir");
+		file = File.createTempFile("xitosbml", ".vox", dir == null ? null : new File(dir));
+		file.deleteOnExit();
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(length);
+		FileChannel channel = raf.getChannel();
+		chunks = new MappedByteBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_BITS)];
+		for (int c = 0; c < chunks.length; c++) {
+			long position = (long) c << CHUNK_BITS;
+			chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(CHUNK_MASK + 1, length - position));
+		}
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return bitDepth;
+	}
+
+	@Override
+	public int get(long index) {
+		long position = index << shift;
+		MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+		if (shift == 0)
+			return chunk.get((int) (position & CHUNK_MASK)) & 0xFF;
+		return chunk.getShort((int) (position & CHUNK_MASK)) & 0xFFFF;
+	}
+
+	@Override
+	public void set(long index, int value) {
+		long position = index << shift;
+		MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+		if (shift == 0)
+			chunk.put((int) (position & CHUNK_MASK), (byte) value);
+		else
+			chunk.putShort((int) (position & CHUNK_MASK), (short) value);
+	}
+
+	@Override
+	public void getSlice(int z, byte[] slice) {
+		if (bitDepth == 8) {
+			copyBytes(z, slice, false);
+			return;
+		}
+		short[] shorts = new short[width * height];
+		copyShorts(z, shorts, false);
+		if (!ImgProcessUtil.narrow(shorts, 0, slice, 0, shorts.length))
+			throw new IllegalStateException("The slice " + z + " has a pixel value larger than 255");
+	}
+
+	@Override
+	public void setSlice(int z, byte[] slice) {
+		if (bitDepth == 8) {
+			copyBytes(z, slice, true);
+			return;
+		}
+		short[] shorts = new short[width * height];
+		ImgProcessUtil.widen(slice, 0, shorts, 0, shorts.length);
+		copyShorts(z, shorts, true);
+	}
+
+	@Override
+	public void getSlice(int z, short[] slice) {
+		if (bitDepth == 16) {
+			copyShorts(z, slice, false);
+			return;
+		}
+		byte[] bytes = new byte[width * height];
+		copyBytes(z, bytes, false);
+		ImgProcessUtil.widen(bytes, 0, slice, 0, bytes.length);
+	}
+
+	@Override
+	public void setSlice(int z, short[] slice) {
+		if (bitDepth == 16) {
+			copyShorts(z, slice, true);
+			return;
+		}
+		byte[] bytes = new byte[width * height];
+		if (!ImgProcessUtil.narrow(slice, 0, bytes, 0, bytes.length))
+			throw new IllegalArgumentException("A pixel value larger than 255 cannot be written to an 8-bit volume");
+		copyBytes(z, bytes, true);
+	}
+
+	/**
+	 * Copies the pixel values of given slice of an 8-bit volume from or to the given array.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @param slice the array of width * height elements
+	 * @param write true to copy the array to the slice, false to copy the slice to the array
+	 */
+	private void copyBytes(int z, byte[] slice, boolean write) {
+		long position = (long) z * width * height;
+		int offset = 0;
+		while (offset < width * height) {
+			ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)].duplicate();
+			chunk.position((int) (position & CHUNK_MASK));
+			int length = Math.min(width * height - offset, chunk.remaining());
+			if (write)
+				chunk.put(slice, offset, length);
+			else
+				chunk.get(slice, offset, length);
+			offset += length;
+			position += length;
+		}
+	}
+
+	/**
+	 * Copies the pixel values of given slice of a 16-bit volume from or to the given array.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @param slice the array of width * height elements
+	 * @param write true to copy the array to the slice, false to copy the slice to the array
+	 */
+	private void copyShorts(int z, short[] slice, boolean write) {
+		long position = ((long) z * width * height) << 1;
+		int offset = 0;
+		while (offset < width * height) {
+			ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)].duplicate();
+			chunk.position((int) (position & CHUNK_MASK));
+			ShortBuffer shorts = chunk.asShortBuffer();
+			int length = Math.min(width * height - offset, shorts.remaining());
+			if (write)
+				shorts.put(slice, offset, length);
+			else
+				shorts.get(slice, offset, length);
+			offset += length;
+			position += (long) length << 1;
+		}
+	}
+
+	/**
+	 * Closes the temporary file and deletes it. The volume must not be used after this method is called.
+	 * The mapped buffers are dropped so that they can be unmapped by the garbage collector. If the file
+	 * cannot be deleted while it is still mapped (ex. on Windows), it is deleted when the JVM exits.
+	 *
+	 * @throws IOException if the temporary file cannot be closed
+	 */
+	public void close() throws IOException {
+		Arrays.fill(chunks, null);
+		raf.close();
+		file.delete();
+	}
+}
@@ -0,0 +1,335 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.util.Arrays;
+
+/**
+ * The class PaddedVolume, which is a view of a {@link VoxelVolume} padded by a halo of
+ * constant-valued voxels on each side (ex. the border layer added to the top and the bottom
+ * of a z-stack image by {@link ImageBorder}). The halo is virtual: no voxel of the given volume
+ * is copied, and the voxels of the halo are not allocated until they are written.
+ * The voxels inside the halo are read from and written to the given volume.
+ * A slice of the halo (a padded slice on the top or the bottom) is allocated when a voxel
+ * of the slice is set to a value other than the constant value. A voxel of the X-Y halo of
+ * the other slices can only be set to the constant value, and setting it to another value
+ * throws IllegalArgumentException.
+ * As the other volumes, the slices can be accessed both as byte arrays and short arrays
+ * (see {@link VoxelVolume}).
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class PaddedVolume implements VoxelVolume {
+
+	/** The padded volume. */
+	private final VoxelVolume volume;
+
+	/** The width of the halo on the left and the right. */
+	private final int padX;
+
+	/** The height of the halo on the top and the bottom of each slice. */
+	private final int padY;
+
+	/** The number of slices of the halo on the top and the bottom. */
+	private final int padZ;
+
+	/** The pixel value of the halo. */
+	private final int value;
+
+	/** The width of the volume including the halo. */
+	private final int width;
+
+	/** The height of the volume including the halo. */
+	private final int height;
+
+	/** The depth of the volume including the halo. */
+	private final int depth;
+
+	/** The number of voxels of a slice including the halo. */
+	private final int sliceSize;
+
+	/** The slices of the halo which are written (byte[] or short[]), null if not written. */
+	private final Object[] haloSlices;
+
+	/**
+	 * Instantiates a new view of given volume padded by given number of voxels on each side.
+	 *
+	 * @param volume the volume
+	 * @param padX the width of the halo on the left and the right
+	 * @param padY the height of the halo on the top and the bottom of each slice
+	 * @param padZ the number of slices of the halo on the top and the bottom
+	 * @param value the pixel value of the halo
+	 */
+	public PaddedVolume(VoxelVolume volume, int padX, int padY, int padZ, int value) {
+		this.volume = volume;
+		this.padX = padX;
+		this.padY = padY;
+		this.padZ = padZ;
+		this.value = value;
+		this.width = volume.getWidth() + 2 * padX;
+		this.height = volume.getHeight() + 2 * padY;
+		this.depth = volume.getDepth() + 2 * padZ;
+		this.sliceSize = width * height;
+		this.haloSlices = new Object[2 * padZ];
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public long size() {
+		return (long) sliceSize * depth;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return volume.getBitDepth();
+	}
+
+	@Override
+	public int get(long index) {
+		int z = (int) (index / sliceSize);
+		int i = (int) (index - (long) z * sliceSize);
+		if (isHaloSlice(z)) {
+			Object slice = haloSlices[getHaloIndex(z)];
+			if (slice == null)
+				return value;
+			return slice instanceof short[] ? ((short[]) slice)[i] & 0xFFFF : ((byte[]) slice)[i] & 0xFF;
+		}
+		if (padX == 0 && padY == 0)
+			return volume.get(index - (long) padZ * sliceSize);
+		int y = i / width - padY;
+		int x = i % width - padX;
+		if (x < 0 || y < 0 || x >= volume.getWidth() || y >= volume.getHeight())
+			return value;
+		return volume.get((long) (z - padZ) * volume.getWidth() * volume.getHeight() + (long) y * volume.getWidth() + x);
+	}
+
+	@Override
+	public void set(long index, int value) {
+		int z = (int) (index / sliceSize);
+		int i = (int) (index - (long) z * sliceSize);
+		if (isHaloSlice(z)) {
+			if (haloSlices[getHaloIndex(z)] == null && value == this.value)
+				return;
+			Object slice = getWritableHaloSlice(z);
+			if (slice instanceof short[])
+				((short[]) slice)[i] = (short) value;
+			else
+				((byte[]) slice)[i] = (byte) value;
+			return;
+		}
+		if (padX == 0 && padY == 0) {
+			volume.set(index - (long) padZ * sliceSize, value);
+			return;
+		}
+		int y = i / width - padY;
+		int x = i % width - padX;
+		if (x < 0 || y < 0 || x >= volume.getWidth() || y >= volume.getHeight()) {
+			if (value != this.value)
+				throw new IllegalArgumentException("The X-Y halo of a padded volume cannot be written");
+			return;
+		}
+		volume.set((long) (z - padZ) * volume.getWidth() * volume.getHeight() + (long) y * volume.getWidth() + x, value);
+	}
+
+	@Override
+	public void getSlice(int z, byte[] slice) {
+		if (getBitDepth() == 16) {
+			short[] shorts = new short[sliceSize];
+			getSlice(z, shorts);
+			if (!ImgProcessUtil.narrow(shorts, 0, slice, 0, sliceSize))
+				throw new IllegalStateException("The slice " + z + " has a pixel value larger than 255");
+			return;
+		}
+		if (isHaloSlice(z)) {
+			Object halo = haloSlices[getHaloIndex(z)];
+			if (halo == null)
+				Arrays.fill(slice, 0, sliceSize, (byte) value);
+			else
+				System.arraycopy(halo, 0, slice, 0, sliceSize);
+			return;
+		}
+		if (padX == 0 && padY == 0) {
+			volume.getSlice(z - padZ, slice);
+			return;
+		}
+		byte[] src = new byte[volume.getWidth() * volume.getHeight()];
+		volume.getSlice(z - padZ, src);
+		Arrays.fill(slice, 0, sliceSize, (byte) value);
+		for (int y = 0; y < volume.getHeight(); y++)
+			System.arraycopy(src, y * volume.getWidth(), slice, (y + padY) * width + padX, volume.getWidth());
+	}
+
+	@Override
+	public void setSlice(int z, byte[] slice) {
+		if (getBitDepth() == 16) {
+			short[] shorts = new short[sliceSize];
+			ImgProcessUtil.widen(slice, 0, shorts, 0, sliceSize);
+			setSlice(z, shorts);
+			return;
+		}
+		if (isHaloSlice(z)) {
+			System.arraycopy(slice, 0, getWritableHaloSlice(z), 0, sliceSize);
+			return;
+		}
+		if (padX == 0 && padY == 0) {
+			volume.setSlice(z - padZ, slice);
+			return;
+		}
+		checkHalo(slice);
+		byte[] dst = new byte[volume.getWidth() * volume.getHeight()];
+		for (int y = 0; y < volume.getHeight(); y++)
+			System.arraycopy(slice, (y + padY) * width + padX, dst, y * volume.getWidth(), volume.getWidth());
+		volume.setSlice(z - padZ, dst);
+	}
+
+	@Override
+	public void getSlice(int z, short[] slice) {
+		if (isHaloSlice(z)) {
+			Object halo = haloSlices[getHaloIndex(z)];
+			if (halo == null) {
+				Arrays.fill(slice, 0, sliceSize, (short) value);
+			} else if (halo instanceof short[]) {
+				System.arraycopy(halo, 0, slice, 0, sliceSize);
+			} else {
+				ImgProcessUtil.widen((byte[]) halo, 0, slice, 0, sliceSize);
+			}
+			return;
+		}
+		if (padX == 0 && padY == 0) {
+			volume.getSlice(z - padZ, slice);
+			return;
+		}
+		short[] src = new short[volume.getWidth() * volume.getHeight()];
+		volume.getSlice(z - padZ, src);
+		Arrays.fill(slice, 0, sliceSize, (short) value);
+		for (int y = 0; y < volume.getHeight(); y++)
+			System.arraycopy(src, y * volume.getWidth(), slice, (y + padY) * width + padX, volume.getWidth());
+	}
+
+	@Override
+	public void setSlice(int z, short[] slice) {
+		if (isHaloSlice(z)) {
+			if (getBitDepth() == 16) {
+				System.arraycopy(slice, 0, getWritableHaloSlice(z), 0, sliceSize);
+				return;
+			}
+			byte[] bytes = new byte[sliceSize];
+			if (!ImgProcessUtil.narrow(slice, 0, bytes, 0, sliceSize))
+				throw new IllegalArgumentException("A pixel value larger than 255 cannot be written to an 8-bit volume");
+			System.arraycopy(bytes, 0, getWritableHaloSlice(z), 0, sliceSize);
+			return;
+		}
+		if (padX == 0 && padY == 0) {
+			volume.setSlice(z - padZ, slice);
+			return;
+		}
+		checkHalo(slice);
+		short[] dst = new short[volume.getWidth() * volume.getHeight()];
+		for (int y = 0; y < volume.getHeight(); y++)
+			System.arraycopy(slice, (y + padY) * width + padX, dst, y * volume.getWidth(), volume.getWidth());
+		volume.setSlice(z - padZ, dst);
+	}
+
+	/**
+	 * Checks whether given slice is a slice of the halo (a padded slice on the top or the bottom).
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @return true, if the slice is a slice of the halo
+	 */
+	private boolean isHaloSlice(int z) {
+		return z < padZ || z >= depth - padZ;
+	}
+
+	/**
+	 * Gets the index of given slice of the halo in the array of written slices.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @return the index of the slice of the halo
+	 */
+	private int getHaloIndex(int z) {
+		return z < padZ ? z : z - (depth - 2 * padZ);
+	}
+
+	/**
+	 * Checks whether given pixel of a slice is in the X-Y halo.
+	 *
+	 * @param x the x offset
+	 * @param y the y offset
+	 * @return true, if the pixel is in the X-Y halo
+	 */
+	private boolean isHaloPixel(int x, int y) {
+		return x < padX || y < padY || x >= width - padX || y >= height - padY;
+	}
+
+	/**
+	 * Checks that the pixels in the X-Y halo of given slice have the pixel value of the halo.
+	 *
+	 * @param slice the pixel values of the slice
+	 * @throws IllegalArgumentException if a pixel in the X-Y halo has another pixel value
+	 */
+	private void checkHalo(byte[] slice) {
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				if ((slice[y * width + x] & 0xFF) != value && isHaloPixel(x, y))
+					throw new IllegalArgumentException("The X-Y halo of a padded volume cannot be written");
+	}
+
+	/**
+	 * Checks that the pixels in the X-Y halo of given slice have the pixel value of the halo.
+	 *
+	 * @param slice the pixel values of the slice
+	 * @throws IllegalArgumentException if a pixel in the X-Y halo has another pixel value
+	 */
+	private void checkHalo(short[] slice) {
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				if ((slice[y * width + x] & 0xFFFF) != value && isHaloPixel(x, y))
+					throw new IllegalArgumentException("The X-Y halo of a padded volume cannot be written");
+	}
+
+	/**
+	 * Returns the array of given slice of the halo which can be written. The slice is
+	 * allocated and filled with the pixel value of the halo on the first write.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @return the pixel values of the slice (byte[] or short[])
+	 */
+	private synchronized Object getWritableHaloSlice(int z) {
+		int n = getHaloIndex(z);
+		if (haloSlices[n] == null) {
+			if (getBitDepth() == 16) {
+				short[] slice = new short[sliceSize];
+				Arrays.fill(slice, (short) value);
+				haloSlices[n] = slice;
+			} else {
+				byte[] slice = new byte[sliceSize];
+				Arrays.fill(slice, (byte) value);
+				haloSlices[n] = slice;
+			}
+		}
+		return haloSlices[n];
+	}
+
+	/**
+	 * Gets the padded volume.
+	 *
+	 * @return the volume inside the halo
+	 */
+	public VoxelVolume getVolume() {
+		return volume;
+	}
+}
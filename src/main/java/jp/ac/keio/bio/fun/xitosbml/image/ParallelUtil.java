@@ -0,0 +1,111 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The class ParallelUtil, which contains several useful static methods
+ * to run image processing operations on a shared ForkJoinPool.
+ * An operation is split into contiguous ranges (ex. slices or slabs of a z-stack image),
+ * and each range is processed by a worker of the pool.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class ParallelUtil {
+
+	/** The shared ForkJoinPool. */
+	private static ForkJoinPool pool;
+
+	/**
+	 * The interface RangeAction, which processes a contiguous range of indices.
+	 */
+	public interface RangeAction {
+
+		/**
+		 * Process the range of indices [from, to).
+		 *
+		 * @param from the first index (inclusive)
+		 * @param to the last index (exclusive)
+		 */
+		void run(int from, int to);
+	}
+
+	/**
+	 * Gets the shared ForkJoinPool. The pool is created on the first call.
+	 *
+	 * @return the shared ForkJoinPool
+	 */
+	public static synchronized ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool();
+		return pool;
+	}
+
+	/**
+	 * Gets the number of workers of the shared ForkJoinPool.
+	 *
+	 * @return the number of workers
+	 */
+	public static int getParallelism() {
+		return getPool().getParallelism();
+	}
+
+	/**
+	 * Split the range of indices [from, to) into given number of contiguous chunks,
+	 * and process each chunk in parallel. This method returns when all chunks are processed.
+	 * If the range is processed by a single chunk, it is processed on the calling thread.
+	 *
+	 * @param from the first index (inclusive)
+	 * @param to the last index (exclusive)
+	 * @param chunks the number of chunks
+	 * @param action the action which processes a chunk
+	 */
+	public static void forEachChunk(int from, int to, int chunks, final RangeAction action) {
+		int length = to - from;
+		if (length <= 0)
+			return;
+		chunks = Math.max(1, Math.min(chunks, length));
+		if (chunks == 1) {
+			action.run(from, to);
+			return;
+		}
+
+		final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(chunks);
+		for (int c = 0; c < chunks; c++) {
+			final int chunkFrom = from + (int) ((long) length * c / chunks);
+			final int chunkTo = from + (int) ((long) length * (c + 1) / chunks);
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					action.run(chunkFrom, chunkTo);
+				}
+			});
+		}
+		getPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	/**
+	 * Split the range of indices [from, to) into chunks (a few chunks per worker), and
+	 * process each chunk in parallel.
+	 *
+	 * @param from the first index (inclusive)
+	 * @param to the last index (exclusive)
+	 * @param action the action which processes a chunk
+	 */
+	public static void forEachChunk(int from, int to, RangeAction action) {
+		forEachChunk(from, to, getParallelism() * 4, action);
+	}
+}
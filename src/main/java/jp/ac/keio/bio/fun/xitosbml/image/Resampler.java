@@ -0,0 +1,687 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.util.Arrays;
+
+/**
+ * The class Resampler, which resamples a z-stack image (label image or binary mask) to a new voxel size.
+ * The sampling positions are precomputed for each axis as tables of source indices and weights,
+ * and the slices of the resampled image are computed in parallel by the workers of the ForkJoinPool.
+ * Following kernels are provided (see {@link Kernel}):
+ * <ul>
+ *     <li>Nearest neighbor interpolation (default)</li>
+ *     <li>Trilinear interpolation of each label, followed by re-thresholding</li>
+ *     <li>Shape-based interpolation, which interpolates the signed distance to the boundary of each label</li>
+ *     <li>Mode pooling, which gives each voxel the most frequent label in its box (for downsampling)</li>
+ * </ul>
+ * The kernel used by {@link Interpolator} can be given by the system property "xitosbml.interpolation"
+ * ("nearest", "linear" or "shape").
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class Resampler {
+
+	/**
+	 * The kernel of resampling.
+	 */
+	public enum Kernel {
+		/** Nearest neighbor: each voxel gets the value of the source voxel which contains its center. */
+		NEAREST,
+		/**
+		 * Trilinear: each label (including the background) is interpolated as a binary mask,
+		 * and each voxel gets the label which has the largest weight. For a binary mask, this is
+		 * the same as re-thresholding the interpolated mask at 0.5.
+		 */
+		LINEAR,
+		/**
+		 * Shape-based: the signed distance to the boundary of each label is computed in each
+		 * source slice and interpolated, and each voxel gets the label which has the largest
+		 * positive distance (or the background if no label has a positive distance).
+		 * Only the labels of the taps of a voxel can have a positive distance, so the distance
+		 * of a label is computed only in its bounding box in the neighboring source slices.
+		 */
+		SHAPE,
+		/**
+		 * Mode pooling: each voxel gets the most frequent label among the source voxels whose
+		 * centers are in the voxel (the higher label wins a tie). This is used to downsample a
+		 * label image without creating labels which do not appear in the source. If a voxel
+		 * contains no source voxel center (upsampling), it is sampled as {@link #NEAREST}.
+		 */
+		MODE;
+
+		/**
+		 * Gets the kernel given by the system property "xitosbml.interpolation".
+		 * The default kernel is {@link #NEAREST}.
+		 *
+		 * @return the kernel
+		 */
+		public static Kernel fromProperty() {
+			String name = System.getProperty("xitosbml.interpolation");
+			if (name == null)
+				return NEAREST;
+			try {
+				return valueOf(name.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				System.err.println("Unknown interpolation kernel " + name + ", nearest neighbor is used");
+				return NEAREST;
+			}
+		}
+	}
+
+	/** The tolerance of the position of a voxel center on the boundary of a box (mode pooling). */
+	private static final double EPSILON = 1e-9;
+
+	/** The kernel of resampling. */
+	private final Kernel kernel;
+
+	/**
+	 * Instantiates a new resampler with given kernel.
+	 *
+	 * @param kernel the kernel of resampling
+	 */
+	public Resampler(Kernel kernel) {
+		this.kernel = kernel;
+	}
+
+	/**
+	 * Gets the kernel of resampling.
+	 *
+	 * @return the kernel of resampling
+	 */
+	public Kernel getKernel() {
+		return kernel;
+	}
+
+	/**
+	 * Resamples the source volume to the destination volume. The voxel sizes are given for
+	 * each axis (x, y and z), and the origin of both volumes is the same. The size of the
+	 * destination volume determines the number of voxels to be resampled. The slices are
+	 * sampled as 16-bit values, so that both 8-bit and 16-bit volumes can be resampled.
+	 * The destination volume must be able to store the labels of the source volume.
+	 *
+	 * @param src the source volume
+	 * @param srcSpacing the voxel size of the source volume (x, y and z)
+	 * @param dst the destination volume
+	 * @param dstSpacing the voxel size of the destination volume (x, y and z)
+	 */
+	public void resample(final VoxelVolume src, double[] srcSpacing, final VoxelVolume dst, double[] dstSpacing) {
+		final AxisTable tx = new AxisTable(src.getWidth(), srcSpacing[0], dst.getWidth(), dstSpacing[0]);
+		final AxisTable ty = new AxisTable(src.getHeight(), srcSpacing[1], dst.getHeight(), dstSpacing[1]);
+		final AxisTable tz = new AxisTable(src.getDepth(), srcSpacing[2], dst.getDepth(), dstSpacing[2]);
+
+		ParallelUtil.forEachChunk(0, dst.getDepth(), new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				SliceSampler sampler = new SliceSampler(src, dst, tx, ty, tz);
+				short[] out = new short[dst.getWidth() * dst.getHeight()];
+				for (int d = from; d < to; d++) {
+					sampler.sample(d, out);
+					dst.setSlice(d, out);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Resamples the source volume along z axis by nearest neighbor interpolation, without
+	 * copying the slices. The X-Y plane is not resampled, and each destination slice shares
+	 * the slice array of its source slice, so the slices replicated by upsampling are stored
+	 * only once. A slice is copied when it is modified through the returned volume
+	 * (see {@link SliceVoxelVolume} and {@link ShortVoxelVolume}). If the source volume is not
+	 * a {@link SliceVoxelVolume} or a {@link ShortVoxelVolume}, each source slice which is
+	 * used is read once. The destination volume has the same bit depth as the source volume.
+	 * This gives the same result as {@link #resample(VoxelVolume, double[], VoxelVolume, double[])}
+	 * with the nearest neighbor kernel.
+	 *
+	 * @param src the source volume
+	 * @param srcSpacing the voxel size of z axis of the source volume
+	 * @param dstDepth the depth of the destination volume
+	 * @param dstSpacing the voxel size of z axis of the destination volume
+	 * @return the destination volume which shares the slices of the source volume
+	 * @throws IllegalStateException if the kernel is not {@link Kernel#NEAREST}
+	 */
+	public VoxelVolume resampleSlices(VoxelVolume src, double srcSpacing, int dstDepth, double dstSpacing) {
+		if (kernel != Kernel.NEAREST)
+			throw new IllegalStateException("Slices can be shared only by nearest neighbor interpolation");
+		AxisTable tz = new AxisTable(src.getDepth(), srcSpacing, dstDepth, dstSpacing);
+		if (src.getBitDepth() == 16)
+			return resampleShortSlices(src, tz, dstDepth);
+		byte[][] srcSlices = new byte[src.getDepth()][];
+		byte[][] dstSlices = new byte[dstDepth][];
+		for (int d = 0; d < dstDepth; d++) {
+			int z = tz.index0[d];
+			if (srcSlices[z] == null) {
+				if (src instanceof SliceVoxelVolume) {
+					srcSlices[z] = ((SliceVoxelVolume) src).shareSlice(z);
+				} else {
+					srcSlices[z] = new byte[src.getWidth() * src.getHeight()];
+					src.getSlice(z, srcSlices[z]);
+				}
+			}
+			dstSlices[d] = srcSlices[z];
+		}
+		return new SliceVoxelVolume(src.getWidth(), src.getHeight(), dstSlices);
+	}
+
+	/**
+	 * Resamples the 16-bit source volume along z axis without copying the slices
+	 * (see {@link #resampleSlices(VoxelVolume, double, int, double)}).
+	 *
+	 * @param src the source volume
+	 * @param tz the table of z axis
+	 * @param dstDepth the depth of the destination volume
+	 * @return the destination volume which shares the slices of the source volume
+	 */
+	private VoxelVolume resampleShortSlices(VoxelVolume src, AxisTable tz, int dstDepth) {
+		short[][] srcSlices = new short[src.getDepth()][];
+		short[][] dstSlices = new short[dstDepth][];
+		for (int d = 0; d < dstDepth; d++) {
+			int z = tz.index0[d];
+			if (srcSlices[z] == null) {
+				if (src instanceof ShortVoxelVolume) {
+					srcSlices[z] = ((ShortVoxelVolume) src).shareSlice(z);
+				} else {
+					srcSlices[z] = new short[src.getWidth() * src.getHeight()];
+					src.getSlice(z, srcSlices[z]);
+				}
+			}
+			dstSlices[d] = srcSlices[z];
+		}
+		return new ShortVoxelVolume(src.getWidth(), src.getHeight(), dstSlices);
+	}
+
+	/**
+	 * The table of sampling positions along an axis. Each destination index has two source
+	 * indices (index0 and index1) and the weight of index1. The weight of index0 is 1 - weight1.
+	 * For mode pooling, index0 and index1 are the first and the last source index of the box.
+	 */
+	private class AxisTable {
+
+		/** The lower source index of each destination index. */
+		final int[] index0;
+
+		/** The upper source index of each destination index. */
+		final int[] index1;
+
+		/** The weight of the upper source index of each destination index. */
+		final double[] weight1;
+
+		/** The flag whether the table maps each index to itself. */
+		final boolean identity;
+
+		/**
+		 * Instantiates a new table of sampling positions. The center of each destination voxel
+		 * is mapped to the source axis.
+		 *
+		 * @param srcSize the number of source voxels
+		 * @param srcSpacing the source voxel size
+		 * @param dstSize the number of destination voxels
+		 * @param dstSpacing the destination voxel size
+		 */
+		AxisTable(int srcSize, double srcSpacing, int dstSize, double dstSpacing) {
+			index0 = new int[dstSize];
+			index1 = new int[dstSize];
+			weight1 = new double[dstSize];
+			double half = dstSpacing / 2;
+			boolean id = srcSize == dstSize;
+			for (int o = 0; o < dstSize; o++) {
+				double pos = (o * dstSpacing + half) / srcSpacing;
+				if (kernel == Kernel.NEAREST) {
+					index0[o] = index1[o] = clamp((int) Math.floor(pos), srcSize);
+				} else if (kernel == Kernel.MODE) {
+					// source voxels whose centers are in [o * dstSpacing, (o + 1) * dstSpacing).
+					// a center on the boundary belongs to the upper voxel regardless of rounding errors
+					int first = (int) Math.ceil(o * dstSpacing / srcSpacing - 0.5 - EPSILON);
+					int last = (int) Math.ceil((o + 1) * dstSpacing / srcSpacing - 0.5 - EPSILON) - 1;
+					if (last < first)
+						first = last = (int) Math.floor(pos);
+					index0[o] = clamp(first, srcSize);
+					index1[o] = clamp(last, srcSize);
+				} else {
+					pos -= 0.5;
+					int i = (int) Math.floor(pos);
+					double w = pos - i;
+					if (i < 0) {
+						i = 0;
+						w = 0;
+					} else if (i >= srcSize - 1) {
+						i = srcSize - 1;
+						w = 0;
+					}
+					index0[o] = i;
+					index1[o] = w == 0 ? i : i + 1;
+					weight1[o] = w;
+				}
+				id &= index0[o] == o && index1[o] == o;
+			}
+			identity = id;
+		}
+
+		/**
+		 * Clamps the given index to the range of the axis.
+		 *
+		 * @param i the index
+		 * @param size the number of voxels of the axis
+		 * @return the clamped index
+		 */
+		private int clamp(int i, int size) {
+			return Math.max(0, Math.min(i, size - 1));
+		}
+	}
+
+	/**
+	 * The signed distance of a label in a region of a source slice (shape-based kernel).
+	 */
+	private static class LabelDistance {
+
+		/** The x offset of the region. */
+		final int x0;
+
+		/** The y offset of the region. */
+		final int y0;
+
+		/** The width of the region. */
+		final int width;
+
+		/** The signed distance of each pixel of the region. */
+		final float[] distance;
+
+		/**
+		 * Instantiates a new signed distance of a label in given region.
+		 *
+		 * @param x0 the x offset of the region
+		 * @param y0 the y offset of the region
+		 * @param width the width of the region
+		 * @param distance the signed distance of each pixel of the region
+		 */
+		LabelDistance(int x0, int y0, int width, float[] distance) {
+			this.x0 = x0;
+			this.y0 = y0;
+			this.width = width;
+			this.distance = distance;
+		}
+
+		/**
+		 * Gets the signed distance of given pixel, which must be in the region.
+		 *
+		 * @param x the x offset of the pixel in the slice
+		 * @param y the y offset of the pixel in the slice
+		 * @return the signed distance
+		 */
+		float get(int x, int y) {
+			return distance[(y - y0) * width + (x - x0)];
+		}
+	}
+
+	/**
+	 * The sampler of destination slices, which is used by a worker. The source slices (and their
+	 * signed distances for the shape-based kernel) are cached, so that consecutive destination
+	 * slices between the same source slices do not read them again.
+	 * The signed distance of a label is computed only for the labels of the source slice, in the
+	 * bounding box of the label in the source slice and its neighboring slices (expanded by one pixel),
+	 * which contains every tap where the label can be a candidate of a destination voxel.
+	 */
+	private class SliceSampler {
+
+		/** The source volume. */
+		private final VoxelVolume src;
+
+		/** The tables of sampling positions of x, y and z axis. */
+		private final AxisTable tx, ty, tz;
+
+		/** The width of the source volume. */
+		private final int srcWidth;
+
+		/** The width of the destination volume. */
+		private final int dstWidth;
+
+		/** The height of the destination volume. */
+		private final int dstHeight;
+
+		/** The index of the cached source slice of each slot. */
+		private final int[] cachedZ = { -1, -1 };
+
+		/** The cached source slice of each slot. */
+		private final short[][] cachedSlice = new short[2][];
+
+		/**
+		 * The cached signed distance of each label of each slot, indexed by the label
+		 * (null if the label is not in the source slice).
+		 */
+		private final LabelDistance[][] cachedDistance = new LabelDistance[2][];
+
+		/** The signed distance of a label which is not in a source slice. */
+		private final float absentDistance;
+
+		/** The scratch arrays of the bounding box of each label for the shape-based kernel. */
+		private final int[] minX, minY, maxX, maxY;
+
+		/** The scratch arrays of the labels of a source slice and of a neighboring slice. */
+		private int[] sliceLabels = new int[0];
+		private short[] neighbor;
+
+		/** The source slices of the box of a destination slice for mode pooling. */
+		private short[][] box = new short[0][];
+
+		/** The scratch array of the number of source voxels of each label for mode pooling. */
+		private final int[] count;
+
+		/** The scratch arrays of the values and weights of the taps of a voxel. */
+		private final int[] tapValue = new int[8];
+		private final double[] tapWeight = new double[8];
+
+		/**
+		 * Instantiates a new slice sampler.
+		 *
+		 * @param src the source volume
+		 * @param dst the destination volume
+		 * @param tx the table of x axis
+		 * @param ty the table of y axis
+		 * @param tz the table of z axis
+		 */
+		SliceSampler(VoxelVolume src, VoxelVolume dst, AxisTable tx, AxisTable ty, AxisTable tz) {
+			this.src = src;
+			this.tx = tx;
+			this.ty = ty;
+			this.tz = tz;
+			this.srcWidth = src.getWidth();
+			this.dstWidth = dst.getWidth();
+			this.dstHeight = dst.getHeight();
+			this.count = kernel == Kernel.MODE ? new int[1 << src.getBitDepth()] : null;
+			this.absentDistance = -(float) (src.getWidth() + src.getHeight());
+			int labels = kernel == Kernel.SHAPE ? 1 << src.getBitDepth() : 0;
+			minX = new int[labels];
+			minY = new int[labels];
+			maxX = new int[labels];
+			maxY = new int[labels];
+			Arrays.fill(minX, Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Computes given destination slice.
+		 *
+		 * @param d the index of the destination slice
+		 * @param out the array which stores the destination slice
+		 */
+		void sample(int d, short[] out) {
+			if (kernel == Kernel.MODE) {
+				pool(d, out);
+				return;
+			}
+			int s0 = load(tz.index0[d], -1);
+			int s1 = tz.index1[d] == tz.index0[d] ? s0 : load(tz.index1[d], s0);
+			double wz = tz.weight1[d];
+			boolean planar = tx.identity && ty.identity;
+
+			if (kernel == Kernel.NEAREST) {
+				short[] slice = cachedSlice[s0];
+				if (planar) {
+					System.arraycopy(slice, 0, out, 0, out.length);
+					return;
+				}
+				for (int h = 0; h < dstHeight; h++)
+					for (int w = 0; w < dstWidth; w++)
+						out[h * dstWidth + w] = slice[ty.index0[h] * srcWidth + tx.index0[w]];
+				return;
+			}
+
+			for (int h = 0; h < dstHeight; h++) {
+				for (int w = 0; w < dstWidth; w++) {
+					int value = kernel == Kernel.LINEAR ? linear(s0, s1, wz, w, h) : shape(s0, s1, wz, w, h);
+					out[h * dstWidth + w] = (short) value;
+				}
+			}
+		}
+
+		/**
+		 * Computes given destination slice by mode pooling. The source slices of the box are read
+		 * for each destination slice, since the boxes of destination slices do not overlap.
+		 *
+		 * @param d the index of the destination slice
+		 * @param out the array which stores the destination slice
+		 */
+		private void pool(int d, short[] out) {
+			int z0 = tz.index0[d];
+			int nz = tz.index1[d] - z0 + 1;
+			if (box.length < nz)
+				box = new short[nz][];
+			for (int k = 0; k < nz; k++) {
+				if (box[k] == null)
+					box[k] = new short[src.getWidth() * src.getHeight()];
+				src.getSlice(z0 + k, box[k]);
+			}
+
+			for (int h = 0; h < dstHeight; h++) {
+				for (int w = 0; w < dstWidth; w++) {
+					int best = 0;
+					int bestCount = 0;
+					for (int k = 0; k < nz; k++) {
+						short[] slice = box[k];
+						for (int y = ty.index0[h]; y <= ty.index1[h]; y++) {
+							for (int x = tx.index0[w]; x <= tx.index1[w]; x++) {
+								int value = slice[y * srcWidth + x] & 0xFFFF;
+								int c = ++count[value];
+								if (c > bestCount || (c == bestCount && value > best)) {
+									best = value;
+									bestCount = c;
+								}
+							}
+						}
+					}
+					// reset the counts of the box
+					for (int k = 0; k < nz; k++)
+						for (int y = ty.index0[h]; y <= ty.index1[h]; y++)
+							for (int x = tx.index0[w]; x <= tx.index1[w]; x++)
+								count[box[k][y * srcWidth + x] & 0xFFFF] = 0;
+					out[h * dstWidth + w] = (short) best;
+				}
+			}
+		}
+
+		/**
+		 * Returns the label which has the largest interpolated weight at given destination voxel.
+		 * If two labels have the same weight, then the higher label is returned.
+		 *
+		 * @param s0 the slot of the lower source slice
+		 * @param s1 the slot of the upper source slice
+		 * @param wz the weight of the upper source slice
+		 * @param w the x offset of the destination voxel
+		 * @param h the y offset of the destination voxel
+		 * @return the label of the destination voxel
+		 */
+		private int linear(int s0, int s1, double wz, int w, int h) {
+			int count = 0;
+			for (int k = 0; k < 8; k++) {
+				double weight = getWeight(k, wz, w, h);
+				if (weight == 0)
+					continue;
+				short[] slice = cachedSlice[(k & 4) == 0 ? s0 : s1];
+				int y = (k & 2) == 0 ? ty.index0[h] : ty.index1[h];
+				int x = (k & 1) == 0 ? tx.index0[w] : tx.index1[w];
+				int value = slice[y * srcWidth + x] & 0xFFFF;
+				int n = 0;
+				while (n < count && tapValue[n] != value)
+					n++;
+				if (n == count) {
+					tapValue[count] = value;
+					tapWeight[count++] = weight;
+				} else {
+					tapWeight[n] += weight;
+				}
+			}
+			int best = 0;
+			for (int n = 1; n < count; n++)
+				if (tapWeight[n] > tapWeight[best] || (tapWeight[n] == tapWeight[best] && tapValue[n] > tapValue[best]))
+					best = n;
+			return tapValue[best];
+		}
+
+		/**
+		 * Returns the label which has the largest positive interpolated signed distance at given
+		 * destination voxel, or 0 if no label has a positive distance. If two labels have the same
+		 * distance, then the higher label is returned. A label which has a positive distance is a
+		 * label of a tap of the voxel, so only the labels of the taps are candidates.
+		 *
+		 * @param s0 the slot of the lower source slice
+		 * @param s1 the slot of the upper source slice
+		 * @param wz the weight of the upper source slice
+		 * @param w the x offset of the destination voxel
+		 * @param h the y offset of the destination voxel
+		 * @return the label of the destination voxel
+		 */
+		private int shape(int s0, int s1, double wz, int w, int h) {
+			int count = 0;
+			for (int k = 0; k < 8; k++) {
+				if (getWeight(k, wz, w, h) == 0)
+					continue;
+				short[] slice = cachedSlice[(k & 4) == 0 ? s0 : s1];
+				int y = (k & 2) == 0 ? ty.index0[h] : ty.index1[h];
+				int x = (k & 1) == 0 ? tx.index0[w] : tx.index1[w];
+				int value = slice[y * srcWidth + x] & 0xFFFF;
+				if (value == 0)
+					continue;
+				int n = 0;
+				while (n < count && tapValue[n] != value)
+					n++;
+				if (n == count)
+					tapValue[count++] = value;
+			}
+
+			int best = 0;
+			double bestDistance = 0;
+			for (int n = 0; n < count; n++) {
+				int label = tapValue[n];
+				double distance = 0;
+				for (int k = 0; k < 8; k++) {
+					double weight = getWeight(k, wz, w, h);
+					if (weight == 0)
+						continue;
+					LabelDistance dist = cachedDistance[(k & 4) == 0 ? s0 : s1][label];
+					int y = (k & 2) == 0 ? ty.index0[h] : ty.index1[h];
+					int x = (k & 1) == 0 ? tx.index0[w] : tx.index1[w];
+					distance += weight * (dist == null ? absentDistance : dist.get(x, y));
+				}
+				if (distance > 0 && (distance > bestDistance || (distance == bestDistance && label > best))) {
+					best = label;
+					bestDistance = distance;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Gets the trilinear weight of given tap of a destination voxel.
+		 *
+		 * @param k the tap (bit 0: upper x, bit 1: upper y, bit 2: upper z)
+		 * @param wz the weight of the upper source slice
+		 * @param w the x offset of the destination voxel
+		 * @param h the y offset of the destination voxel
+		 * @return the weight of the tap
+		 */
+		private double getWeight(int k, double wz, int w, int h) {
+			return ((k & 4) == 0 ? 1 - wz : wz) * ((k & 2) == 0 ? 1 - ty.weight1[h] : ty.weight1[h])
+					* ((k & 1) == 0 ? 1 - tx.weight1[w] : tx.weight1[w]);
+		}
+
+		/**
+		 * Loads given source slice to a slot of the cache, and returns the slot.
+		 *
+		 * @param z the index of the source slice
+		 * @param keep the slot which must not be replaced (-1 if none)
+		 * @return the slot which has the source slice
+		 */
+		private int load(int z, int keep) {
+			for (int s = 0; s < 2; s++)
+				if (cachedZ[s] == z)
+					return s;
+			// destination slices are sampled in ascending order, so the lower cached slice is replaced
+			int s = keep >= 0 ? 1 - keep : (cachedZ[0] <= cachedZ[1] ? 0 : 1);
+			if (cachedSlice[s] == null)
+				cachedSlice[s] = new short[src.getWidth() * src.getHeight()];
+			src.getSlice(z, cachedSlice[s]);
+			if (kernel == Kernel.SHAPE)
+				computeDistances(z, s);
+			cachedZ[s] = z;
+			return s;
+		}
+
+		/**
+		 * Computes the signed distance of each label of the source slice of given slot. The distance
+		 * of a label is computed in the bounding box of the label in the source slice and its
+		 * neighboring slices (z - 1 and z + 1), expanded by one pixel and clipped to the slice.
+		 * Every tap of a destination voxel where the label is a candidate is in this region,
+		 * and the distance in this region is the same as the distance in the whole slice
+		 * (see {@link DistanceTransform#signedDistance2D(short[], int, int, int, int, int, int, int)}).
+		 *
+		 * @param z the index of the source slice
+		 * @param s the slot of the source slice
+		 */
+		private void computeDistances(int z, int s) {
+			int width = srcWidth;
+			int height = src.getHeight();
+			short[] slice = cachedSlice[s];
+			if (cachedDistance[s] == null)
+				cachedDistance[s] = new LabelDistance[minX.length];
+			else
+				Arrays.fill(cachedDistance[s], null);
+
+			int labels = 0;
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int value = slice[y * width + x] & 0xFFFF;
+					if (value == 0)
+						continue;
+					if (minX[value] == Integer.MAX_VALUE) {
+						if (labels == sliceLabels.length)
+							sliceLabels = Arrays.copyOf(sliceLabels, Math.max(16, labels * 2));
+						sliceLabels[labels++] = value;
+						minX[value] = maxX[value] = x;
+						minY[value] = maxY[value] = y;
+					} else {
+						extend(value, x, y);
+					}
+				}
+			}
+			for (int n = z - 1; n <= z + 1; n += 2) {
+				if (n < 0 || n >= src.getDepth() || labels == 0)
+					continue;
+				if (neighbor == null)
+					neighbor = new short[width * height];
+				src.getSlice(n, neighbor);
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						int value = neighbor[y * width + x] & 0xFFFF;
+						if (value != 0 && minX[value] != Integer.MAX_VALUE)
+							extend(value, x, y);
+					}
+				}
+			}
+
+			for (int l = 0; l < labels; l++) {
+				int label = sliceLabels[l];
+				int x0 = Math.max(0, minX[label] - 1);
+				int y0 = Math.max(0, minY[label] - 1);
+				int regionWidth = Math.min(width - 1, maxX[label] + 1) - x0 + 1;
+				int regionHeight = Math.min(height - 1, maxY[label] + 1) - y0 + 1;
+				cachedDistance[s][label] = new LabelDistance(x0, y0, regionWidth, DistanceTransform.signedDistance2D(
+						slice, width, height, label, x0, y0, regionWidth, regionHeight));
+				minX[label] = Integer.MAX_VALUE;
+			}
+		}
+
+		/**
+		 * Extends the bounding box of given label to given pixel.
+		 *
+		 * @param label the label
+		 * @param x the x offset of the pixel
+		 * @param y the y offset of the pixel
+		 */
+		private void extend(int label, int x, int y) {
+			if (x < minX[label]) minX[label] = x;
+			if (x > maxX[label]) maxX[label] = x;
+			if (y < minY[label]) minY[label] = y;
+			if (y > maxY[label]) maxY[label] = y;
+		}
+	}
+}
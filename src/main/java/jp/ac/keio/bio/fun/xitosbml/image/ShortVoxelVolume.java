@@ -0,0 +1,202 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.util.Arrays;
+
+import ij.ImageStack;
+import ij.process.ShortProcessor;
+
+/**
+ * The class ShortVoxelVolume, which stores the 16-bit (unsigned) voxels of an image as
+ * an array of slices on the heap. A label image which has more than 255 labels (ex. the
+ * result of an instance segmentation) is stored in this volume.
+ * As {@link SliceVoxelVolume}, a volume can be a view of the slices of a 16-bit ImageJ stack
+ * of images, and a slice which is shared with a stack is copied on the first write
+ * (copy-on-write). The slices can also be accessed as byte arrays as long as the pixel
+ * values are not larger than 255 (see {@link VoxelVolume}).
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class ShortVoxelVolume implements VoxelVolume {
+
+	/** The width of the volume. */
+	private final int width;
+
+	/** The height of the volume. */
+	private final int height;
+
+	/** The depth of the volume. */
+	private final int depth;
+
+	/** The number of voxels of a slice. */
+	private final int sliceSize;
+
+	/** The pixel values of each slice. */
+	private final short[][] slices;
+
+	/** The flag whether each slice is owned by the volume (false if it is shared with a stack). */
+	private final boolean[] owned;
+
+	/**
+	 * Instantiates a new 16-bit volume with given size. All pixel values are 0.
+	 *
+	 * @param width the width of the volume
+	 * @param height the height of the volume
+	 * @param depth the depth of the volume
+	 */
+	public ShortVoxelVolume(int width, int height, int depth) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.sliceSize = width * height;
+		this.slices = new short[depth][sliceSize];
+		this.owned = new boolean[depth];
+		Arrays.fill(owned, true);
+	}
+
+	/**
+	 * Instantiates a new 16-bit volume which is a view of given stack of 16-bit images.
+	 * The slices of the stack are not copied until they are written.
+	 *
+	 * @param stack the stack of images
+	 */
+	public ShortVoxelVolume(ImageStack stack) {
+		this.width = stack.getWidth();
+		this.height = stack.getHeight();
+		this.depth = stack.getSize();
+		this.sliceSize = width * height;
+		this.slices = new short[depth][];
+		this.owned = new boolean[depth];
+		for (int z = 0; z < depth; z++)
+			slices[z] = (short[]) stack.getPixels(z + 1);
+	}
+
+	/**
+	 * Instantiates a new 16-bit volume which is a view of given slice arrays. The same array
+	 * can be given for several slices: no slice is owned by the volume, so each slice is
+	 * copied on its first write.
+	 *
+	 * @param width the width of the volume
+	 * @param height the height of the volume
+	 * @param slices the pixel values of each slice
+	 */
+	ShortVoxelVolume(int width, int height, short[][] slices) {
+		this.width = width;
+		this.height = height;
+		this.depth = slices.length;
+		this.sliceSize = width * height;
+		this.slices = slices;
+		this.owned = new boolean[depth];
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public long size() {
+		return (long) sliceSize * depth;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return 16;
+	}
+
+	@Override
+	public int get(long index) {
+		if (index <= Integer.MAX_VALUE) {
+			int i = (int) index;
+			int z = i / sliceSize;
+			return slices[z][i - z * sliceSize] & 0xFFFF;
+		}
+		int z = (int) (index / sliceSize);
+		return slices[z][(int) (index - (long) z * sliceSize)] & 0xFFFF;
+	}
+
+	@Override
+	public void set(long index, int value) {
+		int z = (int) (index / sliceSize);
+		writableSlice(z)[(int) (index - (long) z * sliceSize)] = (short) value;
+	}
+
+	@Override
+	public void getSlice(int z, byte[] slice) {
+		if (!ImgProcessUtil.narrow(slices[z], 0, slice, 0, sliceSize))
+			throw new IllegalStateException("The slice " + z + " has a pixel value larger than 255");
+	}
+
+	@Override
+	public void setSlice(int z, byte[] slice) {
+		short[] pixels = owned[z] ? slices[z] : new short[sliceSize];
+		ImgProcessUtil.widen(slice, 0, pixels, 0, sliceSize);
+		slices[z] = pixels;
+		owned[z] = true;
+	}
+
+	@Override
+	public void getSlice(int z, short[] slice) {
+		System.arraycopy(slices[z], 0, slice, 0, sliceSize);
+	}
+
+	@Override
+	public void setSlice(int z, short[] slice) {
+		if (owned[z]) {
+			System.arraycopy(slice, 0, slices[z], 0, sliceSize);
+		} else {
+			slices[z] = Arrays.copyOf(slice, sliceSize);
+			owned[z] = true;
+		}
+	}
+
+	/**
+	 * Returns the slice array of given slice which can be written. A slice shared with
+	 * a stack is copied before it is returned.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @return the slice array owned by the volume
+	 */
+	private short[] writableSlice(int z) {
+		if (!owned[z]) {
+			slices[z] = slices[z].clone();
+			owned[z] = true;
+		}
+		return slices[z];
+	}
+
+	/**
+	 * Returns the slice array of given slice to be shared with a stack of images.
+	 * The slice will be copied on the next write to the volume.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @return the slice array
+	 */
+	public short[] shareSlice(int z) {
+		owned[z] = false;
+		return slices[z];
+	}
+
+	/**
+	 * Creates a stack of 16-bit images which shares the slice arrays of the volume.
+	 *
+	 * @return the stack of images
+	 */
+	public ImageStack toStack() {
+		ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++)
+			stack.addSlice(new ShortProcessor(width, height, shareSlice(z), null));
+		return stack;
+	}
+}
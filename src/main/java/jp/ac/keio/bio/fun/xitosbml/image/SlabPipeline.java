@@ -0,0 +1,132 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+
+/**
+ * The class SlabPipeline, which creates a {@link SpatialImage} from domain images by streaming
+ * the slices through interpolation, filling holes, composition and border fixing.
+ * Unlike the default pipeline (interpolate, fill and composite the domain images, then fill and
+ * fix the border of the composite image), no stage materializes a stack of images on the heap:
+ * each stage reads and writes a {@link VoxelVolume}, which is stored in a memory-mapped temporary
+ * file if it is larger than {@link ImgProcessUtil#getMapThreshold()}. The domain images are
+ * processed one by one, and the slabs of the composite image are composed in parallel, so only the
+ * composite volume, one domain volume and a slice per worker are resident at once.
+ * The spatial image created by this pipeline is the same as the one created by the default pipeline.
+ * The pipeline is used when the system property "xitosbml.streaming" is true (see {@link #isEnabled()}).
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class SlabPipeline {
+
+	/** The hashmap of sampled value of spatial image. */
+	private HashMap<String, Integer> hashSampledValue;
+
+	/** The hashmap of domain types of spatial image. */
+	private HashMap<String, Integer> hashDomainTypes;
+
+	/** The label volume shared by all fill operations and the spatial image. */
+	private LabelVolume labelVolume = new LabelVolume(0);
+
+	/**
+	 * Instantiates a new slab pipeline with given hashmap of sampled value and domain types.
+	 *
+	 * @param hashSampledValue the hashmap of sampled value of spatial image
+	 * @param hashDomainTypes the hashmap of domain types of spatial image
+	 */
+	public SlabPipeline(HashMap<String, Integer> hashSampledValue, HashMap<String, Integer> hashDomainTypes) {
+		this.hashSampledValue = hashSampledValue;
+		this.hashDomainTypes = hashDomainTypes;
+	}
+
+	/**
+	 * Checks whether the streaming pipeline is enabled by the system property "xitosbml.streaming".
+	 *
+	 * @return true, if the streaming pipeline is enabled
+	 */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean("xitosbml.streaming");
+	}
+
+	/**
+	 * Creates a spatial image from given domain images. The given hashmap of domain images is not modified.
+	 *
+	 * @param hashDomFile the hashmap of domain images
+	 * @return the spatial image, whose image is backed by a voxel volume ({@link VolumeStack})
+	 */
+	public SpatialImage run(HashMap<String, ImagePlus> hashDomFile) {
+		Interpolator interpolator = new Interpolator();
+		Filler fill = new Filler();
+		VoxelVolume compo = null;
+		FileInfo info = null;
+		Calibration cal = null;
+
+		for (Entry<String, ImagePlus> e : hashDomFile.entrySet()) {
+			ImagePlus img = interpolator.interpolateVolume(e.getValue());
+			VoxelVolume dom = ((VolumeStack) img.getStack()).getVolume();
+			fill.fill(dom, labelVolume);
+			if (compo == null) {
+				compo = ImgProcessUtil.createVoxelVolume(dom.getWidth(), dom.getHeight(), dom.getDepth(),
+						CreateImage.getBitDepth(hashSampledValue));
+				info = img.getFileInfo();
+				cal = img.getCalibration();
+				System.out.println("width " + compo.getWidth() + " height " + compo.getHeight() + " depth "
+						+ compo.getDepth());
+			}
+			System.out.println("cmpImg " + e.getKey());
+			composite(compo, dom, hashSampledValue.get(e.getKey()));
+			ImgProcessUtil.release(dom);
+		}
+
+		ImagePlus compoImg = new ImagePlus("Combined_Image", new VolumeStack(compo));
+		compoImg.setFileInfo(info);
+		compoImg.setCalibration(cal);
+		SpatialImage spImg = new SpatialImage(hashSampledValue, hashDomainTypes, compoImg);
+		spImg.setLabelVolume(labelVolume);
+		fill.fill(compo, labelVolume);
+		ImageBorder imgBorder = new ImageBorder(compo);
+		if (imgBorder.getVoxels() != compo)
+			spImg.updateImage(new VolumeStack(imgBorder.getVoxels()));
+		return spImg;
+	}
+
+	/**
+	 * Composite the given domain volume to the composite volume. The slabs of slices are
+	 * composed in parallel, and each worker holds a slice of both volumes. The slices of
+	 * a 16-bit composite volume are composed as short arrays.
+	 *
+	 * @param compo the composite volume
+	 * @param dom the domain volume
+	 * @param pixVal the pixel value of the domain
+	 */
+	private void composite(final VoxelVolume compo, final VoxelVolume dom, final int pixVal) {
+		final int sliceSize = compo.getWidth() * compo.getHeight();
+		final boolean isShort = compo.getBitDepth() == 16;
+		ParallelUtil.forEachChunk(0, compo.getDepth(), new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				byte[] compoSlice = isShort ? null : new byte[sliceSize];
+				short[] shortSlice = isShort ? new short[sliceSize] : null;
+				byte[] domSlice = new byte[sliceSize];
+				for (int d = from; d < to; d++) {
+					dom.getSlice(d, domSlice);
+					if (isShort) {
+						compo.getSlice(d, shortSlice);
+						CreateImage.composite(shortSlice, domSlice, (short) pixVal);
+						compo.setSlice(d, shortSlice);
+					} else {
+						compo.getSlice(d, compoSlice);
+						CreateImage.composite(compoSlice, domSlice, (byte) pixVal);
+						compo.setSlice(d, compoSlice);
+					}
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,206 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.util.Arrays;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+/**
+ * The class SliceVoxelVolume, which stores the voxels of an image as an array of slices.
+ * A slice volume can be a view of the slices of an ImageJ stack of images: the slice arrays of
+ * the stack are used as is, without copying. A slice which is shared with a stack is copied
+ * on the first write (copy-on-write), so the stack is never modified through the volume.
+ * Conversely, {@link #toStack()} creates a stack of images which shares the slice arrays of
+ * the volume, so that the image processing stages can pass the voxels between a
+ * {@link SpatialImage} and an ImageStack without copying the whole image.
+ * Since each slice is a separate array, the number of voxels is not limited to 2^31 - 1.
+ * Reading is thread-safe, but a slice must not be written by several threads at the same time.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class SliceVoxelVolume implements VoxelVolume {
+
+	/** The width of the volume. */
+	private final int width;
+
+	/** The height of the volume. */
+	private final int height;
+
+	/** The depth of the volume. */
+	private final int depth;
+
+	/** The number of voxels of a slice. */
+	private final int sliceSize;
+
+	/** The pixel values of each slice. */
+	private final byte[][] slices;
+
+	/** The flag whether each slice is owned by the volume (false if it is shared with a stack). */
+	private final boolean[] owned;
+
+	/**
+	 * Instantiates a new slice volume with given size. All pixel values are 0.
+	 *
+	 * @param width the width of the volume
+	 * @param height the height of the volume
+	 * @param depth the depth of the volume
+	 */
+	public SliceVoxelVolume(int width, int height, int depth) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.sliceSize = width * height;
+		this.slices = new byte[depth][sliceSize];
+		this.owned = new boolean[depth];
+		Arrays.fill(owned, true);
+	}
+
+	/**
+	 * Instantiates a new slice volume which is a view of given stack of 8-bit images.
+	 * The slices of the stack are not copied until they are written.
+	 *
+	 * @param stack the stack of images
+	 */
+	public SliceVoxelVolume(ImageStack stack) {
+		this.width = stack.getWidth();
+		this.height = stack.getHeight();
+		this.depth = stack.getSize();
+		this.sliceSize = width * height;
+		this.slices = new byte[depth][];
+		this.owned = new boolean[depth];
+		for (int z = 0; z < depth; z++)
+			slices[z] = (byte[]) stack.getPixels(z + 1);
+	}
+
+	/**
+	 * Instantiates a new slice volume which is a view of given slice arrays. The same array
+	 * can be given for several slices (ex. slices replicated by nearest neighbor interpolation):
+	 * no slice is owned by the volume, so each slice is copied on its first write and the other
+	 * slices which share the array are not changed.
+	 *
+	 * @param width the width of the volume
+	 * @param height the height of the volume
+	 * @param slices the pixel values of each slice
+	 */
+	SliceVoxelVolume(int width, int height, byte[][] slices) {
+		this.width = width;
+		this.height = height;
+		this.depth = slices.length;
+		this.sliceSize = width * height;
+		this.slices = slices;
+		this.owned = new boolean[depth];
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public long size() {
+		return (long) sliceSize * depth;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return 8;
+	}
+
+	@Override
+	public int get(long index) {
+		if (index <= Integer.MAX_VALUE) {
+			// int division is much faster than long division
+			int i = (int) index;
+			int z = i / sliceSize;
+			return slices[z][i - z * sliceSize] & 0xFF;
+		}
+		int z = (int) (index / sliceSize);
+		return slices[z][(int) (index - (long) z * sliceSize)] & 0xFF;
+	}
+
+	@Override
+	public void set(long index, int value) {
+		int z = (int) (index / sliceSize);
+		writableSlice(z)[(int) (index - (long) z * sliceSize)] = (byte) value;
+	}
+
+	@Override
+	public void getSlice(int z, byte[] slice) {
+		System.arraycopy(slices[z], 0, slice, 0, sliceSize);
+	}
+
+	@Override
+	public void setSlice(int z, byte[] slice) {
+		if (owned[z]) {
+			System.arraycopy(slice, 0, slices[z], 0, sliceSize);
+		} else {
+			slices[z] = Arrays.copyOf(slice, sliceSize);
+			owned[z] = true;
+		}
+	}
+
+	@Override
+	public void getSlice(int z, short[] slice) {
+		ImgProcessUtil.widen(slices[z], 0, slice, 0, sliceSize);
+	}
+
+	@Override
+	public void setSlice(int z, short[] slice) {
+		byte[] pixels = owned[z] ? slices[z] : new byte[sliceSize];
+		if (!ImgProcessUtil.narrow(slice, 0, pixels, 0, sliceSize))
+			throw new IllegalArgumentException("A pixel value larger than 255 cannot be written to an 8-bit volume");
+		slices[z] = pixels;
+		owned[z] = true;
+	}
+
+	/**
+	 * Returns the slice array of given slice which can be written. A slice shared with
+	 * a stack is copied before it is returned.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @return the slice array owned by the volume
+	 */
+	private byte[] writableSlice(int z) {
+		if (!owned[z]) {
+			slices[z] = slices[z].clone();
+			owned[z] = true;
+		}
+		return slices[z];
+	}
+
+	/**
+	 * Returns the slice array of given slice to be shared with a stack of images.
+	 * The slice will be copied on the next write to the volume.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @return the slice array
+	 */
+	public byte[] shareSlice(int z) {
+		owned[z] = false;
+		return slices[z];
+	}
+
+	/**
+	 * Creates a stack of images which shares the slice arrays of the volume.
+	 *
+	 * @return the stack of images
+	 */
+	public ImageStack toStack() {
+		ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++)
+			stack.addSlice(new ByteProcessor(width, height, shareSlice(z), null));
+		return stack;
+	}
+}
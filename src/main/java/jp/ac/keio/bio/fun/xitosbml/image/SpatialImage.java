@@ -3,12 +3,15 @@ package jp.ac.keio.bio.fun.xitosbml.image;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map.Entry;
 
 import org.scijava.vecmath.Point3d;
 
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.io.FileInfo;
 import ij.io.FileSaver;
+import ij.measure.Calibration;
 
 /**
  * The class SpatialImage, which is a class for handling spatial image in
@@ -19,8 +22,8 @@ import ij.io.FileSaver;
  */
 public class SpatialImage {
 
-	/** The raw data of spatial image in 1D array. */
-	private byte[] raw;
+	/** The voxels of spatial image. */
+	private VoxelVolume voxels;
 
 	/** The width of an image. */
 	private int width;
@@ -49,6 +52,18 @@ public class SpatialImage {
 	/** The adjacents list of spatial image. */
 	private ArrayList<ArrayList<String>> adjacentsList;
 
+	/**
+	 * The hashmap of contact area of each membrane of spatial image.
+	 * HashMap&lt;String membrane name, Double area&gt;
+	 */
+	private HashMap<String, Double> hashMembraneArea;
+
+	/** The number of voxels of each pixel value (0 - 255, or 0 - 65535 for a 16-bit image) of spatial image. */
+	private long[] voxelCount;
+
+	/** The label volume shared by the image processing stages. */
+	private LabelVolume labelVolume;
+
 	/** The title of the image. */
 	public String title;
 
@@ -61,9 +76,24 @@ public class SpatialImage {
 	 */
 	private HashMap<String, Point3d> hashDomInteriorPt;
 
+	/**
+	 * The hashmap of maximum inscribed radius of each domain. HashMap&lt;String
+	 * domain name, Double radius&gt;
+	 */
+	private HashMap<String, Double> hashDomInscribedRadius;
+
 	/** The delta. */
 	private Point3d delta = new Point3d();
 
+	/** The resolution pyramid of spatial image. The level 0 is this spatial image. */
+	private ArrayList<SpatialImage> pyramid;
+
+	/**
+	 * The minimum number of voxels of each axis of a level of the resolution pyramid. The
+	 * border voxels are cleared by {@link ImageBorder}, so a smaller level has no domain.
+	 */
+	private static final int MIN_PYRAMID_SIZE = 3;
+
 	/**
 	 * Instantiates a new spatial image with given image object. SpatialImage object
 	 * is generated with given image, sampled value (pixel value of a SampledVolume)
@@ -118,17 +148,66 @@ public class SpatialImage {
 	}
 
 	/**
-	 * Converts image object to an 1D array (raw data). Z-stack images (3D image)
-	 * will also be converted to an 1D array.
+	 * Sets the voxel volume of the image object. The slices of the stack of images
+	 * are not copied: the voxel volume is a view of the stack ({@link SliceVoxelVolume}, or
+	 * {@link ShortVoxelVolume} for a 16-bit label image), and a slice is copied only when it is modified through the voxel volume, so the
+	 * stack of images is not changed by the image processing stages.
+	 * If the image is backed by a voxel volume ({@link VolumeStack}), the voxel
+	 * volume is used as is. The slices of a virtual stack are copied slice by slice
+	 * to a voxel volume created by {@link ImgProcessUtil#createVoxelVolume(int, int, int, int)},
+	 * which is reused if its size and bit depth are not changed.
+	 * The replaced voxel volume is released (see {@link #replaceVoxels(VoxelVolume)}).
 	 */
 	private void setRawImage() {
-		byte[] slice = null;
-		raw = new byte[width * height * depth];
+		if (img.getStack() instanceof VolumeStack) {
+			replaceVoxels(((VolumeStack) img.getStack()).getVolume());
+			return;
+		}
+		if (!img.getStack().isVirtual()) {
+			replaceVoxels(ImgProcessUtil.createVoxelVolume(img.getStack()));
+			return;
+		}
 		ImageStack stack = img.getStack();
-		for (int i = 1; i <= depth; i++) {
-			slice = (byte[]) stack.getPixels(i);
-			System.arraycopy(slice, 0, getRaw(), (i - 1) * getHeight() * getWidth(), getHeight() * getWidth());
+		int bitDepth = stack.getBitDepth();
+		if (voxels == null || voxels.getWidth() != width || voxels.getHeight() != height
+				|| voxels.getDepth() != depth || voxels.getBitDepth() != bitDepth)
+			replaceVoxels(ImgProcessUtil.createVoxelVolume(width, height, depth, bitDepth));
+		for (int i = 1; i <= depth; i++)
+			ImgProcessUtil.setSlice(voxels, i - 1, stack.getPixels(i));
+	}
+
+	/**
+	 * Replaces the voxel volume of spatial image by given voxel volume, and releases the
+	 * replaced voxel volume (see {@link ImgProcessUtil#release(VoxelVolume)}), so that the
+	 * temporary file of a memory-mapped volume is deleted as soon as it is swapped out.
+	 * The replaced voxel volume is not released if one of the volumes is a view of the other
+	 * (ex. the volume with a border layer created by {@link ImageBorder}).
+	 *
+	 * @param newVoxels the new voxel volume
+	 */
+	private void replaceVoxels(VoxelVolume newVoxels) {
+		VoxelVolume oldVoxels = voxels;
+		voxels = newVoxels;
+		if (oldVoxels != null && !ImgProcessUtil.isBackedBy(newVoxels, oldVoxels)
+				&& !ImgProcessUtil.isBackedBy(oldVoxels, newVoxels))
+			ImgProcessUtil.release(oldVoxels);
+	}
+
+	/**
+	 * Releases the voxel volume of spatial image and of each level of its resolution pyramid,
+	 * so that the temporary files of memory-mapped volumes are deleted without waiting for the
+	 * JVM to exit. This method should be called when the spatial image has been exported, and
+	 * the spatial image (and its pyramid levels) must not be used after this method is called.
+	 */
+	public void release() {
+		if (pyramid != null) {
+			for (SpatialImage level : pyramid)
+				if (level != this)
+					level.release();
+			pyramid = null;
 		}
+		ImgProcessUtil.release(voxels);
+		voxels = null;
 	}
 
 	/**
@@ -237,11 +316,25 @@ public class SpatialImage {
 	}
 
 	/**
-	 * Gets the raw data of spatial image in 1D array.
+	 * Gets the raw data of spatial image in 1D array. If the voxels are stored in
+	 * a byte array on the heap ({@link HeapVoxelVolume}), the array itself is returned.
+	 * Otherwise the voxels are copied to a new array, so changes to the array are not
+	 * reflected to spatial image.
+	 * Use {@link #getVoxels()} to access images which have more than 2^31 voxels,
+	 * or 16-bit images which have pixel values larger than 255.
 	 *
 	 * @return the raw data (1D array) of spatial image
+	 * @throws IllegalStateException if spatial image is a 16-bit image which has a pixel value larger than 255
 	 */
 	public byte[] getRaw() {
+		if (voxels instanceof HeapVoxelVolume)
+			return ((HeapVoxelVolume) voxels).getRaw();
+		byte[] raw = new byte[width * height * depth];
+		byte[] slice = new byte[width * height];
+		for (int d = 0; d < depth; d++) {
+			voxels.getSlice(d, slice);
+			System.arraycopy(slice, 0, raw, d * width * height, slice.length);
+		}
 		return raw;
 	}
 
@@ -251,7 +344,26 @@ public class SpatialImage {
 	 * @param raw the new raw data of spatial image in 1D array
 	 */
 	public void setRaw(byte[] raw) {
-		this.raw = raw;
+		replaceVoxels(new HeapVoxelVolume(raw, width, height, depth));
+	}
+
+	/**
+	 * Gets the voxel volume of spatial image.
+	 *
+	 * @return the voxel volume of spatial image
+	 */
+	public VoxelVolume getVoxels() {
+		return voxels;
+	}
+
+	/**
+	 * Sets the voxel volume of spatial image. The replaced voxel volume is released unless
+	 * one of the volumes is a view of the other (see {@link #replaceVoxels(VoxelVolume)}).
+	 *
+	 * @param voxels the new voxel volume of spatial image
+	 */
+	public void setVoxels(VoxelVolume voxels) {
+		replaceVoxels(voxels);
 	}
 
 	/**
@@ -331,6 +443,277 @@ public class SpatialImage {
 		this.adjacentsList = adjacentsList;
 	}
 
+	/**
+	 * Gets the hashmap of contact area of each membrane of spatial image. The key
+	 * is the name of a membrane (ex. "Cytosol_Extracellular_membrane0"), and the
+	 * value is the area shared by the two adjacent domains in the unit of delta
+	 * (the length of the boundary for a 2D image).
+	 *
+	 * @return the hashmap of contact area of each membrane
+	 */
+	public HashMap<String, Double> getHashMembraneArea() {
+		return hashMembraneArea;
+	}
+
+	/**
+	 * Sets the hashmap of contact area of each membrane of spatial image.
+	 *
+	 * @param hashMembraneArea the hashmap of contact area of each membrane
+	 */
+	public void setHashMembraneArea(HashMap<String, Double> hashMembraneArea) {
+		this.hashMembraneArea = hashMembraneArea;
+	}
+
+	/**
+	 * Gets the number of voxels of each pixel value (0 - 255, or 0 - 65535 for a 16-bit
+	 * image) of spatial image.
+	 *
+	 * @return the number of voxels indexed by pixel value
+	 */
+	public long[] getVoxelCount() {
+		return voxelCount;
+	}
+
+	/**
+	 * Sets the number of voxels of each pixel value (0 - 255, or 0 - 65535 for a 16-bit
+	 * image) of spatial image.
+	 *
+	 * @param voxelCount the number of voxels indexed by pixel value
+	 */
+	public void setVoxelCount(long[] voxelCount) {
+		this.voxelCount = voxelCount;
+	}
+
+	/**
+	 * Gets the volume of a voxel in the unit of delta. The volume of a voxel of
+	 * a 2D image is the area of a pixel.
+	 *
+	 * @return the volume of a voxel
+	 */
+	public double getVoxelVolume() {
+		if (depth > 1)
+			return delta.x * delta.y * delta.z;
+		else
+			return delta.x * delta.y;
+	}
+
+	/**
+	 * Gets the volume of the voxels which have given pixel value, in the unit of delta.
+	 *
+	 * @param value the pixel value
+	 * @return the volume of the voxels which have given pixel value
+	 */
+	public double getVolume(int value) {
+		if (voxelCount == null || value < 0 || value >= voxelCount.length)
+			return 0;
+		return voxelCount[value] * getVoxelVolume();
+	}
+
+	/**
+	 * Gets the label volume shared by the image processing stages (ex. {@link Filler}
+	 * and {@link ImageEdit}). The label volume is created on the first call. Each stage
+	 * resets the label volume before use, so its labels are only valid until the next stage.
+	 *
+	 * @return the label volume of spatial image
+	 * @throws IllegalArgumentException if the image has more voxels than a label volume can hold
+	 *                                  (see {@link LabelVolume#getSize(int, int, int)})
+	 */
+	public LabelVolume getLabelVolume() {
+		if (labelVolume == null)
+			labelVolume = new LabelVolume(LabelVolume.getSize(width, height, depth));
+		return labelVolume;
+	}
+
+	/**
+	 * Sets the label volume shared by the image processing stages.
+	 *
+	 * @param labelVolume the new label volume of spatial image
+	 */
+	public void setLabelVolume(LabelVolume labelVolume) {
+		this.labelVolume = labelVolume;
+	}
+
+	/**
+	 * Resamples spatial image to given voxel size by mode pooling ({@link Resampler.Kernel#MODE}),
+	 * and returns the resampled image as a new spatial image. The number of voxels of each axis
+	 * is rounded so that the extent of the image is kept, so the voxel size of the resampled
+	 * image can slightly differ from given voxel size. The z axis of a 2D image is not resampled.
+	 * The holes are filled ({@link Filler}) and the border is cleared ({@link ImageBorder}) as
+	 * in the processing of the original image, but no membrane is added: {@link ImageEdit}
+	 * should be applied to the resampled image. The hashmaps of sampled value and domain types
+	 * (without membranes) are copied, so this spatial image is not changed.
+	 * If the number of voxels is not changed, this spatial image is returned.
+	 *
+	 * @param spacing the voxel size of each axis (x, y and z) in the unit of delta
+	 * @return the resampled spatial image
+	 */
+	public SpatialImage resample(double[] spacing) {
+		int[] size = getResampledSize(spacing);
+		if (size[0] == width && size[1] == height && size[2] == depth)
+			return this;
+		double[] scale = { (double) width / size[0], (double) height / size[1], (double) depth / size[2] };
+		double[] srcSpacing = { delta.x, delta.y, delta.z };
+		double[] dstSpacing = { delta.x * scale[0], delta.y * scale[1], delta.z * scale[2] };
+		VoxelVolume resampled = ImgProcessUtil.createVoxelVolume(size[0], size[1], size[2], voxels.getBitDepth());
+		new Resampler(Resampler.Kernel.MODE).resample(voxels, srcSpacing, resampled, dstSpacing);
+
+		LabelVolume labels = new LabelVolume(LabelVolume.getSize(size[0], size[1], size[2]));
+		new Filler().fill(resampled, labels);
+		VoxelVolume bordered = new ImageBorder(resampled).getVoxels();
+
+		ImagePlus resampledImg = new ImagePlus(img.getTitle(), new VolumeStack(bordered));
+		FileInfo info = (FileInfo) img.getFileInfo().clone();
+		info.pixelWidth *= scale[0];
+		info.pixelHeight *= scale[1];
+		info.pixelDepth *= scale[2];
+		Calibration cal = img.getCalibration().copy();
+		cal.pixelWidth *= scale[0];
+		cal.pixelHeight *= scale[1];
+		cal.pixelDepth *= scale[2];
+		resampledImg.setFileInfo(info);
+		resampledImg.setCalibration(cal);
+
+		HashMap<String, Integer> domainTypes = null;
+		if (hashDomainTypes != null) {
+			domainTypes = new HashMap<String, Integer>();
+			for (Entry<String, Integer> e : hashDomainTypes.entrySet())
+				if (hashSampledValue.containsKey(e.getKey()))
+					domainTypes.put(e.getKey(), e.getValue());
+		}
+		SpatialImage spImg = new SpatialImage(new HashMap<String, Integer>(hashSampledValue), domainTypes,
+				resampledImg);
+		spImg.title = title;
+		spImg.setLabelVolume(labels);
+		return spImg;
+	}
+
+	/**
+	 * Resamples spatial image to given isotropic voxel size (see {@link #resample(double[])}).
+	 *
+	 * @param voxelSize the voxel size in the unit of delta
+	 * @return the resampled spatial image
+	 */
+	public SpatialImage resampleToVoxelSize(double voxelSize) {
+		return resample(new double[] { voxelSize, voxelSize, voxelSize });
+	}
+
+	/**
+	 * Resamples spatial image so that the number of voxels does not exceed given budget
+	 * (see {@link #resample(double[])}). All axes are scaled by the same factor, so the
+	 * ratio of the voxel size of each axis is kept. If the number of voxels of spatial image
+	 * does not exceed the budget, this spatial image is returned.
+	 *
+	 * @param budget the maximum number of voxels
+	 * @return the resampled spatial image
+	 */
+	public SpatialImage resampleToBudget(long budget) {
+		long count = (long) width * height * depth;
+		if (count <= budget)
+			return this;
+		double factor = depth > 1 ? Math.cbrt((double) count / budget) : Math.sqrt((double) count / budget);
+		double[] spacing;
+		int[] size;
+		// the number of voxels of each axis is rounded and a z-stack image can be padded by
+		// ImageBorder, so the factor is increased until it fits
+		int padding = depth > 1 ? 2 : 0;
+		do {
+			spacing = new double[] { delta.x * factor, delta.y * factor, delta.z * factor };
+			size = getResampledSize(spacing);
+			factor *= 1.01;
+		} while ((long) size[0] * size[1] * (size[2] + padding) > budget
+				&& (size[0] > 1 || size[1] > 1 || size[2] > 1));
+		return resample(spacing);
+	}
+
+	/**
+	 * Resamples spatial image to the target given by the system property "xitosbml.voxelSize"
+	 * (isotropic voxel size in the unit of delta, see {@link #resampleToVoxelSize(double)}) or
+	 * "xitosbml.voxelBudget" (maximum number of voxels, see {@link #resampleToBudget(long)}).
+	 * If no target is given, this spatial image is returned.
+	 *
+	 * @return the resampled spatial image
+	 */
+	public SpatialImage resampleToTarget() {
+		String voxelSize = System.getProperty("xitosbml.voxelSize");
+		String budget = System.getProperty("xitosbml.voxelBudget");
+		try {
+			if (voxelSize != null)
+				return resampleToVoxelSize(Double.parseDouble(voxelSize.trim()));
+			if (budget != null)
+				return resampleToBudget(Long.parseLong(budget.trim()));
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid resampling target " + (voxelSize != null ? voxelSize : budget)
+					+ ", the image is not resampled");
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the number of voxels of each axis of the image resampled to given voxel size.
+	 *
+	 * @param spacing the voxel size of each axis (x, y and z) in the unit of delta
+	 * @return the number of voxels of each axis (x, y and z)
+	 */
+	private int[] getResampledSize(double[] spacing) {
+		return new int[] { (int) Math.max(1, Math.round(width * delta.x / spacing[0])),
+				(int) Math.max(1, Math.round(height * delta.y / spacing[1])),
+				depth > 1 ? (int) Math.max(1, Math.round(depth * delta.z / spacing[2])) : 1 };
+	}
+
+	/**
+	 * Creates the resolution pyramid of spatial image. The level 0 is this spatial image, and
+	 * the voxel size of the level k is 2^k times the voxel size of this spatial image. Each level
+	 * is resampled from this spatial image by {@link #resample(double[])}, and processed by
+	 * {@link ImageEdit}, so that the geometry of each level can be exported independently.
+	 * The levels smaller than {@value #MIN_PYRAMID_SIZE} voxels in any axis are not created.
+	 * {@link ImageEdit} should be applied to this spatial image before.
+	 *
+	 * @param levels the number of levels (including the level 0)
+	 */
+	public void createPyramid(int levels) {
+		pyramid = new ArrayList<SpatialImage>();
+		pyramid.add(this);
+		for (int k = 1; k < levels; k++) {
+			double factor = Math.pow(2, k);
+			double[] spacing = { delta.x * factor, delta.y * factor, delta.z * factor };
+			int[] size = getResampledSize(spacing);
+			if (size[0] < MIN_PYRAMID_SIZE || size[1] < MIN_PYRAMID_SIZE || (depth > 1 && size[2] < MIN_PYRAMID_SIZE))
+				break;
+			SpatialImage level = resample(spacing);
+			new ImageEdit(level);
+			pyramid.add(level);
+		}
+	}
+
+	/**
+	 * Creates the resolution pyramid of spatial image with the number of levels given by the
+	 * system property "xitosbml.pyramidLevels" (1 by default, that is, no coarse level).
+	 */
+	public void createPyramid() {
+		createPyramid(Integer.getInteger("xitosbml.pyramidLevels", 1));
+	}
+
+	/**
+	 * Gets the number of levels of the resolution pyramid of spatial image.
+	 *
+	 * @return the number of levels (1 if the pyramid is not created)
+	 */
+	public int getPyramidSize() {
+		return pyramid == null ? 1 : pyramid.size();
+	}
+
+	/**
+	 * Gets given level of the resolution pyramid of spatial image.
+	 *
+	 * @param level the level (0 is this spatial image)
+	 * @return the spatial image of given level
+	 */
+	public SpatialImage getPyramidLevel(int level) {
+		if (pyramid == null)
+			createPyramid(1);
+		return pyramid.get(level);
+	}
+
 	/**
 	 * Save image as TIFF file. Both 2D and 3D TIFF images are supported.
 	 *
@@ -425,4 +808,23 @@ public class SpatialImage {
 		this.hashDomInteriorPt = hashDomInteriorPt;
 	}
 
+	/**
+	 * Gets the hashmap of maximum inscribed radius of each domain, which is the distance from
+	 * the InteriorPoint of the domain to its boundary.
+	 *
+	 * @return the hashmap of maximum inscribed radius of each domain
+	 */
+	public HashMap<String, Double> getHashDomInscribedRadius() {
+		return hashDomInscribedRadius;
+	}
+
+	/**
+	 * Sets the hashmap of maximum inscribed radius of each domain.
+	 *
+	 * @param hashDomInscribedRadius the hashmap of maximum inscribed radius of each domain
+	 */
+	public void setHashDomInscribedRadius(HashMap<String, Double> hashDomInscribedRadius) {
+		this.hashDomInscribedRadius = hashDomInscribedRadius;
+	}
+
 }
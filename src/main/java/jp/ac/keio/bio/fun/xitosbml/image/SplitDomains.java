@@ -1,13 +1,11 @@
 package jp.ac.keio.bio.fun.xitosbml.image;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import ij.ImageStack;
-import ij.process.ByteProcessor;
 
 /**
  * The class SplitDomain, which provides several image processing filters to split
@@ -28,36 +26,59 @@ public class SplitDomains {
 	/** The depth of an image. */
 	private int depth;
 	
-	/** The raw data of spatial image in 1D array. */
-	private byte[] raw;
+	/** The voxels of spatial image. */
+	private VoxelVolume raw;
 	
 	/** The stack of images which has safe border. */
 	private ImageStack altStack;
 	
 	/** The sampled value of cytosol. */
-	private byte cytVal;
+	private int cytVal;
 	
 	/** The del target. */
-	private byte delTarget;
+	private int delTarget;
 	
 	/** The hashset of target of adjacent pixels. */
 	private Set<Integer> adjacentToTargetSet = new HashSet<Integer>();
 	
 	/** The target of adjacent pixel. */
-	private byte adjacentToTarget;
+	private int adjacentToTarget;
+
+	/** The radius of the deletion. */
+	private int radius;
+
+	/** The morphology engine. */
+	private Morphology morphology;
 	
 	/**
-	 * Instantiates a new split domains with given SpatialImage.
+	 * Instantiates a new split domains with given SpatialImage. The voxels of the deletion
+	 * target which are adjacent (6-connectivity) to another domain are deleted.
 	 *
 	 * @param spImg the SpatialImage object
 	 * @param targetDomain the target domain
 	 */
 	public SplitDomains(SpatialImage spImg, String targetDomain){
+		this(spImg, targetDomain, 1, 6);
+	}
+
+	/**
+	 * Instantiates a new split domains with given SpatialImage. The voxels of the deletion
+	 * target which are within given radius (under given connectivity) from another domain are
+	 * deleted, so that touching domains are separated by a gap of given width.
+	 *
+	 * @param spImg the SpatialImage object
+	 * @param targetDomain the target domain
+	 * @param radius the radius of the deletion
+	 * @param connectivity the connectivity (6, 18 or 26, see {@link Morphology})
+	 */
+	public SplitDomains(SpatialImage spImg, String targetDomain, int radius, int connectivity){
 		this.width = spImg.getWidth();
 		this.height = spImg.getHeight();
 		this.depth = spImg.getDepth();
-		this.raw = spImg.getRaw();
-		
+		this.raw = spImg.getVoxels();
+		this.radius = radius;
+		this.morphology = new Morphology(connectivity);
+
 		createDomainToCheck(spImg.getHashSampledValue(), targetDomain);
 		checkDomain();
 		createNewStack();
@@ -70,11 +91,11 @@ public class SplitDomains {
 	 * @param targetDomain the target domain
 	 */
 	private void createDomainToCheck(HashMap<String, Integer> hashSampledValue, String targetDomain){
-		cytVal =  hashSampledValue.get("Cytosol").byteValue();
+		cytVal =  hashSampledValue.get("Cytosol");
 		String[] memName = targetDomain.split("_");
 		
-		delTarget = hashSampledValue.get(getSmallerDom(memName, hashSampledValue)).byteValue();
-		adjacentToTarget = hashSampledValue.get(getBiggerDom(memName, hashSampledValue)).byteValue();
+		delTarget = hashSampledValue.get(getSmallerDom(memName, hashSampledValue));
+		adjacentToTarget = hashSampledValue.get(getBiggerDom(memName, hashSampledValue));
 	}
 	
 	/**
@@ -114,90 +135,69 @@ public class SplitDomains {
 	}
 	
 	/**
-	 * Check domain. If a pixel contain a value of deletion target, then delete the pixel (set to the value of
-	 * cytosol) and add adjacent pixels to the list of target.
+	 * Check domain. If a voxel of deletion target is within the radius from another domain
+	 * (which is neither the deletion target nor the cytosol), then delete the voxel (set to the
+	 * value of cytosol). The pixel values of the voxels of other domains within the radius from
+	 * the deletion target are added to the set of target.
 	 */
 	private void checkDomain(){
-		for (int d = 0; d < depth; d++) {
-			for (int h = 0; h < height; h++) {
-				for (int w = 0; w < width; w++) {
-					if(	delTarget == (raw[d * height * width + h * width + w])){
-						checkAdjacents(w,h,d, delTarget);
+		final int max = raw.getBitDepth() == 16 ? 0xFFFF : 0xFF;
+		boolean[] isTarget = new boolean[max + 1];
+		boolean[] isOther = new boolean[max + 1];
+		Arrays.fill(isOther, true);
+		isTarget[delTarget] = true;
+		isOther[delTarget] = false;
+		isOther[cytVal] = false;
+		BitMask target = new BitMask(raw, isTarget);
+		final BitMask other = new BitMask(raw, isOther);
+
+		final BitMask peel = morphology.dilate(other, radius);
+		peel.and(target);
+		final BitMask adjacent = morphology.dilate(target, radius);
+		adjacent.and(other);
+
+		final boolean[][] found = new boolean[depth][];
+		ParallelUtil.forEachChunk(0, depth, new ParallelUtil.RangeAction() {
+			@Override
+			public void run(int from, int to) {
+				for (int d = from; d < to; d++) {
+					boolean hasPeel = !peel.isEmpty(d);
+					boolean hasAdjacent = !adjacent.isEmpty(d);
+					if (!hasPeel && !hasAdjacent)
+						continue;
+					long offset = (long) d * height * width;
+					boolean[] values = null;
+					for (int h = 0; h < height; h++) {
+						for (int w = 0; w < width; w++) {
+							long i = offset + h * width + w;
+							if (hasPeel && peel.get(w, h, d)) {
+								raw.set(i, cytVal);
+							} else if (hasAdjacent && adjacent.get(w, h, d)) {
+								if (values == null)
+									values = new boolean[max + 1];
+								values[raw.get(i)] = true;
+							}
+						}
 					}
+					found[d] = values;
 				}
 			}
+		});
+		for (boolean[] values : found) {
+			if (values == null)
+				continue;
+			for (int val = 0; val < values.length; val++)
+				if (values[val])
+					adjacentToTargetSet.add(val);
 		}
 	}
-	
-	/**
-	 * Check adjacent pixel is not a cytosol and has different pixel value with the given pixel value (deletion target).
-	 * If the adjacent pixel has different value, then add the adjacent pixel value to the list of
-	 * target, and update the pixel value of deletion target to the pixel value of cytosol (which means, the pixel will
-	 * be deleted by this process).
-	 *
-	 * @param w the x offset
-	 * @param h the y offset
-	 * @param d the z offset
-	 * @param pixVal the pixel value
-	 */
-	private void checkAdjacents(int w, int h, int d, byte pixVal) {
-		List<Byte> adjVal = new ArrayList<Byte>();
 
-		// check left
-		if (w != 0 && raw[d * height * width + h * width + w - 1] != cytVal && raw[d * height * width + h * width + w - 1] != pixVal)
-			adjVal.add(raw[d * height * width + h * width + w - 1]);
-
-		// check right
-		if (w != width - 1 && raw[d * height * width + h * width + w + 1] != cytVal && raw[d * height * width + h * width + w + 1] != pixVal)
-			adjVal.add(raw[d * height * width + h * width + w + 1]);
-
-		// check up
-		if (h != 0 && raw[d * height * width + (h - 1) * width + w] != cytVal && raw[d * height * width + (h - 1) * width + w] != pixVal)
-			adjVal.add(raw[d * height * width + (h - 1) * width + w]);
-
-		// check down
-		if (h != height - 1 && raw[d * height * width + (h + 1) * width + w] != cytVal && raw[d * height * width + (h + 1) * width + w] != pixVal)
-			adjVal.add(raw[d * height * width + (h + 1) * width + w]);
-
-		// check below
-		if (d != 0 && raw[(d - 1) * height * width + h * width + w] != cytVal && raw[(d - 1) * height * width + h * width + w] != pixVal)
-			adjVal.add(raw[(d - 1) * height * width + h * width + w]);
-
-		// check above
-		if (d < depth - 1 && raw[(d + 1) * height * width + h * width + w] != cytVal && raw[(d + 1) * height * width + h * width + w] != pixVal)
-			adjVal.add(raw[(d + 1) * height * width + h * width + w]);
-
-		
-		if (adjVal.isEmpty())
-			return;
-		
-		else{
-			listToSet(adjVal);
-			raw[d * height * width + h * width + w] = cytVal;
-		}
-	}
-	
-	/**
-     * Add adjacent pixels to target set.
-	 *
-	 * @param adjVal the list of adjacent pixel values
-	 */
-	private void listToSet(List<Byte> adjVal){
-		for(Byte b : adjVal)
-			adjacentToTargetSet.add(b & 0xFF);	
-	}
-	
 	/**
-	 * Creates the new stack of split images.
+	 * Creates the new stack of split images. The slices which are not changed are
+	 * shared with the stack of the spatial image (see {@link SliceVoxelVolume}).
 	 */
 	private void createNewStack(){
-		altStack = new ImageStack(width, height);
-		
-		for(int i = 1 ; i <= depth ; i++){
-			byte[] slice = new byte[height * width];
-			System.arraycopy(raw, (i-1) * height * width, slice, 0, height * width);
-			altStack.addSlice(new ByteProcessor(width,height,slice,null));
-    	} 
+		altStack = ImgProcessUtil.createStack(raw);
 	}
 	
 	/**
@@ -0,0 +1,451 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.io.ImageReader;
+import ij.io.TiffDecoder;
+import ij.measure.Calibration;
+
+/**
+ * The class TiffLoader, which loads an 8-bit or 16-bit grayscale TIFF stack, or a folder of
+ * TIFF images (image sequence), without decoding the slices one at a time as ImageJ's
+ * Opener and FolderOpener do.
+ * The file information of each slice is read by ImageJ's {@link TiffDecoder} first, and then
+ * the slices are decoded in parallel by the workers of {@link ParallelUtil}, each slice by
+ * ImageJ's {@link ImageReader} (which decompresses the strips). If the slices of a TIFF stack
+ * are uncompressed and their strips are contiguous, the pixel values are copied directly from
+ * the file mapped to memory instead.
+ * The slices are decoded into a stack of images, or into a {@link VoxelVolume} (wrapped by
+ * {@link VolumeStack}) if the streaming pipeline is enabled (see {@link SlabPipeline#isEnabled()})
+ * or the image is larger than {@link ImgProcessUtil#getMapThreshold()}.
+ * The TIFF files which cannot be loaded by this class (ex. color, signed or floating point
+ * images and hyperstacks) are left to ImageJ: {@link #open(String)} returns null for them.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class TiffLoader {
+
+	/** The number of bits of the size of a mapped chunk of a file. */
+	private static final int CHUNK_BITS = 30;
+
+	/** The mask of the position in a mapped chunk. */
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	/** The file information of each slice of the image. */
+	private List<FileInfo> slices = new ArrayList<FileInfo>();
+
+	/** The label of each slice of the image (the name of the file of an image sequence), or null. */
+	private List<String> labels = new ArrayList<String>();
+
+	/** The file information of the image. */
+	private FileInfo info;
+
+	/** The chunks of the TIFF file mapped to memory, or null if the slices are read by ImageReader. */
+	private MappedByteBuffer[] mapped;
+
+	/** The first error occurred while the slices are decoded. */
+	private volatile IOException error;
+
+	/**
+	 * Instantiates a new TIFF loader.
+	 */
+	private TiffLoader() {
+
+	}
+
+	/**
+	 * Opens given TIFF file or folder of TIFF files. The slices of all TIFF files in a folder are
+	 * loaded in the natural order of the file names (ex. "img2.tif" comes before "img10.tif"),
+	 * as ImageJ's FolderOpener does.
+	 *
+	 * @param path the path to the TIFF file or folder
+	 * @return the ImageJ image object, or null if the file or folder cannot be loaded by this class
+	 * @throws IOException if the TIFF file cannot be read (ex. a tiled TIFF file, see {@link TiffDecoder})
+	 */
+	public static ImagePlus open(String path) throws IOException {
+		File file = new File(path);
+		TiffLoader loader = new TiffLoader();
+		if (file.isDirectory()) {
+			if (!loader.readFolder(file))
+				return null;
+		} else if (!isTiff(file) || !loader.readFile(file, null)) {
+			return null;
+		}
+		return loader.load(file.getName());
+	}
+
+	/**
+	 * Checks whether the name of given file has the extension of a TIFF file.
+	 *
+	 * @param file the file
+	 * @return true, if the file is a TIFF file
+	 */
+	private static boolean isTiff(File file) {
+		String name = file.getName().toLowerCase();
+		return file.isFile() && (name.endsWith(".tif") || name.endsWith(".tiff"));
+	}
+
+	/**
+	 * Reads the file information of the TIFF files in given folder. The hidden files are
+	 * ignored, and the folder cannot be loaded if it contains another file than a TIFF file.
+	 *
+	 * @param folder the folder
+	 * @return true, if all TIFF files can be loaded
+	 * @throws IOException if a TIFF file cannot be read
+	 */
+	private boolean readFolder(File folder) throws IOException {
+		List<File> files = new ArrayList<File>();
+		File[] list = folder.listFiles();
+		if (list == null)
+			return false;
+		for (File f : list) {
+			if (f.isHidden() || f.getName().startsWith(".") || f.isDirectory())
+				continue;
+			if (!isTiff(f))
+				return false;
+			files.add(f);
+		}
+		if (files.isEmpty())
+			return false;
+		sortNumerically(files);
+		for (File f : files)
+			if (!readFile(f, f.getName()))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Sorts given files by the natural order of their names: the runs of digits are compared
+	 * as numbers.
+	 *
+	 * @param files the files
+	 */
+	private static void sortNumerically(List<File> files) {
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				String s1 = f1.getName();
+				String s2 = f2.getName();
+				int i1 = 0, i2 = 0;
+				while (i1 < s1.length() && i2 < s2.length()) {
+					char c1 = s1.charAt(i1);
+					char c2 = s2.charAt(i2);
+					if (Character.isDigit(c1) && Character.isDigit(c2)) {
+						int e1 = i1, e2 = i2;
+						while (e1 < s1.length() && s1.charAt(e1) == '0')
+							e1++;
+						while (e2 < s2.length() && s2.charAt(e2) == '0')
+							e2++;
+						int b1 = e1, b2 = e2;
+						while (e1 < s1.length() && Character.isDigit(s1.charAt(e1)))
+							e1++;
+						while (e2 < s2.length() && Character.isDigit(s2.charAt(e2)))
+							e2++;
+						if (e1 - b1 != e2 - b2)
+							return (e1 - b1) - (e2 - b2);
+						int cmp = s1.substring(b1, e1).compareTo(s2.substring(b2, e2));
+						if (cmp != 0)
+							return cmp;
+						i1 = e1;
+						i2 = e2;
+					} else {
+						if (c1 != c2)
+							return c1 - c2;
+						i1++;
+						i2++;
+					}
+				}
+				return (s1.length() - i1) - (s2.length() - i2);
+			}
+		});
+	}
+
+	/**
+	 * Reads the file information of the slices of given TIFF file by {@link TiffDecoder}, and
+	 * adds the slices to the image. ImageJ writes a single image file directory for a stack of
+	 * contiguous images, so the file information of each image is created from it.
+	 * The file information of the image is read from the first file.
+	 *
+	 * @param file the TIFF file
+	 * @param label the label of the slices of the file, or null
+	 * @return true, if all slices of the file can be loaded
+	 * @throws IOException if the file cannot be read
+	 */
+	private boolean readFile(File file, String label) throws IOException {
+		FileInfo[] infos = new TiffDecoder(file.getParent() + File.separator, file.getName()).getTiffInfo();
+		if (infos == null || infos.length == 0)
+			return false;
+		Properties props = decodeDescription(infos[0].description);
+		if (Integer.parseInt(props.getProperty("channels", "1")) > 1
+				|| Integer.parseInt(props.getProperty("frames", "1")) > 1)
+			return false;
+
+		List<FileInfo> fileSlices = new ArrayList<FileInfo>();
+		for (FileInfo fi : infos) {
+			if (fi.nImages <= 1) {
+				fileSlices.add(fi);
+				continue;
+			}
+			if (fi.compression != FileInfo.COMPRESSION_NONE)
+				return false;
+			long sliceBytes = (long) fi.width * fi.height * (getBitDepth(fi) / 8);
+			long gap = fi.gapBetweenImages;
+			for (int i = 0; i < fi.nImages; i++) {
+				FileInfo slice = (FileInfo) fi.clone();
+				slice.nImages = 1;
+				slice.longOffset = fi.getOffset() + (sliceBytes + gap) * i;
+				slice.stripOffsets = null;
+				slice.stripLengths = null;
+				fileSlices.add(slice);
+			}
+		}
+
+		FileInfo first = slices.isEmpty() ? fileSlices.get(0) : slices.get(0);
+		for (FileInfo fi : fileSlices)
+			if (getBitDepth(fi) == 0 || fi.width != first.width || fi.height != first.height
+					|| fi.fileType != first.fileType)
+				return false;
+		if (info == null) {
+			info = (FileInfo) infos[0].clone();
+			if (props.getProperty("unit") != null)
+				info.unit = props.getProperty("unit");
+			try {
+				if (props.getProperty("spacing") != null)
+					info.pixelDepth = Math.abs(Double.parseDouble(props.getProperty("spacing")));
+			} catch (NumberFormatException e) {
+				// the voxel size of z axis is not given
+			}
+		}
+		slices.addAll(fileSlices);
+		for (int i = 0; i < fileSlices.size(); i++)
+			labels.add(label);
+		return true;
+	}
+
+	/**
+	 * Gets the bit depth of the slice of given file information.
+	 *
+	 * @param fi the file information of the slice
+	 * @return 8 or 16, or 0 if the slice is not an 8-bit or unsigned 16-bit grayscale image
+	 */
+	private static int getBitDepth(FileInfo fi) {
+		if (fi.fileType == FileInfo.GRAY8)
+			return 8;
+		if (fi.fileType == FileInfo.GRAY16_UNSIGNED)
+			return 16;
+		return 0;
+	}
+
+	/**
+	 * Decodes the ImageJ properties from the image description.
+	 *
+	 * @param description the image description of the first image file directory
+	 * @return the ImageJ properties (empty if the description is not written by ImageJ)
+	 */
+	private static Properties decodeDescription(String description) {
+		Properties props = new Properties();
+		if (description == null || !description.startsWith("ImageJ"))
+			return props;
+		for (String line : description.split("\n")) {
+			int i = line.indexOf('=');
+			if (i > 0)
+				props.setProperty(line.substring(0, i).trim(), line.substring(i + 1).trim());
+		}
+		return props;
+	}
+
+	/**
+	 * Loads the slices of the image in parallel.
+	 *
+	 * @param title the title of the image
+	 * @return the ImageJ image object
+	 * @throws IOException if a slice cannot be read
+	 */
+	private ImagePlus load(String title) throws IOException {
+		FileInfo first = slices.get(0);
+		final int width = first.width;
+		final int height = first.height;
+		final int bitDepth = getBitDepth(first);
+		final int depth = slices.size();
+		info.nImages = depth;
+
+		RandomAccessFile raf = null;
+		File file = new File(first.directory, first.fileName);
+		if (isMappable(file, bitDepth)) {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			mapped = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+			for (int c = 0; c < mapped.length; c++) {
+				long position = (long) c << CHUNK_BITS;
+				mapped[c] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_MASK + 1, size - position));
+			}
+		}
+
+		ImageStack stack;
+		try {
+			if (SlabPipeline.isEnabled() || (long) width * height * depth >= ImgProcessUtil.getMapThreshold()) {
+				final VoxelVolume volume = ImgProcessUtil.createVoxelVolume(width, height, depth, bitDepth);
+				ParallelUtil.forEachChunk(0, depth, new ParallelUtil.RangeAction() {
+					@Override
+					public void run(int from, int to) {
+						try {
+							for (int z = from; z < to && error == null; z++)
+								ImgProcessUtil.setSlice(volume, z, readSlice(z, bitDepth));
+						} catch (IOException e) {
+							setError(e);
+						}
+					}
+				});
+				if (error != null && volume instanceof MappedVoxelVolume)
+					((MappedVoxelVolume) volume).close();
+				stack = new VolumeStack(volume);
+			} else {
+				final Object[] pixels = new Object[depth];
+				ParallelUtil.forEachChunk(0, depth, new ParallelUtil.RangeAction() {
+					@Override
+					public void run(int from, int to) {
+						try {
+							for (int z = from; z < to && error == null; z++)
+								pixels[z] = readSlice(z, bitDepth);
+						} catch (IOException e) {
+							setError(e);
+						}
+					}
+				});
+				stack = new ImageStack(width, height);
+				for (int z = 0; z < depth && error == null; z++)
+					stack.addSlice(labels.get(z), pixels[z]);
+			}
+		} finally {
+			mapped = null;
+			if (raf != null)
+				raf.close();
+		}
+		if (error != null)
+			throw error;
+
+		ImagePlus img = new ImagePlus(title, stack);
+		img.setFileInfo(info);
+		if (info.unit != null) {
+			Calibration cal = img.getCalibration();
+			cal.pixelWidth = info.pixelWidth;
+			cal.pixelHeight = info.pixelHeight;
+			cal.pixelDepth = info.pixelDepth;
+			cal.setUnit(info.unit);
+		}
+		return img;
+	}
+
+	/**
+	 * Checks whether the slices of the image can be copied from the TIFF file mapped to memory:
+	 * all slices are stored in given TIFF file, and the strips of each slice are uncompressed,
+	 * contiguous and in the file.
+	 *
+	 * @param file the TIFF file of the first slice
+	 * @param bitDepth the bit depth of the image
+	 * @return true, if the TIFF file is mapped to memory
+	 */
+	private boolean isMappable(File file, int bitDepth) {
+		long size = file.length();
+		for (FileInfo fi : slices) {
+			if (fi.compression != FileInfo.COMPRESSION_NONE || !file.equals(new File(fi.directory, fi.fileName)))
+				return false;
+			long offset = fi.getOffset();
+			long length = (long) fi.width * fi.height * (bitDepth / 8);
+			if (fi.stripOffsets != null && fi.stripLengths != null && fi.stripOffsets.length > 1) {
+				long end = offset;
+				for (int s = 0; s < fi.stripOffsets.length; s++) {
+					if ((fi.stripOffsets[s] & 0xFFFFFFFFL) != end)
+						return false;
+					end += fi.stripLengths[s] & 0xFFFFFFFFL;
+				}
+				if (end - offset < length)
+					return false;
+			}
+			if (offset + length > size)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads given slice of the image. The pixel values are copied from the mapped TIFF file if
+	 * it is mapped, or decoded by {@link ImageReader} otherwise.
+	 *
+	 * @param z the index of the slice
+	 * @param bitDepth the bit depth of the image
+	 * @return the pixel values of the slice (byte[] or short[])
+	 * @throws IOException if the slice cannot be read
+	 */
+	private Object readSlice(int z, int bitDepth) throws IOException {
+		FileInfo fi = slices.get(z);
+		if (mapped != null)
+			return readMapped(fi, bitDepth);
+		InputStream in = new FileInputStream(new File(fi.directory, fi.fileName));
+		try {
+			Object pixels = new ImageReader(fi).readPixels(in);
+			if (pixels == null)
+				throw new IOException("Cannot read the slice " + (z + 1) + " of " + fi.fileName);
+			return pixels;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Copies the pixel values of given slice from the mapped TIFF file.
+	 *
+	 * @param fi the file information of the slice
+	 * @param bitDepth the bit depth of the image
+	 * @return the pixel values of the slice (byte[] or short[])
+	 */
+	private Object readMapped(FileInfo fi, int bitDepth) {
+		int length = fi.width * fi.height * (bitDepth / 8);
+		byte[] bytes = new byte[length];
+		long position = fi.getOffset();
+		int done = 0;
+		while (done < length) {
+			ByteBuffer chunk = mapped[(int) (position >>> CHUNK_BITS)].duplicate();
+			chunk.position((int) (position & CHUNK_MASK));
+			int count = Math.min(length - done, chunk.remaining());
+			chunk.get(bytes, done, count);
+			done += count;
+			position += count;
+		}
+		if (bitDepth == 8)
+			return bytes;
+		short[] pixels = new short[length / 2];
+		ByteBuffer.wrap(bytes).order(fi.intelByteOrder ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN)
+				.asShortBuffer().get(pixels);
+		return pixels;
+	}
+
+	/**
+	 * Sets the first error occurred while the slices are decoded.
+	 *
+	 * @param e the error
+	 */
+	private synchronized void setError(IOException e) {
+		if (error == null)
+			error = e;
+	}
+}
@@ -0,0 +1,103 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import java.util.Arrays;
+
+/**
+ * The class UnionFind, which is a disjoint-set forest over primitive int
+ * elements. It is used by the connected-component labeling in
+ * {@link jp.ac.keio.bio.fun.xitosbml.image.ImageEdit} to record the
+ * equivalence of provisional labels, so that merging two labels does not
+ * require rewriting the label of every pixel.
+ * The forest uses path compression (path halving) and union by rank, so
+ * find and union run in nearly constant amortized time.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class UnionFind {
+
+	/** The parent of each element. A root element is its own parent. */
+	private int[] parent;
+
+	/** The rank (upper bound of the height) of each tree. */
+	private byte[] rank;
+
+	/** The number of elements. */
+	private int size;
+
+	/**
+	 * Instantiates a new empty union-find with given initial capacity.
+	 * The capacity grows automatically when more elements are added.
+	 *
+	 * @param capacity the initial capacity
+	 */
+	public UnionFind(int capacity) {
+		parent = new int[Math.max(capacity, 16)];
+		rank = new byte[parent.length];
+		size = 0;
+	}
+
+	/**
+	 * Adds a new element as a singleton set, and returns the element.
+	 * Elements are numbered from 0 in the order they are added.
+	 *
+	 * @return the new element
+	 */
+	public int makeSet() {
+		if (size == parent.length) {
+			int capacity = parent.length + (parent.length >> 1);
+			parent = Arrays.copyOf(parent, capacity);
+			rank = Arrays.copyOf(rank, capacity);
+		}
+		parent[size] = size;
+		return size++;
+	}
+
+	/**
+	 * Returns the root element of the set which contains the given element.
+	 *
+	 * @param x the element
+	 * @return the root element of the set
+	 */
+	public int find(int x) {
+		while (parent[x] != x) {
+			parent[x] = parent[parent[x]];
+			x = parent[x];
+		}
+		return x;
+	}
+
+	/**
+	 * Merges the sets which contain given two elements.
+	 *
+	 * @param a the element a
+	 * @param b the element b
+	 * @return true, if two different sets were merged
+	 */
+	public boolean union(int a, int b) {
+		int ra = find(a);
+		int rb = find(b);
+		if (ra == rb)
+			return false;
+
+		if (rank[ra] < rank[rb]) {
+			parent[ra] = rb;
+		} else if (rank[ra] > rank[rb]) {
+			parent[rb] = ra;
+		} else {
+			parent[rb] = ra;
+			rank[ra]++;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the number of elements.
+	 *
+	 * @return the number of elements
+	 */
+	public int size() {
+		return size;
+	}
+}
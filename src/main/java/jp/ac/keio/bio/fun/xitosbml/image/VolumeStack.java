@@ -0,0 +1,104 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+import ij.VirtualStack;
+import ij.process.ImageProcessor;
+
+/**
+ * The class VolumeStack, which is a virtual stack of images backed by a {@link VoxelVolume}.
+ * The pixels of each slice are copied from the voxel volume when the slice is requested,
+ * so that a z-stack image which is stored in a memory-mapped temporary file can be handled
+ * as an ImageJ image object without loading all slices on the heap.
+ * The pixels given by {@link #setPixels(Object, int)} are written back to the voxel volume.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class VolumeStack extends VirtualStack {
+
+	/** The voxels of the stack. */
+	private final VoxelVolume volume;
+
+	/**
+	 * Instantiates a new virtual stack of images backed by given voxel volume.
+	 *
+	 * @param volume the voxel volume
+	 */
+	public VolumeStack(VoxelVolume volume) {
+		super(volume.getWidth(), volume.getHeight(), null, null);
+		this.volume = volume;
+	}
+
+	/**
+	 * Gets the number of slices.
+	 *
+	 * @return the number of slices
+	 */
+	@Override
+	public int getSize() {
+		return volume.getDepth();
+	}
+
+	/**
+	 * Gets a copy of the pixels of given slice.
+	 *
+	 * @param n the index of the slice (1-based)
+	 * @return the pixels of the slice as a byte array (short array for a 16-bit volume)
+	 */
+	@Override
+	public Object getPixels(int n) {
+		return ImgProcessUtil.getSlice(volume, n - 1);
+	}
+
+	/**
+	 * Writes the given pixels to given slice of the voxel volume.
+	 *
+	 * @param pixels the pixels of the slice as a byte array (short array for a 16-bit volume)
+	 * @param n the index of the slice (1-based)
+	 */
+	@Override
+	public void setPixels(Object pixels, int n) {
+		ImgProcessUtil.setSlice(volume, n - 1, pixels);
+	}
+
+	/**
+	 * Gets the image processor of given slice. The processor has a copy of the pixels.
+	 *
+	 * @param n the index of the slice (1-based)
+	 * @return the image processor of the slice
+	 */
+	@Override
+	public ImageProcessor getProcessor(int n) {
+		return ImgProcessUtil.createProcessor(volume.getWidth(), volume.getHeight(), getPixels(n));
+	}
+
+	/**
+	 * Gets the label of given slice. The slices of a voxel volume do not have labels.
+	 *
+	 * @param n the index of the slice (1-based)
+	 * @return null
+	 */
+	@Override
+	public String getSliceLabel(int n) {
+		return null;
+	}
+
+	/**
+	 * Gets the bit depth of the stack, which is the bit depth of the voxel volume.
+	 *
+	 * @return 8 or 16
+	 */
+	@Override
+	public int getBitDepth() {
+		return volume.getBitDepth();
+	}
+
+	/**
+	 * Gets the voxel volume of the stack.
+	 *
+	 * @return the voxel volume
+	 */
+	public VoxelVolume getVolume() {
+		return volume;
+	}
+}
@@ -0,0 +1,109 @@
+package jp.ac.keio.bio.fun.xitosbml.image;
+
+/**
+ * The interface VoxelVolume, which provides access to the pixel values (voxels) of
+ * a z-stack image (3D image) or a 2D image.
+ * Voxels are addressed by the index in an 1D array (d * height * width + h * width + w),
+ * which is a long value so that an image can have more than 2^31 voxels.
+ * The storage of voxels depends on the implementation (ex. {@link HeapVoxelVolume} stores
+ * voxels in a byte array on the heap, and {@link MappedVoxelVolume} stores voxels in
+ * a memory-mapped temporary file).
+ * A volume stores either 8-bit or 16-bit (unsigned) pixel values ({@link #getBitDepth()}).
+ * The slices of both volumes can be accessed as byte arrays or short arrays. The pixel values
+ * are widened or narrowed to the type of the array, and a pixel value which does not fit in
+ * a byte is never truncated: reading a slice of a 16-bit volume which has a value larger than
+ * 255 as a byte array throws IllegalStateException, and writing a value larger than 255 to
+ * an 8-bit volume throws IllegalArgumentException.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public interface VoxelVolume {
+
+	/**
+	 * Gets the width of the volume.
+	 *
+	 * @return the width of the volume
+	 */
+	int getWidth();
+
+	/**
+	 * Gets the height of the volume.
+	 *
+	 * @return the height of the volume
+	 */
+	int getHeight();
+
+	/**
+	 * Gets the depth (number of slices) of the volume.
+	 *
+	 * @return the depth of the volume
+	 */
+	int getDepth();
+
+	/**
+	 * Gets the number of voxels.
+	 *
+	 * @return the number of voxels
+	 */
+	long size();
+
+	/**
+	 * Gets the number of bits of a pixel value (8 or 16).
+	 *
+	 * @return the bit depth of the volume
+	 */
+	int getBitDepth();
+
+	/**
+	 * Gets the pixel value (unsigned) of given voxel.
+	 *
+	 * @param index the index of the voxel in an 1D array
+	 * @return the pixel value
+	 */
+	int get(long index);
+
+	/**
+	 * Sets the pixel value of given voxel.
+	 *
+	 * @param index the index of the voxel in an 1D array
+	 * @param value the pixel value
+	 */
+	void set(long index, int value);
+
+	/**
+	 * Copies the pixel values of given slice to the given array.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @param slice the array of width * height elements
+	 * @throws IllegalStateException if the slice has a pixel value larger than 255
+	 */
+	void getSlice(int z, byte[] slice);
+
+	/**
+	 * Copies the pixel values of the given array to given slice.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @param slice the array of width * height elements
+	 */
+	void setSlice(int z, byte[] slice);
+
+	/**
+	 * Copies the pixel values (unsigned) of given slice to the given array.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @param slice the array of width * height elements
+	 */
+	void getSlice(int z, short[] slice);
+
+	/**
+	 * Copies the pixel values of the given array to given slice.
+	 *
+	 * @param z the index of the slice (0-based)
+	 * @param slice the array of width * height elements
+	 * @throws IllegalArgumentException if the volume is an 8-bit volume and the array has
+	 *         a pixel value larger than 255
+	 */
+	void setSlice(int z, short[] slice);
+}
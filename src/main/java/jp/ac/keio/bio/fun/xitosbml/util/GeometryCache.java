@@ -0,0 +1,658 @@
+package jp.ac.keio.bio.fun.xitosbml.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import org.sbml.jsbml.ext.spatial.AdjacentDomains;
+import org.sbml.jsbml.ext.spatial.Domain;
+import org.sbml.jsbml.ext.spatial.DomainType;
+import org.sbml.jsbml.ext.spatial.Geometry;
+import org.sbml.jsbml.ext.spatial.GeometryDefinition;
+import org.sbml.jsbml.ext.spatial.InteriorPoint;
+import org.sbml.jsbml.ext.spatial.SampledField;
+import org.sbml.jsbml.ext.spatial.SampledFieldGeometry;
+import org.sbml.jsbml.ext.spatial.SampledVolume;
+import org.scijava.vecmath.Point3d;
+
+import jp.ac.keio.bio.fun.xitosbml.image.SpatialImage;
+import jp.ac.keio.bio.fun.xitosbml.image.VoxelVolume;
+import jp.ac.keio.bio.fun.xitosbml.xitosbml.LazySampledField;
+
+/**
+ * The class GeometryCache, which is a binary sidecar file of an SBML file (&lt;SBML file&gt;.geom).
+ * The sidecar holds the processed spatial image of the geometry of the model, so that the image
+ * can be restored without parsing the samples of the SampledField when the model is opened again.
+ * The sidecar contains following objects:
+ * <ul>
+ *     <li>content hash of the geometry (SHA-256, see {@link #computeHash(Geometry)})</li>
+ *     <li>voxels of spatial image (8-bit or 16-bit label volume)</li>
+ *     <li>delta and unit of spatial image</li>
+ *     <li>hashmap of sampled value</li>
+ *     <li>hashmap of domain types</li>
+ *     <li>hashmap of the count number of domains in each domain types</li>
+ *     <li>adjacents list</li>
+ *     <li>hashmap of domain InteriorPoint</li>
+ * </ul>
+ * The header (magic number, version and the length of the metadata) is followed by the metadata,
+ * and the voxels are stored at the end of the file (big endian for a 16-bit image). The voxels are
+ * memory mapped by chunks of 1 GiB when the sidecar is read, and are copied to the image directly.
+ * A sidecar is used only if its version is supported and its hash matches the geometry of the model.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class GeometryCache {
+
+	/** The suffix of the sidecar file, which is appended to the path of the SBML file. */
+	public static final String SUFFIX = ".geom";
+
+	/** The magic number of the sidecar file ("XGEO"). */
+	private static final int MAGIC = 0x5847454F;
+
+	/** The version of the format of the sidecar file. */
+	public static final int VERSION = 1;
+
+	/** The length of the header (magic number, version and the length of the metadata). */
+	private static final int HEADER_LENGTH = 12;
+
+	/** The number of bits of the size of a mapped chunk. */
+	private static final int CHUNK_BITS = 30;
+
+	/** The mask of the index in a mapped chunk. */
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	/** The size of the buffer to write the voxels and to digest the samples. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The content hash of the geometry. */
+	private byte[] hash;
+
+	/** The SpatialId of the SampledField of spatial image. */
+	private String sampledFieldId;
+
+	/** The size of spatial image (width, height and depth). */
+	private int width, height, depth;
+
+	/** The bit depth of spatial image (8 or 16). */
+	private int bitDepth;
+
+	/** The delta of spatial image. */
+	private Point3d delta;
+
+	/** The unit of a CoordinateComponent. */
+	private String unit;
+
+	/** The hashmap of sampled value. */
+	private HashMap<String, Integer> hashSampledValue;
+
+	/** The hashmap of domain types. */
+	private HashMap<String, Integer> hashDomainTypes;
+
+	/** The hashmap of the count number of domains in each domain types. */
+	private HashMap<String, Integer> hashDomainNum;
+
+	/** The adjacents list. */
+	private ArrayList<ArrayList<String>> adjacentsList;
+
+	/** The hashmap of domain InteriorPoint. */
+	private HashMap<String, Point3d> hashDomInteriorPt;
+
+	/** The mapped buffer of each chunk of the voxels. */
+	private MappedByteBuffer[] chunks;
+
+	/**
+	 * Instantiates a new geometry cache. A geometry cache is created by {@link #read(File)}.
+	 */
+	private GeometryCache() {
+	}
+
+	/**
+	 * Gets the sidecar file of given SBML file.
+	 *
+	 * @param sbmlFile the SBML file
+	 * @return the sidecar file
+	 */
+	public static File getCacheFile(File sbmlFile) {
+		return new File(sbmlFile.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Writes the sidecar file of given geometry and spatial image. This method should be called
+	 * after the SBML document is created, because the hash is computed from the geometry.
+	 *
+	 * @param file the sidecar file
+	 * @param geometry the geometry of the model
+	 * @param sampledFieldId the SpatialId of the SampledField of spatial image
+	 * @param spImg the spatial image
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void write(File file, Geometry geometry, String sampledFieldId, SpatialImage spImg) throws IOException {
+		VoxelVolume voxels = spImg.getVoxels();
+		ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+		DataOutputStream meta = new DataOutputStream(metadata);
+		meta.write(computeHash(geometry));
+		meta.writeUTF(sampledFieldId);
+		meta.writeInt(voxels.getWidth());
+		meta.writeInt(voxels.getHeight());
+		meta.writeInt(voxels.getDepth());
+		meta.writeInt(voxels.getBitDepth());
+		writePoint(meta, spImg.getDelta());
+		meta.writeUTF(spImg.getUnit() != null ? spImg.getUnit() : "");
+		writeMap(meta, spImg.getHashSampledValue());
+		writeMap(meta, spImg.getHashDomainTypes());
+		writeMap(meta, spImg.getHashDomainNum());
+		ArrayList<ArrayList<String>> adjacentsList = spImg.getAdjacentsList();
+		meta.writeInt(adjacentsList != null ? adjacentsList.size() : 0);
+		if (adjacentsList != null) {
+			for (ArrayList<String> adj : adjacentsList) {
+				meta.writeUTF(adj.get(0));
+				meta.writeUTF(adj.get(1));
+			}
+		}
+		HashMap<String, Point3d> hashDomInteriorPt = spImg.getHashDomInteriorPt();
+		meta.writeInt(hashDomInteriorPt != null ? hashDomInteriorPt.size() : 0);
+		if (hashDomInteriorPt != null) {
+			for (Entry<String, Point3d> e : hashDomInteriorPt.entrySet()) {
+				meta.writeUTF(e.getKey());
+				writePoint(meta, e.getValue());
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(metadata.size());
+			metadata.writeTo(out);
+			writeVoxels(out, voxels);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the voxels slice by slice. The pixel values of a 16-bit image are written in big endian.
+	 *
+	 * @param out the output stream
+	 * @param voxels the voxels of spatial image
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void writeVoxels(OutputStream out, VoxelVolume voxels) throws IOException {
+		int sliceSize = voxels.getWidth() * voxels.getHeight();
+		if (voxels.getBitDepth() != 16) {
+			byte[] slice = new byte[sliceSize];
+			for (int z = 0; z < voxels.getDepth(); z++) {
+				voxels.getSlice(z, slice);
+				out.write(slice);
+			}
+			return;
+		}
+		short[] slice = new short[sliceSize];
+		ByteBuffer buf = ByteBuffer.allocate(sliceSize * 2);
+		for (int z = 0; z < voxels.getDepth(); z++) {
+			voxels.getSlice(z, slice);
+			buf.clear();
+			buf.asShortBuffer().put(slice);
+			out.write(buf.array());
+		}
+	}
+
+	/**
+	 * Reads the metadata of given sidecar file, and maps its voxels to memory.
+	 *
+	 * @param file the sidecar file
+	 * @return the geometry cache
+	 * @throws IOException if the file cannot be read, or it is not a sidecar file of a supported version
+	 */
+	public static GeometryCache read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() < HEADER_LENGTH || raf.readInt() != MAGIC)
+				throw new IOException("Not a geometry cache: " + file);
+			int version = raf.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported version of geometry cache (" + version + "): " + file);
+			int length = raf.readInt();
+			if (length < 0 || HEADER_LENGTH + (long) length > raf.length())
+				throw new IOException("Truncated geometry cache: " + file);
+			byte[] metadata = new byte[length];
+			raf.readFully(metadata);
+
+			GeometryCache cache = new GeometryCache();
+			cache.readMetadata(new DataInputStream(new ByteArrayInputStream(metadata)));
+			long position = HEADER_LENGTH + (long) length;
+			long size = (long) cache.width * cache.height * cache.depth * (cache.bitDepth == 16 ? 2 : 1);
+			if (raf.length() != position + size)
+				throw new IOException("Truncated geometry cache: " + file);
+			FileChannel channel = raf.getChannel();
+			cache.chunks = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+			for (int c = 0; c < cache.chunks.length; c++) {
+				long offset = (long) c << CHUNK_BITS;
+				cache.chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, position + offset, Math.min(CHUNK_MASK + 1, size - offset));
+			}
+			return cache;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads the metadata of the sidecar file.
+	 *
+	 * @param in the input stream of the metadata
+	 * @throws IOException if the metadata is broken
+	 */
+	private void readMetadata(DataInputStream in) throws IOException {
+		hash = new byte[32];
+		in.readFully(hash);
+		sampledFieldId = in.readUTF();
+		width = in.readInt();
+		height = in.readInt();
+		depth = in.readInt();
+		bitDepth = in.readInt();
+		if (width < 0 || height < 0 || depth < 0 || (bitDepth != 8 && bitDepth != 16))
+			throw new IOException("Invalid size of geometry cache");
+		delta = readPoint(in);
+		unit = in.readUTF();
+		hashSampledValue = readMap(in);
+		hashDomainTypes = readMap(in);
+		hashDomainNum = readMap(in);
+		int count = in.readInt();
+		adjacentsList = new ArrayList<ArrayList<String>>(count);
+		for (int i = 0; i < count; i++) {
+			ArrayList<String> adj = new ArrayList<String>(2);
+			adj.add(in.readUTF());
+			adj.add(in.readUTF());
+			adjacentsList.add(adj);
+		}
+		count = in.readInt();
+		hashDomInteriorPt = new HashMap<String, Point3d>();
+		for (int i = 0; i < count; i++) {
+			String key = in.readUTF();
+			hashDomInteriorPt.put(key, readPoint(in));
+		}
+	}
+
+	/**
+	 * Checks whether this cache is made from given geometry, by comparing the content hash.
+	 *
+	 * @param geometry the geometry of the model
+	 * @return true, if the hash of the geometry matches the hash of this cache
+	 * @throws IOException if the samples of a SampledField cannot be read
+	 */
+	public boolean matches(Geometry geometry) throws IOException {
+		return Arrays.equals(hash, computeHash(geometry));
+	}
+
+	/**
+	 * Computes the content hash (SHA-256) of given geometry. The hash covers the domain types,
+	 * domains (with their InteriorPoints), adjacent domains, sampled volumes and sampled fields
+	 * (with their samples) of the geometry. The whitespaces in the samples are normalized,
+	 * so the hash does not depend on how the samples are formatted in the SBML file.
+	 *
+	 * @param geometry the geometry
+	 * @return the content hash
+	 * @throws IOException if the samples of a SampledField cannot be read
+	 */
+	public static byte[] computeHash(Geometry geometry) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}, md));
+		out.writeInt(VERSION);
+
+		out.writeInt(geometry.getListOfDomainTypes().size());
+		for (DomainType dt : geometry.getListOfDomainTypes()) {
+			out.writeUTF(dt.getSpatialId());
+			out.writeInt(dt.isSetSpatialDimensions() ? dt.getSpatialDimensions() : -1);
+		}
+		out.writeInt(geometry.getListOfDomains().size());
+		for (Domain dom : geometry.getListOfDomains()) {
+			out.writeUTF(dom.getSpatialId());
+			out.writeUTF(String.valueOf(dom.getDomainType()));
+			out.writeInt(dom.getListOfInteriorPoints().size());
+			for (InteriorPoint ip : dom.getListOfInteriorPoints()) {
+				out.writeDouble(ip.isSetCoord1() ? ip.getCoord1() : Double.NaN);
+				out.writeDouble(ip.isSetCoord2() ? ip.getCoord2() : Double.NaN);
+				out.writeDouble(ip.isSetCoord3() ? ip.getCoord3() : Double.NaN);
+			}
+		}
+		out.writeInt(geometry.getListOfAdjacentDomains().size());
+		for (AdjacentDomains adj : geometry.getListOfAdjacentDomains()) {
+			out.writeUTF(String.valueOf(adj.getDomain1()));
+			out.writeUTF(String.valueOf(adj.getDomain2()));
+		}
+		for (GeometryDefinition gd : geometry.getListOfGeometryDefinitions()) {
+			if (!(gd instanceof SampledFieldGeometry))
+				continue;
+			SampledFieldGeometry sfg = (SampledFieldGeometry) gd;
+			out.writeUTF(sfg.getSpatialId());
+			out.writeUTF(String.valueOf(sfg.getSampledField()));
+			out.writeInt(sfg.getListOfSampledVolumes().size());
+			for (SampledVolume sv : sfg.getListOfSampledVolumes()) {
+				out.writeUTF(String.valueOf(sv.getDomainType()));
+				out.writeDouble(sv.isSetSampledValue() ? sv.getSampledValue() : Double.NaN);
+			}
+		}
+		out.writeInt(geometry.getListOfSampledFields().size());
+		for (SampledField sf : geometry.getListOfSampledFields()) {
+			out.writeUTF(sf.getSpatialId());
+			out.writeUTF(String.valueOf(sf.getDataType()));
+			out.writeUTF(String.valueOf(sf.getCompression()));
+			out.writeInt(sf.isSetNumSamples1() ? sf.getNumSamples1() : -1);
+			out.writeInt(sf.isSetNumSamples2() ? sf.getNumSamples2() : -1);
+			out.writeInt(sf.isSetNumSamples3() ? sf.getNumSamples3() : -1);
+			SamplesDigest samples = new SamplesDigest(md);
+			if (sf instanceof LazySampledField && ((LazySampledField) sf).isLazy())
+				((LazySampledField) sf).writeSamples(samples);
+			else if (sf.isSetSamples())
+				samples.update(sf.getSamples());
+			samples.finish();
+		}
+		return md.digest();
+	}
+
+	/**
+	 * Gets the SpatialId of the SampledField of spatial image.
+	 *
+	 * @return the SpatialId of the SampledField
+	 */
+	public String getSampledFieldId() {
+		return sampledFieldId;
+	}
+
+	/**
+	 * Gets the width of spatial image.
+	 *
+	 * @return the width of spatial image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height of spatial image.
+	 *
+	 * @return the height of spatial image
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the depth of spatial image.
+	 *
+	 * @return the depth of spatial image
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Gets the bit depth of spatial image.
+	 *
+	 * @return the bit depth of spatial image (8 or 16)
+	 */
+	public int getBitDepth() {
+		return bitDepth;
+	}
+
+	/**
+	 * Gets the delta of spatial image.
+	 *
+	 * @return the delta of spatial image
+	 */
+	public Point3d getDelta() {
+		return delta;
+	}
+
+	/**
+	 * Gets the unit of a CoordinateComponent.
+	 *
+	 * @return the unit of a CoordinateComponent
+	 */
+	public String getUnit() {
+		return unit;
+	}
+
+	/**
+	 * Gets the hashmap of sampled value.
+	 *
+	 * @return the hashmap of sampled value
+	 */
+	public HashMap<String, Integer> getHashSampledValue() {
+		return hashSampledValue;
+	}
+
+	/**
+	 * Gets the hashmap of domain types.
+	 *
+	 * @return the hashmap of domain types
+	 */
+	public HashMap<String, Integer> getHashDomainTypes() {
+		return hashDomainTypes;
+	}
+
+	/**
+	 * Gets the hashmap of the count number of domains in each domain types.
+	 *
+	 * @return the hashmap of the count number of domains in each domain types
+	 */
+	public HashMap<String, Integer> getHashDomainNum() {
+		return hashDomainNum;
+	}
+
+	/**
+	 * Gets the adjacents list.
+	 *
+	 * @return the adjacents list
+	 */
+	public ArrayList<ArrayList<String>> getAdjacentsList() {
+		return adjacentsList;
+	}
+
+	/**
+	 * Gets the hashmap of domain InteriorPoint.
+	 *
+	 * @return the hashmap of domain InteriorPoint
+	 */
+	public HashMap<String, Point3d> getHashDomInteriorPt() {
+		return hashDomInteriorPt;
+	}
+
+	/**
+	 * Copies the voxels of an 8-bit image from the mapped file to given array.
+	 *
+	 * @param target the array of the voxels
+	 */
+	public void getVoxels(byte[] target) {
+		long index = 0;
+		int offset = 0;
+		while (offset < target.length) {
+			ByteBuffer chunk = chunks[(int) (index >>> CHUNK_BITS)].duplicate();
+			chunk.position((int) (index & CHUNK_MASK));
+			int length = Math.min(target.length - offset, chunk.remaining());
+			chunk.get(target, offset, length);
+			offset += length;
+			index += length;
+		}
+	}
+
+	/**
+	 * Copies the voxels of a 16-bit image from the mapped file to given array.
+	 *
+	 * @param target the array of the voxels
+	 */
+	public void getVoxels(short[] target) {
+		long index = 0;
+		int offset = 0;
+		while (offset < target.length) {
+			ByteBuffer chunk = chunks[(int) (index >>> CHUNK_BITS)].duplicate();
+			chunk.position((int) (index & CHUNK_MASK));
+			int length = Math.min(target.length - offset, chunk.remaining() / 2);
+			chunk.asShortBuffer().get(target, offset, length);
+			offset += length;
+			index += length * 2L;
+		}
+	}
+
+	/**
+	 * Writes given hashmap as the number of entries and the entries.
+	 *
+	 * @param out the output stream
+	 * @param map the hashmap, or null
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void writeMap(DataOutputStream out, HashMap<String, Integer> map) throws IOException {
+		out.writeInt(map != null ? map.size() : 0);
+		if (map == null)
+			return;
+		for (Entry<String, Integer> e : map.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeInt(e.getValue());
+		}
+	}
+
+	/**
+	 * Reads a hashmap written by {@link #writeMap(DataOutputStream, HashMap)}.
+	 *
+	 * @param in the input stream
+	 * @return the hashmap
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static HashMap<String, Integer> readMap(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		for (int i = 0; i < count; i++) {
+			String key = in.readUTF();
+			map.put(key, in.readInt());
+		}
+		return map;
+	}
+
+	/**
+	 * Writes given point as 3 doubles.
+	 *
+	 * @param out the output stream
+	 * @param p the point
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void writePoint(DataOutputStream out, Point3d p) throws IOException {
+		out.writeDouble(p.x);
+		out.writeDouble(p.y);
+		out.writeDouble(p.z);
+	}
+
+	/**
+	 * Reads a point written by {@link #writePoint(DataOutputStream, Point3d)}.
+	 *
+	 * @param in the input stream
+	 * @return the point
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static Point3d readPoint(DataInputStream in) throws IOException {
+		double x = in.readDouble();
+		double y = in.readDouble();
+		return new Point3d(x, y, in.readDouble());
+	}
+
+	/**
+	 * The class SamplesDigest, which updates a message digest with the samples of a SampledField.
+	 * A sequence of whitespaces between samples is digested as a single space, and the
+	 * whitespaces at the beginning and the end of the samples are ignored.
+	 */
+	private static class SamplesDigest extends OutputStream {
+
+		/** The message digest. */
+		private final MessageDigest md;
+
+		/** The buffer of the normalized samples. */
+		private final byte[] buf = new byte[BUFFER_SIZE];
+
+		/** The number of bytes in the buffer. */
+		private int pos;
+
+		/** The flag whether a sample has been digested. */
+		private boolean started;
+
+		/** The flag whether a space is digested before the next sample. */
+		private boolean pendingSpace;
+
+		/**
+		 * Instantiates a new samples digest.
+		 *
+		 * @param md the message digest
+		 */
+		SamplesDigest(MessageDigest md) {
+			this.md = md;
+		}
+
+		@Override
+		public void write(int b) {
+			if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+				pendingSpace = started;
+				return;
+			}
+			if (pos > BUFFER_SIZE - 2) {
+				md.update(buf, 0, pos);
+				pos = 0;
+			}
+			if (pendingSpace) {
+				buf[pos++] = ' ';
+				pendingSpace = false;
+			}
+			buf[pos++] = (byte) b;
+			started = true;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			for (int i = off, end = off + len; i < end; i++)
+				write(b[i]);
+		}
+
+		/**
+		 * Digests given samples.
+		 *
+		 * @param samples the samples as a string
+		 */
+		void update(CharSequence samples) {
+			for (int i = 0, length = samples.length(); i < length; i++)
+				write(samples.charAt(i));
+		}
+
+		/**
+		 * Digests the samples in the buffer.
+		 */
+		void finish() {
+			md.update(buf, 0, pos);
+			pos = 0;
+		}
+	}
+}
@@ -12,11 +12,10 @@ import javax.xml.stream.XMLStreamException;
 import org.sbml.jsbml.Model;
 import org.sbml.jsbml.SBMLDocument;
 import org.sbml.jsbml.SBMLException;
-import org.sbml.jsbml.SBMLWriter;
-import org.sbml.jsbml.TidySBMLWriter;
 
 import ij.IJ;
 import ij.io.SaveDialog;
+import jp.ac.keio.bio.fun.xitosbml.xitosbml.SampledFieldWriter;
 
 /**
  * The class ModelSaver, which is an utility class to save SBML document to a
@@ -47,6 +46,9 @@ public class ModelSaver {
 	/** The filename of the SBML file. */
 	private String name;
 
+	/** The preview of the saved SBML document, in which long arrays are elided. */
+	private String preview;
+
 	/**
 	 * Instantiates a new model saver.
 	 *
@@ -59,8 +61,10 @@ public class ModelSaver {
 
 	/**
 	 * Save an SBML document to a file. The SBML document is written to the file by
-	 * org.sbml.jsbml.TidySBMLWriter(). The filename and path of the directory will
-	 * be specified by the user through SaveDialog.
+	 * {@link SampledFieldWriter}, which encodes the samples of SampledField directly into the file.
+	 * A bounded preview of the document is created from the same pass, and is shown in the log
+	 * (see {@link SampledFieldWriter#writeWithPreview(SBMLDocument, File, int)}).
+	 * The filename and path of the directory will be specified by the user through SaveDialog.
 	 */
 	public void save() {
 		SaveDialog sd = new SaveDialog("Save SBML Document", model.getId(), ".xml");
@@ -72,11 +76,13 @@ public class ModelSaver {
 
 		setAnnotation();
 
+		preview = null;
 		try {
 			if (name.contains(".xml"))
 				name = name.substring(0, name.indexOf('.'));
 			document.getModel().setId(name);
-			SBMLWriter.write(document, new File(path + "/" + name + ".xml"), ' ', (short) 2);
+			preview = SampledFieldWriter.writeWithPreview(document, new File(path + "/" + name + ".xml"),
+					SampledFieldWriter.getPreviewLength());
 		} catch (NullPointerException e) {
 			System.out.println("SBML document was not saved");
 		} catch (SBMLException e) {
@@ -90,17 +96,8 @@ public class ModelSaver {
 			e.printStackTrace();
 		}
 
-		try {
-			String docStr = new TidySBMLWriter().writeSBMLToString(document);
-			IJ.log(docStr);
-		} catch (SBMLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (XMLStreamException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
+		if (preview != null)
+			IJ.log(preview);
 	}
 
 	/**
@@ -164,4 +161,14 @@ public class ModelSaver {
 		return name;
 	}
 
+	/**
+	 * Gets the preview of the saved SBML document, in which long arrays (ex. the samples
+	 * of SampledField) are elided.
+	 *
+	 * @return the preview, or null if the document was not saved or the preview is disabled
+	 */
+	public String getPreview() {
+		return preview;
+	}
+
 }
@@ -0,0 +1,183 @@
+package jp.ac.keio.bio.fun.xitosbml.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+import jp.ac.keio.bio.fun.xitosbml.image.ParallelUtil;
+
+/**
+ * The class ParallelDeflater, which compresses data into a single zlib stream (RFC 1950)
+ * by compressing independent chunks of the data in parallel (as pigz does).
+ * Each chunk is compressed by its own raw Deflater, with the last 32 KiB of the previous chunk
+ * as the preset dictionary so that matches across chunks are not lost. Every chunk but the last
+ * one ends with a sync flush, so the compressed chunks can be concatenated into one deflate stream,
+ * and the Adler-32 checksums of the chunks are combined into the checksum of the whole data.
+ * The chunks are read and compressed in batches, so only a few uncompressed chunks are held
+ * at once.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class ParallelDeflater {
+
+	/** The size of the window of deflate, which is the maximum size of a dictionary. */
+	private static final int WINDOW_SIZE = 1 << 15;
+
+	/** The modulus of Adler-32. */
+	private static final long ADLER_BASE = 65521;
+
+	/**
+	 * The interface ChunkSource, which provides the data to be compressed as a sequence of chunks.
+	 */
+	public interface ChunkSource {
+
+		/**
+		 * Gets the number of chunks.
+		 *
+		 * @return the number of chunks
+		 */
+		int getChunkCount();
+
+		/**
+		 * Gets the bytes of given chunk. This method is called from several threads at once.
+		 *
+		 * @param n the index of the chunk
+		 * @return the bytes of the chunk
+		 */
+		byte[] getChunk(int n);
+	}
+
+	/**
+	 * Compresses the data of given source into a zlib stream with given compression level.
+	 *
+	 * @param source the source of the data
+	 * @param level the compression level (0 - 9)
+	 * @return the zlib stream
+	 * @throws IllegalArgumentException if the compression level is not 0 - 9
+	 */
+	public static byte[] deflate(final ChunkSource source, final int level) {
+		if (level < 0 || level > 9)
+			throw new IllegalArgumentException("Compression level must be 0 - 9: " + level);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(0x78);
+		out.write(getHeaderFlags(level));
+
+		final int count = source.getChunkCount();
+		int batch = Math.max(1, ParallelUtil.getParallelism() * 2);
+		long adler = 1;
+		byte[] previous = null;
+		if (count == 0) {
+			byte[] empty = compress(new byte[0], null, level, true);
+			out.write(empty, 0, empty.length);
+		}
+		for (int start = 0; start < count; start += batch) {
+			final int size = Math.min(batch, count - start);
+			final int first = start;
+			final byte[][] chunks = new byte[size + 1][];
+			final byte[][] compressed = new byte[size][];
+			final long[] checksums = new long[size];
+			chunks[0] = previous;
+			ParallelUtil.forEachChunk(0, size, size, new ParallelUtil.RangeAction() {
+				@Override
+				public void run(int from, int to) {
+					for (int k = from; k < to; k++)
+						chunks[k + 1] = source.getChunk(first + k);
+				}
+			});
+			ParallelUtil.forEachChunk(0, size, size, new ParallelUtil.RangeAction() {
+				@Override
+				public void run(int from, int to) {
+					for (int k = from; k < to; k++) {
+						compressed[k] = compress(chunks[k + 1], chunks[k], level, first + k == count - 1);
+						Adler32 checksum = new Adler32();
+						checksum.update(chunks[k + 1]);
+						checksums[k] = checksum.getValue();
+					}
+				}
+			});
+			for (int k = 0; k < size; k++) {
+				out.write(compressed[k], 0, compressed[k].length);
+				adler = combineAdler32(adler, checksums[k], chunks[k + 1].length);
+			}
+			previous = chunks[size];
+		}
+
+		for (int shift = 24; shift >= 0; shift -= 8)
+			out.write((int) (adler >>> shift) & 0xFF);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Compresses given chunk as raw deflate blocks.
+	 *
+	 * @param data the bytes of the chunk
+	 * @param dictionary the bytes of the previous chunk, or null for the first chunk
+	 * @param level the compression level
+	 * @param last true if the chunk is the last chunk (ends with the final block)
+	 * @return the compressed bytes
+	 */
+	private static byte[] compress(byte[] data, byte[] dictionary, int level, boolean last) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if (dictionary != null && dictionary.length > 0) {
+				int length = Math.min(dictionary.length, WINDOW_SIZE);
+				deflater.setDictionary(dictionary, dictionary.length - length, length);
+			}
+			deflater.setInput(data);
+			if (last)
+				deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 8));
+			byte[] buf = new byte[1 << 16];
+			while (true) {
+				int n = deflater.deflate(buf, 0, buf.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				out.write(buf, 0, n);
+				if (last ? deflater.finished() : n < buf.length)
+					break;
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Gets the second byte of the zlib header (FLG) for given compression level.
+	 * The first byte (CMF) is 0x78 (deflate with 32 KiB window).
+	 *
+	 * @param level the compression level
+	 * @return the FLG byte
+	 */
+	private static int getHeaderFlags(int level) {
+		int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+		int flg = flevel << 6;
+		return flg + 31 - (0x7800 + flg) % 31;
+	}
+
+	/**
+	 * Combines the Adler-32 checksums of two consecutive pieces of data into the checksum
+	 * of the concatenated data (as adler32_combine() of zlib).
+	 *
+	 * @param adler1 the checksum of the first piece
+	 * @param adler2 the checksum of the second piece
+	 * @param length2 the length of the second piece
+	 * @return the checksum of the concatenated data
+	 */
+	static long combineAdler32(long adler1, long adler2, long length2) {
+		long rem = length2 % ADLER_BASE;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = (rem * sum1) % ADLER_BASE;
+		sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+		sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - rem;
+		if (sum1 >= ADLER_BASE)
+			sum1 -= ADLER_BASE;
+		if (sum1 >= ADLER_BASE)
+			sum1 -= ADLER_BASE;
+		if (sum2 >= ADLER_BASE << 1)
+			sum2 -= ADLER_BASE << 1;
+		if (sum2 >= ADLER_BASE)
+			sum2 -= ADLER_BASE;
+		return sum1 | (sum2 << 16);
+	}
+}
@@ -17,6 +17,7 @@ import ij3d.ContentNode;
 import ij3d.Image3DUniverse;
 import isosurface.MeshGroup;
 import jp.ac.keio.bio.fun.xitosbml.image.SpatialImage;
+import jp.ac.keio.bio.fun.xitosbml.image.VoxelVolume;
 
 
 /**
@@ -50,8 +51,8 @@ public class Viewer {
 	/** The hashmap of ImageJ image object (ImagePlus). */
 	private HashMap<String, ImagePlus> hashImg = new HashMap<String, ImagePlus>();
 	
-	/** The raw data of spatial image in 1D array. */
-	private byte[] rawMat;
+	/** The voxels of spatial image (8-bit or 16-bit). */
+	private VoxelVolume rawMat;
 	
 	/** The hashmap of vertices. */
 	private HashMap<String, List<Point3d>> hashVertices = new HashMap<String, List<Point3d>>();
@@ -70,7 +71,7 @@ public class Viewer {
 		this.height = spImg.getHeight();
 		this.depth = spImg.getDepth();
 		this.hashDoms = spImg.getHashSampledValue();
-		this.rawMat = spImg.getRaw();
+		this.rawMat = spImg.getVoxels();
 		separateImg();
 		setColors(hashImg.size());
 		setImages();
@@ -205,7 +206,7 @@ public class Viewer {
 		for (int d = 0; d < depth; d++) {
 			for (int h = 0; h < height; h++) {
 				for (int w = 0; w < width; w++) {
-					if(rawMat[d * height * width + h * width + w] == (byte)pixVal)
+					if(rawMat.get(d * height * width + h * width + w) == pixVal)
 						pixels[d * height * width + h * width + w] = (byte)255;
 				}
 			}
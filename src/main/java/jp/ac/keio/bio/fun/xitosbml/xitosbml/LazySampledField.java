@@ -0,0 +1,273 @@
+package jp.ac.keio.bio.fun.xitosbml.xitosbml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.sbml.jsbml.ext.spatial.CompressionKind;
+import org.sbml.jsbml.ext.spatial.SampledField;
+
+import jp.ac.keio.bio.fun.xitosbml.image.VoxelVolume;
+import jp.ac.keio.bio.fun.xitosbml.util.ParallelDeflater;
+
+/**
+ * The class LazySampledField, which is a SampledField whose samples are kept as the voxels of
+ * a spatial image instead of a string. The samples are encoded as text only when they are needed:
+ * {@link SampledFieldWriter} encodes them directly into the output stream of an SBML file, and
+ * {@link #getSamples()} encodes them into a temporary string for other readers of the SampledField.
+ * The samples are encoded slice by slice through a reusable buffer, so no string of the whole
+ * samples is created while the SBML file is written.
+ * The samples can be compressed by {@link #deflate(int)}. As libSBML does, the text of the samples
+ * is compressed into a zlib stream, and the bytes of the stream are the samples of the SampledField.
+ * If the samples are replaced by {@link #setSamples(String)}, this object behaves as a SampledField.
+ * Before the voxel volume of spatial image is released, this object must be detached from it
+ * by {@link #release()}.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class LazySampledField extends SampledField {
+
+	/** The serial version UID. */
+	private static final long serialVersionUID = 1L;
+
+	/** The size of the buffer to encode the samples. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The number of voxels of a chunk to be compressed. */
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	/** The voxels of spatial image (null if the samples are set as a string). */
+	private transient VoxelVolume voxels;
+
+	/** The zlib stream of the text of the samples (null if the samples are not compressed). */
+	private transient byte[] compressed;
+
+	/** The placeholder which is returned as the samples while the SBML file is written. */
+	private transient String placeholder;
+
+	/** The flag whether the voxels of spatial image have been released. */
+	private transient boolean released;
+
+	/**
+	 * Instantiates a new SampledField with given voxels of spatial image.
+	 *
+	 * @param voxels the voxels of spatial image
+	 * @param level the SBML level
+	 * @param version the SBML version
+	 */
+	public LazySampledField(VoxelVolume voxels, int level, int version) {
+		super(level, version);
+		this.voxels = voxels;
+		setSamplesLength((int) voxels.size());
+	}
+
+	/**
+	 * Instantiates a new SampledField as a copy of given SampledField.
+	 *
+	 * @param sf the SampledField
+	 */
+	public LazySampledField(LazySampledField sf) {
+		super(sf);
+		this.voxels = sf.voxels;
+		this.compressed = sf.compressed;
+		this.released = sf.released;
+	}
+
+	@Override
+	public LazySampledField clone() {
+		return new LazySampledField(this);
+	}
+
+	/**
+	 * Gets the voxels of spatial image.
+	 *
+	 * @return the voxels of spatial image, or null if the samples are set as a string
+	 */
+	public VoxelVolume getVoxels() {
+		return voxels;
+	}
+
+	/**
+	 * Checks whether the samples are kept as the voxels of spatial image.
+	 *
+	 * @return true, if the samples are encoded when they are needed
+	 */
+	public boolean isLazy() {
+		return voxels != null;
+	}
+
+	/**
+	 * Gets the samples as a string. If the samples are kept as the voxels of spatial image,
+	 * the samples are encoded into a new string on each call, which is not kept by this object.
+	 *
+	 * @return the samples
+	 * @throws IllegalStateException if the voxels of spatial image have been released
+	 */
+	@Override
+	public String getSamples() {
+		checkReleased();
+		if (voxels == null)
+			return super.getSamples();
+		if (placeholder != null)
+			return placeholder;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			writeSamples(out);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return new String(out.toByteArray(), Charset.forName("US-ASCII"));
+	}
+
+	/**
+	 * Sets the samples as a string. The voxels of spatial image are no longer used.
+	 *
+	 * @param samples the samples
+	 */
+	@Override
+	public void setSamples(String samples) {
+		voxels = null;
+		compressed = null;
+		released = false;
+		super.setSamples(samples);
+	}
+
+	/**
+	 * Detaches this SampledField from the voxels of spatial image, so that the voxel volume can be
+	 * released (ex. the temporary file of a memory-mapped volume is deleted) while the SBML document
+	 * is still referenced. The samples can no longer be read: {@link #getSamples()} and
+	 * {@link #writeSamples(OutputStream)} throw IllegalStateException until new samples are set.
+	 */
+	public void release() {
+		voxels = null;
+		compressed = null;
+		released = true;
+	}
+
+	/**
+	 * Checks that the voxels of spatial image have not been released.
+	 *
+	 * @throws IllegalStateException if the voxels have been released
+	 */
+	private void checkReleased() {
+		if (released)
+			throw new IllegalStateException("The samples of " + getId() + " have been released");
+	}
+
+	@Override
+	public boolean isSetSamples() {
+		return voxels != null || super.isSetSamples();
+	}
+
+	/**
+	 * Compresses the samples with given compression level. The text of the samples is compressed
+	 * into a zlib stream in parallel chunks (see {@link ParallelDeflater}), and the compression of
+	 * this SampledField is set to deflated, and its samples length to the length of the stream.
+	 *
+	 * @param level the compression level (0 - 9)
+	 */
+	public void deflate(int level) {
+		final long size = voxels.size();
+		final int count = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		compressed = ParallelDeflater.deflate(new ParallelDeflater.ChunkSource() {
+			@Override
+			public int getChunkCount() {
+				return count;
+			}
+
+			@Override
+			public byte[] getChunk(int n) {
+				long from = (long) n * CHUNK_SIZE;
+				long to = Math.min(from + CHUNK_SIZE, size);
+				byte[] buf = new byte[(int) (to - from) * 6];
+				int pos = 0;
+				for (long i = from; i < to; i++) {
+					if (i != 0)
+						buf[pos++] = ' ';
+					pos = encode(voxels.get(i), buf, pos);
+				}
+				return Arrays.copyOf(buf, pos);
+			}
+		}, level);
+		setCompression(CompressionKind.deflated);
+		setSamplesLength(compressed.length);
+	}
+
+	/**
+	 * Sets the placeholder which is returned as the samples while the SBML file is written.
+	 *
+	 * @param placeholder the placeholder, or null to return the samples
+	 */
+	void setPlaceholder(String placeholder) {
+		this.placeholder = placeholder;
+	}
+
+	/**
+	 * Writes the samples to given stream as ASCII text: the pixel values separated by a space,
+	 * or the bytes of the zlib stream separated by a space if the samples are compressed.
+	 * The voxels are read slice by slice (as 16-bit values, so that both 8-bit and 16-bit
+	 * images are encoded in the same way), and encoded through a reusable buffer.
+	 *
+	 * @param out the output stream
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalStateException if the voxels of spatial image have been released
+	 */
+	public void writeSamples(OutputStream out) throws IOException {
+		checkReleased();
+		byte[] buf = new byte[BUFFER_SIZE];
+		int pos = 0;
+		if (compressed != null) {
+			for (int i = 0; i < compressed.length; i++) {
+				if (pos > BUFFER_SIZE - 6) {
+					out.write(buf, 0, pos);
+					pos = 0;
+				}
+				if (i != 0)
+					buf[pos++] = ' ';
+				pos = encode(compressed[i] & 0xFF, buf, pos);
+			}
+			out.write(buf, 0, pos);
+			return;
+		}
+		int sliceSize = voxels.getWidth() * voxels.getHeight();
+		short[] slice = new short[sliceSize];
+		for (int d = 0; d < voxels.getDepth(); d++) {
+			voxels.getSlice(d, slice);
+			for (int i = 0; i < sliceSize; i++) {
+				if (pos > BUFFER_SIZE - 6) {
+					out.write(buf, 0, pos);
+					pos = 0;
+				}
+				if (d != 0 || i != 0)
+					buf[pos++] = ' ';
+				pos = encode(slice[i] & 0xFFFF, buf, pos);
+			}
+		}
+		out.write(buf, 0, pos);
+	}
+
+	/**
+	 * Encodes given value as decimal digits into given buffer.
+	 *
+	 * @param val the value (0 - 65535)
+	 * @param buf the buffer
+	 * @param pos the position to write the first digit
+	 * @return the position after the last digit
+	 */
+	private static int encode(int val, byte[] buf, int pos) {
+		if (val < 10) {
+			buf[pos] = (byte) ('0' + val);
+			return pos + 1;
+		}
+		int digits = val < 100 ? 2 : val < 1000 ? 3 : val < 10000 ? 4 : 5;
+		for (int k = pos + digits - 1; k >= pos; k--) {
+			buf[k] = (byte) ('0' + val % 10);
+			val /= 10;
+		}
+		return pos + digits;
+	}
+}
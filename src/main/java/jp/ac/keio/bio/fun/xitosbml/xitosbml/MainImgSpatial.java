@@ -1,7 +1,11 @@
 package jp.ac.keio.bio.fun.xitosbml.xitosbml;
 
+import java.io.File;
+import java.io.IOException;
+
 import javax.swing.JOptionPane;
 
+import ij.gui.GenericDialog;
 import jp.ac.keio.bio.fun.xitosbml.util.ModelSaver;
 import jp.ac.keio.bio.fun.xitosbml.util.ModelValidator;
 
@@ -39,6 +43,7 @@ public class MainImgSpatial extends MainSpatial {
 		computeImg();
 		SpatialSBMLExporter sbmlexp = new SpatialSBMLExporter(spImg);
 		model = sbmlexp.getModel();
+		showExportDialog(sbmlexp);
 		sbmlexp.createGeometryElements();
 		// visualize(spImg);
 
@@ -52,11 +57,43 @@ public class MainImgSpatial extends MainSpatial {
 		document = sbmlexp.getDocument();
 		ModelSaver saver = new ModelSaver(document);
 		saver.save();
+		if (saver.getName() != null) {
+			try {
+				sbmlexp.writeGeometryCache(new File(saver.getPath() + "/" + saver.getName() + ".xml"));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		spImg.saveAsImage(saver.getPath(), saver.getName());
 		showDomainStructure();
 
-		print();
+		print(saver.getPreview());
 		ModelValidator validator = new ModelValidator(document);
 		validator.validate();
+		// To delete the temporary files of the voxel volumes which are no longer used
+		sbmlexp.release();
+	}
+
+	/**
+	 * Show a dialog to choose whether the SampledField is compressed (deflated) and
+	 * its compression level, and whether the geometry cache (sidecar file) is written
+	 * with the SBML file. The default values are given by the exporter.
+	 * If the dialog is canceled, the default values are used.
+	 *
+	 * @param sbmlexp the SpatialSBMLExporter
+	 */
+	private void showExportDialog(SpatialSBMLExporter sbmlexp) {
+		int level = sbmlexp.getCompressionLevel();
+		GenericDialog gd = new GenericDialog("Export Options");
+		gd.addCheckbox("Compress SampledField (deflate)", level >= 0);
+		gd.addSlider("Compression level", 0, 9, level >= 0 ? level : 6);
+		gd.addCheckbox("Write geometry cache (.geom)", sbmlexp.isGeometryCache());
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+		boolean compress = gd.getNextBoolean();
+		level = (int) gd.getNextNumber();
+		sbmlexp.setCompressionLevel(compress ? Math.max(0, Math.min(level, 9)) : -1);
+		sbmlexp.setGeometryCache(gd.getNextBoolean());
 	}
-}
\ No newline at end of file
+}
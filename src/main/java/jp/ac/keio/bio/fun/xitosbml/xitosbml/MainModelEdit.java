@@ -51,10 +51,10 @@ public class MainModelEdit extends MainSBaseSpatial {
 		ModelSaver saver = new ModelSaver(document);
 		saver.save();
 		showDomainStructure();
-		GeometryDatas gData = new GeometryDatas(model);
+		GeometryDatas gData = new GeometryDatas(model, sbmlFile);
 		visualize(gData.getSpImgList());
 		
-		print();
+		print(saver.getPreview());
 		
 		ModelValidator validator = new ModelValidator(document);
 		validator.validate();
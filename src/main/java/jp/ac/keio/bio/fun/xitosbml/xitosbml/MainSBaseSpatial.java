@@ -33,6 +33,9 @@ import jp.ac.keio.bio.fun.xitosbml.visual.Viewer;
  */
 public abstract class MainSBaseSpatial extends MainSpatial implements PlugIn{
 	
+	/** The SBML file which is read by {@link #getDocument()}. */
+	protected File sbmlFile;
+	
 	/**
      * Not used in this class.
 	 * @see ij.plugin.PlugIn#run(java.lang.String)
@@ -73,7 +76,8 @@ public abstract class MainSBaseSpatial extends MainSpatial implements PlugIn{
 
 		String dir = gd.getNextString();
 
-		return SBMLReader.read(new File(dir));
+		sbmlFile = new File(dir);
+		return SBMLReader.read(sbmlFile);
 	}
 
 	/**
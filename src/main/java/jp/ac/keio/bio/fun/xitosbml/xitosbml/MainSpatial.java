@@ -3,15 +3,11 @@ package jp.ac.keio.bio.fun.xitosbml.xitosbml;
 import java.util.HashMap;
 import java.util.Map.Entry;
 
-import javax.xml.stream.XMLStreamException;
-
 import org.sbml.jsbml.ListOf;
 import org.sbml.jsbml.Model;
 import org.sbml.jsbml.Parameter;
 import org.sbml.jsbml.SBMLDocument;
-import org.sbml.jsbml.SBMLException;
 import org.sbml.jsbml.Species;
-import org.sbml.jsbml.TidySBMLWriter;
 import org.sbml.jsbml.ext.spatial.Geometry;
 import org.sbml.jsbml.ext.spatial.SpatialModelPlugin;
 
@@ -23,6 +19,7 @@ import jp.ac.keio.bio.fun.xitosbml.image.ImageBorder;
 import jp.ac.keio.bio.fun.xitosbml.image.ImageEdit;
 import jp.ac.keio.bio.fun.xitosbml.image.ImageExplorer;
 import jp.ac.keio.bio.fun.xitosbml.image.Interpolator;
+import jp.ac.keio.bio.fun.xitosbml.image.SlabPipeline;
 import jp.ac.keio.bio.fun.xitosbml.image.SpatialImage;
 import jp.ac.keio.bio.fun.xitosbml.pane.TabTables;
 import jp.ac.keio.bio.fun.xitosbml.visual.DomainStruct;
@@ -93,8 +90,17 @@ public abstract class MainSpatial implements PlugIn {
 	 * The converted image will be generated as
 	 * {@link jp.ac.keio.bio.fun.xitosbml.image.SpatialImage}, which is a base class
 	 * for representing spatial image in XitoSBML.
+	 * If the system property "xitosbml.streaming" is true, the image is processed by
+	 * {@link jp.ac.keio.bio.fun.xitosbml.image.SlabPipeline} without materializing
+	 * a stack of images in each step.
+	 * The image is then resampled and edited by {@link #editImg()}.
 	 */
 	protected void computeImg() {
+		if (SlabPipeline.isEnabled()) {
+			spImg = new SlabPipeline(hashSampledValue, hashDomainTypes).run(imgexp.getDomFile());
+			editImg();
+			return;
+		}
 		Interpolator interpolator = new Interpolator();
 		HashMap<String, ImagePlus> hashDomFile = imgexp.getDomFile();
 		interpolator.interpolate(hashDomFile);
@@ -110,6 +116,22 @@ public abstract class MainSpatial implements PlugIn {
 		ImageBorder imgBorder = new ImageBorder(spImg);
 		spImg.updateImage(imgBorder.getStackImage());
 
+		editImg();
+	}
+
+	/**
+	 * Resample the image to the target voxel size or voxel budget if it is given
+	 * (see {@link jp.ac.keio.bio.fun.xitosbml.image.SpatialImage#resampleToTarget()}),
+	 * and add a membrane between two different domains.
+	 * The image before resampling is released if it is resampled.
+	 * The resolution pyramid is not created, since only the level 0 is exported from the GUI
+	 * (the levels are exported by {@link jp.ac.keio.bio.fun.xitosbml.cui.CuiMainImgSpatial}).
+	 */
+	protected void editImg() {
+		SpatialImage resampled = spImg.resampleToTarget();
+		if (resampled != spImg)
+			spImg.release();
+		spImg = resampled;
 		new ImageEdit(spImg);
 	}
 
@@ -162,19 +184,16 @@ public abstract class MainSpatial implements PlugIn {
 	}
 
 	/**
-	 * Prints the SBML document to stdout.
+	 * Prints the preview of the SBML document to stdout. The preview is a bounded text of
+	 * the document in which long arrays (ex. the samples of SampledField) are elided, and is
+	 * created while the document is saved (see {@link jp.ac.keio.bio.fun.xitosbml.util.ModelSaver#getPreview()}).
+	 * Nothing is printed if no preview is given, that is, if the document was not saved or
+	 * the preview is disabled (see {@link SampledFieldWriter#getPreviewLength()}).
+	 *
+	 * @param preview the preview of the saved SBML document, or null
 	 */
-	protected void print() {
-		String docStr;
-		try {
-			docStr = new TidySBMLWriter().writeSBMLToString(document);
-			System.out.println(docStr);
-		} catch (SBMLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (XMLStreamException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+	protected void print(String preview) {
+		if (preview != null)
+			System.out.println(preview);
 	}
 }
\ No newline at end of file
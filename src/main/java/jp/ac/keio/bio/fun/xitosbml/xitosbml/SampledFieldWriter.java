@@ -0,0 +1,394 @@
+package jp.ac.keio.bio.fun.xitosbml.xitosbml;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLException;
+import org.sbml.jsbml.SBMLWriter;
+import org.sbml.jsbml.ext.spatial.SampledField;
+import org.sbml.jsbml.ext.spatial.SpatialConstants;
+import org.sbml.jsbml.ext.spatial.SpatialModelPlugin;
+
+/**
+ * The class SampledFieldWriter, which writes an SBML document to a file or a stream, and
+ * encodes the samples of each {@link LazySampledField} directly into the output.
+ * While the document is written by org.sbml.jsbml.SBMLWriter, each LazySampledField returns
+ * a short placeholder as its samples, and the placeholder is replaced by the encoded samples
+ * when it passes through the output stream. Thus the samples are never held as a string.
+ * A bounded preview of the document can be created from the same pass over the output
+ * (see {@link #writeWithPreview(SBMLDocument, File, int)}), so the document does not have
+ * to be serialized again to show it in a log.
+ * Date Created: Oct 18, 2026
+ *
+ * @author Kaito Ii &lt;ii@fun.bio.keio.ac.jp&gt;
+ * @author Akira Funahashi &lt;funa@bio.keio.ac.jp&gt;
+ */
+public class SampledFieldWriter {
+
+	/** The default maximum length of the preview of a saved SBML document. */
+	public static final int DEFAULT_PREVIEW_LENGTH = 1 << 16;
+
+	/**
+	 * Writes given SBML document to given file.
+	 *
+	 * @param document the SBML document
+	 * @param file the file
+	 * @throws XMLStreamException if the document cannot be written as XML
+	 * @throws IOException if an I/O error occurs
+	 * @throws SBMLException if the document is not valid
+	 */
+	public static void write(SBMLDocument document, File file) throws XMLStreamException, IOException, SBMLException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		try {
+			write(document, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes given SBML document to given file, and returns a preview of the written document.
+	 * The preview is created from the bytes written to the file, by {@link PreviewOutputStream}:
+	 * a long text content of an element (ex. the samples of SampledField) is elided, and the preview
+	 * is truncated at given length.
+	 *
+	 * @param document the SBML document
+	 * @param file the file
+	 * @param previewLength the maximum length of the preview, or 0 to create no preview
+	 * @return the preview, or null if previewLength is 0
+	 * @throws XMLStreamException if the document cannot be written as XML
+	 * @throws IOException if an I/O error occurs
+	 * @throws SBMLException if the document is not valid
+	 */
+	public static String writeWithPreview(SBMLDocument document, File file, int previewLength) throws XMLStreamException, IOException, SBMLException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		PreviewOutputStream preview = previewLength > 0 ? new PreviewOutputStream(out, previewLength) : null;
+		try {
+			write(document, preview != null ? preview : out);
+		} finally {
+			out.close();
+		}
+		return preview != null ? preview.getPreview() : null;
+	}
+
+	/**
+	 * Gets the maximum length of the preview of a saved SBML document, which is given by the
+	 * system property "xitosbml.previewLength" (default: 65536). No preview is created if it is 0.
+	 *
+	 * @return the maximum length of the preview
+	 */
+	public static int getPreviewLength() {
+		return Math.max(0, Integer.getInteger("xitosbml.previewLength", DEFAULT_PREVIEW_LENGTH));
+	}
+
+	/**
+	 * Writes given SBML document to given stream. The stream is flushed but not closed.
+	 *
+	 * @param document the SBML document
+	 * @param out the output stream
+	 * @throws XMLStreamException if the document cannot be written as XML
+	 * @throws IOException if an I/O error occurs
+	 * @throws SBMLException if the document is not valid
+	 */
+	public static void write(SBMLDocument document, OutputStream out) throws XMLStreamException, IOException, SBMLException {
+		List<LazySampledField> fields = getLazySampledFields(document);
+		if (fields.isEmpty()) {
+			SBMLWriter.write(document, out, ' ', (short) 2);
+			out.flush();
+			return;
+		}
+
+		String prefix = "#xitosbml-samples-" + UUID.randomUUID() + "-";
+		for (int n = 0; n < fields.size(); n++)
+			fields.get(n).setPlaceholder(prefix + n + "#");
+		PlaceholderOutputStream filter = new PlaceholderOutputStream(out, prefix, fields);
+		try {
+			SBMLWriter.write(document, filter, ' ', (short) 2);
+			filter.finish();
+		} finally {
+			for (LazySampledField sf : fields)
+				sf.setPlaceholder(null);
+		}
+	}
+
+	/**
+	 * Gets the SampledFields of given SBML document whose samples are kept as voxels.
+	 *
+	 * @param document the SBML document
+	 * @return the list of LazySampledFields
+	 */
+	private static List<LazySampledField> getLazySampledFields(SBMLDocument document) {
+		List<LazySampledField> fields = new ArrayList<LazySampledField>();
+		Model model = document.getModel();
+		if (model == null)
+			return fields;
+		SpatialModelPlugin plugin = (SpatialModelPlugin) model.getPlugin(SpatialConstants.namespaceURI);
+		if (plugin == null || !plugin.isSetGeometry())
+			return fields;
+		for (SampledField sf : plugin.getGeometry().getListOfSampledFields())
+			if (sf instanceof LazySampledField && ((LazySampledField) sf).isLazy())
+				fields.add((LazySampledField) sf);
+		return fields;
+	}
+
+	/**
+	 * The class PlaceholderOutputStream, which replaces each placeholder
+	 * ("prefix" + index + "#") in the bytes written to it by the samples of the
+	 * LazySampledField of the index. The other bytes are written as is.
+	 */
+	private static class PlaceholderOutputStream extends FilterOutputStream {
+
+		/** The prefix of placeholders. It contains '#' only as its first byte. */
+		private final byte[] prefix;
+
+		/** The LazySampledFields indexed by their placeholder. */
+		private final List<LazySampledField> fields;
+
+		/** The number of bytes of the prefix which are matched. */
+		private int matched;
+
+		/** The digits of the index read after the prefix. */
+		private final byte[] digits = new byte[9];
+
+		/** The number of digits read after the prefix. */
+		private int digitCount;
+
+		/**
+		 * Instantiates a new placeholder output stream.
+		 *
+		 * @param out the underlying output stream
+		 * @param prefix the prefix of placeholders
+		 * @param fields the LazySampledFields indexed by their placeholder
+		 */
+		PlaceholderOutputStream(OutputStream out, String prefix, List<LazySampledField> fields) {
+			super(out);
+			this.prefix = prefix.getBytes(Charset.forName("US-ASCII"));
+			this.fields = fields;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (matched < prefix.length) {
+				if (b == prefix[matched]) {
+					matched++;
+					return;
+				}
+			} else if (b >= '0' && b <= '9' && digitCount < digits.length) {
+				digits[digitCount++] = (byte) b;
+				return;
+			} else if (b == '#' && digitCount > 0) {
+				int index = Integer.parseInt(new String(digits, 0, digitCount, Charset.forName("US-ASCII")));
+				if (index < fields.size()) {
+					fields.get(index).writeSamples(out);
+					matched = 0;
+					digitCount = 0;
+					return;
+				}
+			}
+			flushPending();
+			if (b == prefix[0])
+				matched = 1;
+			else
+				out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			int start = off;
+			for (int i = off, end = off + len; i < end; i++) {
+				if (matched == 0 && b[i] != prefix[0])
+					continue;
+				out.write(b, start, i - start);
+				write(b[i]);
+				start = i + 1;
+			}
+			out.write(b, start, off + len - start);
+		}
+
+		/**
+		 * Writes the bytes which are held as a part of a placeholder, and flushes the stream.
+		 * This method is called after the whole document is written.
+		 *
+		 * @throws IOException if an I/O error occurs
+		 */
+		void finish() throws IOException {
+			flushPending();
+			out.flush();
+		}
+
+		/**
+		 * Writes the bytes which were held as a part of a placeholder but are not a placeholder.
+		 *
+		 * @throws IOException if an I/O error occurs
+		 */
+		private void flushPending() throws IOException {
+			out.write(prefix, 0, matched);
+			out.write(digits, 0, digitCount);
+			matched = 0;
+			digitCount = 0;
+		}
+	}
+
+	/**
+	 * The class PreviewOutputStream, which writes the bytes written to it to the underlying
+	 * stream as is, and keeps a bounded preview of them. The text content of an element longer than
+	 * {@link #ELIDE_LENGTH} bytes (ex. the samples of SampledField, or the array data of SpatialPoints)
+	 * is elided except for its head, and the preview is truncated at the maximum length.
+	 */
+	private static class PreviewOutputStream extends FilterOutputStream {
+
+		/** The maximum length of a text content which is kept in the preview. */
+		private static final int ELIDE_LENGTH = 128;
+
+		/** The length of the head of an elided text content. */
+		private static final int HEAD_LENGTH = 64;
+
+		/** The preview. */
+		private final ByteArrayOutputStream preview = new ByteArrayOutputStream();
+
+		/** The maximum length of the preview. */
+		private final int maxLength;
+
+		/** The flag whether the preview is truncated. */
+		private boolean truncated;
+
+		/** The flag whether the bytes are in a text content (after '>' and before '<'). */
+		private boolean inText;
+
+		/** The head of the current text content. */
+		private final byte[] text = new byte[ELIDE_LENGTH];
+
+		/** The length of the current text content. */
+		private long textLength;
+
+		/**
+		 * Instantiates a new preview output stream.
+		 *
+		 * @param out the underlying output stream
+		 * @param maxLength the maximum length of the preview
+		 */
+		PreviewOutputStream(OutputStream out, int maxLength) {
+			super(out);
+			this.maxLength = maxLength;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			record(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			record(b, off, len);
+		}
+
+		/**
+		 * Adds given bytes to the preview.
+		 *
+		 * @param b the bytes
+		 * @param off the start offset
+		 * @param len the number of bytes
+		 */
+		private void record(byte[] b, int off, int len) {
+			for (int i = off, end = off + len; i < end && !truncated; i++) {
+				byte c = b[i];
+				if (inText && c != '<') {
+					if (textLength < ELIDE_LENGTH) {
+						text[(int) textLength++] = c;
+					} else {
+						int j = i;
+						while (j < end && b[j] != '<')
+							j++;
+						textLength += j - i;
+						i = j - 1;
+					}
+					continue;
+				}
+				if (c == '<') {
+					flushText();
+					inText = false;
+				}
+				append(c);
+				if (c == '>') {
+					inText = true;
+					textLength = 0;
+				}
+			}
+		}
+
+		/**
+		 * Adds the current text content to the preview, or its head if the text content is elided.
+		 */
+		private void flushText() {
+			if (!inText)
+				return;
+			if (textLength <= ELIDE_LENGTH) {
+				append(text, 0, (int) textLength);
+			} else {
+				append(text, 0, HEAD_LENGTH);
+				byte[] note = (" ... [" + (textLength - HEAD_LENGTH) + " characters elided]").getBytes(Charset.forName("US-ASCII"));
+				append(note, 0, note.length);
+			}
+			textLength = 0;
+		}
+
+		/**
+		 * Appends given byte to the preview.
+		 *
+		 * @param b the byte
+		 */
+		private void append(byte b) {
+			if (preview.size() < maxLength)
+				preview.write(b);
+			else
+				append(new byte[] { b }, 0, 1);
+		}
+
+		/**
+		 * Appends given bytes to the preview, and truncates the preview at the maximum length.
+		 *
+		 * @param b the bytes
+		 * @param off the start offset
+		 * @param len the number of bytes
+		 */
+		private void append(byte[] b, int off, int len) {
+			if (truncated)
+				return;
+			int room = maxLength - preview.size();
+			if (len <= room) {
+				preview.write(b, off, len);
+				return;
+			}
+			preview.write(b, off, room);
+			byte[] note = "\n... (preview truncated)".getBytes(Charset.forName("US-ASCII"));
+			preview.write(note, 0, note.length);
+			truncated = true;
+		}
+
+		/**
+		 * Gets the preview of the bytes written to this stream.
+		 *
+		 * @return the preview
+		 */
+		String getPreview() {
+			flushText();
+			inText = false;
+			return new String(preview.toByteArray(), Charset.forName("UTF-8"));
+		}
+	}
+}
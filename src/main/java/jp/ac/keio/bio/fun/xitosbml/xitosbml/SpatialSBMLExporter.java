@@ -1,6 +1,6 @@
 package jp.ac.keio.bio.fun.xitosbml.xitosbml;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -10,7 +10,6 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.WeakHashMap;
-import java.util.zip.Deflater;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -52,6 +51,8 @@ import org.sbml.jsbml.ext.spatial.SpatialSymbolReference;
 import org.scijava.vecmath.Point3d;
 
 import jp.ac.keio.bio.fun.xitosbml.image.SpatialImage;
+import jp.ac.keio.bio.fun.xitosbml.image.VoxelVolume;
+import jp.ac.keio.bio.fun.xitosbml.util.GeometryCache;
 import jp.ac.keio.bio.fun.xitosbml.util.PluginConstants;
 import jp.ac.keio.bio.fun.xitosbml.util.PluginInfo;
 
@@ -95,8 +96,8 @@ public class SpatialSBMLExporter{
   /** The adjacents list of spatial image. */
   private ArrayList<ArrayList<String>> adjacentsList;
   
-  /** The raw data of spatial image in 1D array. */
-  private byte[] raw;
+  /** The voxels of spatial image. */
+  private VoxelVolume voxels;
   
   /** The size of an image (width, height and depth). */
   private int width, height, depth;
@@ -106,6 +107,18 @@ public class SpatialSBMLExporter{
   
   /** The delta. */
   private Point3d delta;
+  
+  /** The hashmap of size (volume or area) of each domain type. HashMap&lt;String, Double&gt; */
+  private HashMap<String, Double> hashDomainSize;
+  
+  /** The compression level of SampledField (0 - 9), or -1 if SampledField is not compressed. */
+  private int compressionLevel = Integer.getInteger("xitosbml.compressionLevel", -1);
+
+  /** The flag whether the geometry cache (sidecar file) is written with the SBML file. */
+  private boolean geometryCache = Boolean.getBoolean("xitosbml.geometryCache");
+
+  /** The spatial image. */
+  private SpatialImage spImg;
 
 	/**
 	 * Instantiates a new spatial SBML exporter.
@@ -130,11 +143,12 @@ public class SpatialSBMLExporter{
 	 */
 	public SpatialSBMLExporter(SpatialImage spImg) {
 		this();
+		this.spImg = spImg;
 		this.hashDomainTypes = spImg.getHashDomainTypes();
 		this.hashSampledValue = spImg.getHashSampledValue();
 		this.hashDomainNum = spImg.getHashDomainNum();
 		this.hashDomInteriorPt = spImg.getHashDomInteriorPt();
-		this.raw = spImg.getRaw();
+		this.voxels = spImg.getVoxels();
 		this.width = spImg.getWidth();
 		this.height = spImg.getHeight();
 		this.depth = spImg.getDepth();
@@ -143,6 +157,33 @@ public class SpatialSBMLExporter{
 		model = document.getModel();
 		spatialplugin = (SpatialModelPlugin) model.getPlugin(SpatialConstants.namespaceURI);
 		unit = spImg.getUnit();
+		createDomainSize(spImg);
+	}
+
+	/**
+	 * Creates the hashmap of size of each domain type from the statistics of given SpatialImage.
+	 * The size of a domain type which has a sampled value is the volume of its voxels, and the size of
+	 * a membrane is the sum of contact areas of its domains. No additional scan of the image is needed.
+	 *
+	 * @param spImg the {@link jp.ac.keio.bio.fun.xitosbml.image.SpatialImage}
+	 */
+	private void createDomainSize(SpatialImage spImg) {
+		hashDomainSize = new HashMap<String, Double>();
+		HashMap<String, Double> hashMembraneArea = spImg.getHashMembraneArea();
+		for (String dom : hashDomainTypes.keySet()) {
+			Integer value = hashSampledValue.get(dom);
+			if (value != null && spImg.getVoxelCount() != null) {
+				hashDomainSize.put(dom, spImg.getVolume(value));
+			} else if (value == null && hashMembraneArea != null) {
+				double area = 0;
+				for (Entry<String, Double> e : hashMembraneArea.entrySet()) {
+					String key = e.getKey();
+					if (key.startsWith(dom) && key.substring(dom.length()).matches("[0-9]+"))
+						area += e.getValue();
+				}
+				hashDomainSize.put(dom, area);
+			}
+		}
 	}
 
 	/**
@@ -179,8 +220,12 @@ public class SpatialSBMLExporter{
 	/**
 	 * Adds the geometry definitions.
 	 * This method supports creating both 2D and 3D spaces (by looking into DomainType).
-     * Each element in SampledField will store unsigned int 8 bit (uint8) value.
-     * Data compression is currently disabled.
+     * Each element in SampledField will store unsigned int 8 bit (uint8) value, or unsigned
+     * int 16 bit (uint16) value if the spatial image is a 16-bit label image.
+     * The samples are kept as the voxels of spatial image, and are encoded when the SBML
+     * document is written by {@link SampledFieldWriter} (see {@link LazySampledField}).
+     * If the compression level is set (see {@link #setCompressionLevel(int)}), the samples
+     * are deflated in parallel chunks.
 	 */
 	public void addGeometryDefinitions() {
 		SampledFieldGeometry sfg = geometry.createSampledFieldGeometry();
@@ -196,74 +241,92 @@ public class SpatialSBMLExporter{
 			}
 		}
 		
-		SampledField sf = geometry.createSampledField();
+		LazySampledField sf = new LazySampledField(voxels, geometry.getLevel(), geometry.getVersion());
 		sf.setSpatialId("mySampledField");
-		sf.setDataType(DataKind.UINT8);
+		sf.setDataType(voxels.getBitDepth() == 16 ? DataKind.UINT16 : DataKind.UINT8);
 		sf.setNumSamples1(width);
 		sf.setNumSamples2(height);
 		//if(depth > 1)
 		sf.setNumSamples3(depth);
 		sf.setInterpolation(InterpolationKind.nearestneighbor);
-//		byte[] compressed = compressRawData(raw);
-		String s;
-//		if (compressed == null){
-			sf.setCompression(CompressionKind.uncompressed);
-			s = Arrays.toString(byteArrayToIntArray(raw));
-//		}else{
-//			sf.setCompression(CompressionKind.deflated);
-//			s = Arrays.toString(byteArrayToIntArray(compressed));
-//		}
-		s = s.replace("[", "");
-		s = s.replace("]", "");
-		s = s.replace(",", "");
-		sf.setSamples(s);
-		sf.setSamplesLength(raw.length);
+		sf.setCompression(CompressionKind.uncompressed);
+		if (compressionLevel >= 0)
+			sf.deflate(compressionLevel);
+		geometry.addSampledField(sf);
 	}
 
 	/**
-	 * Compress raw data of spatial image in 1D array.
+	 * Gets the compression level of SampledField.
 	 *
-	 * @param raw the raw data of spatial image in 1D array
-	 * @return byte[] the byte array
+	 * @return the compression level (0 - 9), or -1 if SampledField is not compressed
 	 */
-	public byte[] compressRawData(byte[] raw) {
-		Deflater compresser = new Deflater();
-		compresser.setLevel(Deflater.BEST_COMPRESSION);
-		compresser.setInput(raw);
-		compresser.finish();
-		int size;
-		byte[] buffer = new byte[1024];
-		byte[] compressed = null;
-		ByteArrayOutputStream stream = new ByteArrayOutputStream();
-		while (true) {
-			size = compresser.deflate(buffer);
-			stream.write(buffer, 0, size);
-			if (compresser.finished()) {
-				break;
-			}
-		}
-		compressed = stream.toByteArray();
-		try {
-			stream.close();
-		} catch (IOException e1) {
-			e1.printStackTrace();
-			return null;
-		}
-		return compressed;
+	public int getCompressionLevel() {
+		return compressionLevel;
 	}
 
 	/**
-	 * Convert byte array to int array.
+	 * Sets the compression level of SampledField. The default value is given by the system
+	 * property "xitosbml.compressionLevel" (not compressed if the property is not set).
+	 * This method should be called before {@link #createGeometryElements()}.
 	 *
-	 * @param compressed the compressed 1D byte array
-	 * @return int[] the 1D integer array
+	 * @param compressionLevel the compression level (0 - 9), or -1 not to compress SampledField
+	 * @throws IllegalArgumentException if the compression level is larger than 9
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		if (compressionLevel > 9)
+			throw new IllegalArgumentException("Compression level must be 0 - 9: " + compressionLevel);
+		this.compressionLevel = compressionLevel < 0 ? -1 : compressionLevel;
+	}
+
+	/**
+	 * Checks whether the geometry cache (sidecar file) is written with the SBML file.
+	 *
+	 * @return true, if the geometry cache is written
+	 */
+	public boolean isGeometryCache() {
+		return geometryCache;
+	}
+
+	/**
+	 * Sets whether the geometry cache (sidecar file) is written with the SBML file. The default value
+	 * is given by the system property "xitosbml.geometryCache" (not written if the property is not set).
+	 *
+	 * @param geometryCache true to write the geometry cache
+	 */
+	public void setGeometryCache(boolean geometryCache) {
+		this.geometryCache = geometryCache;
+	}
+
+	/**
+	 * Writes the geometry cache of the SBML file saved to given file, if the geometry cache is enabled
+	 * (see {@link #setGeometryCache(boolean)}). The cache is written to &lt;SBML file&gt;.geom by
+	 * {@link GeometryCache}, and is used when the SBML file is opened again (see
+	 * {@link jp.ac.keio.bio.fun.xitosbml.geometry.GeometryDatas}). Nothing is written if the geometry
+	 * has no SampledField. This method should be called after the SBML document is saved.
+	 *
+	 * @param sbmlFile the SBML file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void writeGeometryCache(File sbmlFile) throws IOException {
+		if (!geometryCache || spImg == null || geometry == null || geometry.getListOfSampledFields().isEmpty())
+			return;
+		GeometryCache.write(GeometryCache.getCacheFile(sbmlFile), geometry, "mySampledField", spImg);
+	}
+
+	/**
+	 * Releases the voxel volumes of spatial image (see {@link SpatialImage#release()}). The SampledFields
+	 * of the SBML document are detached from the voxels first (see {@link LazySampledField#release()}),
+	 * so the document never reads a released volume. This method should be called after the SBML
+	 * document is saved and the geometry cache is written.
 	 */
-	public int[] byteArrayToIntArray(byte[] compressed) {
-		int[] intArray = new int[compressed.length];
-		for (int i = 0; i < compressed.length; i++) {
-			intArray[i] = compressed[i] & 0xff;
+	public void release() {
+		if (geometry != null) {
+			for (SampledField sf : geometry.getListOfSampledFields())
+				if (sf instanceof LazySampledField)
+					((LazySampledField) sf).release();
 		}
-		return intArray;
+		if (spImg != null)
+			spImg.release();
 	}
 
 	/**
@@ -366,9 +429,10 @@ public class SpatialSBMLExporter{
 			CompartmentMapping cm = new CompartmentMapping();
 			cm.setSpatialId(e.getKey() + c.getId());
 			cm.setDomainType(e.getKey());
-			// TODO 
-			//cm.setUnitSize(delta.x * delta.y * delta.z);
+			// the whole domain type is mapped to the compartment, and its size is the volume (or area) of the domain type
 			cm.setUnitSize(1);
+			if (hashDomainSize != null && hashDomainSize.containsKey(e.getKey()))
+				c.setSize(hashDomainSize.get(e.getKey()));
 
 			spatialcompplugin.setCompartmentMapping(cm);
 		}